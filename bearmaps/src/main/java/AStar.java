@@ -0,0 +1,115 @@
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A* search over the dense vertex indices of a <code>CompactGraph</code>, using the great-circle
+ * distance to the destination point as its heuristic unless given a tighter one, such as the
+ * landmark bounds of <code>Landmarks</code>. All per-vertex working state lives in a
+ * caller-owned <code>SearchContext</code>, so a search allocates nothing in proportion to the
+ * graph.
+ *
+ * A search may start from several sources, each already some distance along, and end at several
+ * targets, each with some distance still to go. That is how routes between points in the middle
+ * of road segments are found without adding their virtual vertices to the shared graph.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class AStar {
+    private final CompactGraph g;
+    private final SearchContext ctx;
+    /** Lower bound on the distance from each vertex to the destination. */
+    private final IntToDoubleFunction heuristic;
+
+    private AStar(CompactGraph g, SearchContext ctx, IntToDoubleFunction heuristic) {
+        this.g = g;
+        this.ctx = ctx;
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Finds the shortest path between two vertices.
+     * @param g The graph to search.
+     * @param ctx Working state sized for <code>g</code>, reset by this call.
+     * @param start The index of the start vertex.
+     * @param dest The index of the destination vertex.
+     * @return The indices of the vertices on the path, from start to dest, or an empty array if
+     * dest cannot be reached.
+     */
+    public static int[] shortestPath(CompactGraph g, SearchContext ctx, int start, int dest) {
+        int end = search(g, ctx, new int[]{start}, new double[]{0}, new int[]{dest},
+                new double[]{0}, g.lat[dest], g.lon[dest], Double.POSITIVE_INFINITY);
+        return end < 0 ? new int[0] : ctx.path(end);
+    }
+
+    /**
+     * Runs A* from several sources to whichever of several targets gives the shortest total, and
+     * leaves the parents of the winning path in <code>ctx</code>.
+     * @param g The graph to search.
+     * @param ctx Working state sized for <code>g</code>, reset by this call.
+     * @param sources Indices of the vertices to start from.
+     * @param sourceCosts The distance already covered on reaching each source.
+     * @param targets Indices of the vertices to end at.
+     * @param targetCosts The distance still to go after each target.
+     * @param destLat The latitude the heuristic aims for.
+     * @param destLon The longitude the heuristic aims for.
+     * @param bound Only paths shorter than this are of interest.
+     * @return The target that ends the shortest path, or -1 if no path is shorter than bound.
+     */
+    static int search(CompactGraph g, SearchContext ctx, int[] sources, double[] sourceCosts,
+                      int[] targets, double[] targetCosts, double destLat, double destLon,
+                      double bound) {
+        IntToDoubleFunction toDest = v -> GraphDB.haversine(g.lat[v], g.lon[v], destLat, destLon);
+        return search(g, ctx, sources, sourceCosts, targets, targetCosts, toDest, bound);
+    }
+
+    /**
+     * Like the search above, with any admissible heuristic in place of great-circle distance. A
+     * heuristic that is not also consistent still gives shortest paths, since vertices are
+     * expanded again whenever a shorter way to them turns up.
+     * @param heuristic Lower bound on the distance from each vertex to the destination point.
+     */
+    static int search(CompactGraph g, SearchContext ctx, int[] sources, double[] sourceCosts,
+                      int[] targets, double[] targetCosts, IntToDoubleFunction heuristic,
+                      double bound) {
+        return new AStar(g, ctx, heuristic).run(sources, sourceCosts, targets, targetCosts,
+                bound);
+    }
+
+    private int run(int[] sources, double[] sourceCosts, int[] targets, double[] targetCosts,
+                    double bound) {
+        ctx.reset();
+        IndexedHeap heap = ctx.heap;
+        for (int i = 0; i < sources.length; i += 1) {
+            relax(sources[i], -1, sourceCosts[i]);
+        }
+        double bestTotal = bound;
+        int bestEnd = -1;
+        while (!heap.isEmpty() && heap.minKey() < bestTotal) {
+            int v = heap.poll();
+            ctx.settled += 1;
+            double d = ctx.dist[v];
+            for (int i = 0; i < targets.length; i += 1) {
+                if (targets[i] == v && d + targetCosts[i] < bestTotal) {
+                    bestTotal = d + targetCosts[i];
+                    bestEnd = v;
+                }
+            }
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                int w = g.targets[k];
+                relax(w, v, d + g.distance(v, w));
+            }
+        }
+        return bestEnd;
+    }
+
+    /** Records that w can be reached through v at distance d, if that is an improvement. */
+    private void relax(int w, int v, double d) {
+        if (!ctx.touched(w)) {
+            ctx.touch(w, heuristic.applyAsDouble(w));
+        } else if (d >= ctx.dist[w]) {
+            return;
+        }
+        ctx.dist[w] = d;
+        ctx.parent[w] = v;
+        ctx.heap.offer(w, d + ctx.heuristic[w]);
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Routes a stream of start and destination coordinates in parallel, for replaying large batches
+ * of trips offline. The stages follow <code>OsmIngestPipeline</code>:
+ * <ol>
+ *     <li>a reader thread parses the input into chunks of pairs and submits each chunk to a
+ *     fork-join pool,</li>
+ *     <li>the pool's workers route the pairs of a chunk and format their result lines, each
+ *     worker searching with its own <code>SearchContext</code>, and</li>
+ *     <li>the calling thread writes the chunks out in input order.</li>
+ * </ol>
+ * The futures of submitted chunks wait in a bounded queue in input order, which serves as the
+ * reorder buffer: a chunk that finishes early waits for those before it, and the reader stops
+ * submitting once the writer falls a few chunks per worker behind, so memory stays bounded
+ * however long the input is.
+ *
+ * Each input line holds one trip as four numbers separated by commas or spaces: start
+ * longitude, start latitude, destination longitude and destination latitude. Blank lines and
+ * lines starting with # are skipped. Each output line holds the length of the route in miles and
+ * its number of vertices, optionally followed by their IDs; unreachable destinations are
+ * written as -1 and 0. Searches bypass the route cache, so workers share nothing they write to.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class BatchRouter {
+    /** Number of trips per chunk. */
+    static final int CHUNK_SIZE = 256;
+    /** Sentinel chunk marking the end of the input. */
+    private static final Chunk END = new Chunk(0);
+
+    private final GraphDB g;
+    private final Router.Algorithm algorithm;
+    private final int workers;
+    private final boolean withPaths;
+
+    /**
+     * Creates a batch router.
+     * @param g The graph to route on.
+     * @param algorithm The search to run for each trip.
+     * @param workers The number of routing threads.
+     * @param withPaths Whether to write the vertex IDs of each route.
+     */
+    public BatchRouter(GraphDB g, Router.Algorithm algorithm, int workers, boolean withPaths) {
+        this.g = g;
+        this.algorithm = algorithm;
+        this.workers = Math.max(1, workers);
+        this.withPaths = withPaths;
+    }
+
+    /** The trips of a run of input lines, and once routed, their output. */
+    private static class Chunk {
+        /** Four coordinates per trip. */
+        final double[] trips;
+        int size;
+        String output;
+        int unreachable;
+
+        Chunk(int capacity) {
+            this.trips = new double[4 * capacity];
+        }
+    }
+
+    /** Counts and timing of a finished run. */
+    public static class Stats {
+        /** The number of trips routed. */
+        public final long routes;
+        /** The number of trips with no route. */
+        public final long unreachable;
+        /** The wall-clock time of the run. */
+        public final long nanos;
+        /** The number of routing threads. */
+        public final int workers;
+
+        Stats(long routes, long unreachable, long nanos, int workers) {
+            this.routes = routes;
+            this.unreachable = unreachable;
+            this.nanos = nanos;
+            this.workers = workers;
+        }
+
+        /** Returns the number of trips routed per second of wall-clock time. */
+        public double routesPerSecond() {
+            return routes / (nanos / 1e9);
+        }
+
+        /**
+         * Returns the throughput per core in use: per thread, unless there are more threads than
+         * cores.
+         */
+        public double routesPerSecondPerCore() {
+            int cores = Math.min(workers, Runtime.getRuntime().availableProcessors());
+            return routesPerSecond() / cores;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d routes (%d unreachable) in %.2f s: %.1f routes/s,"
+                    + " %.1f routes/s per core on %d threads", routes, unreachable, nanos / 1e9,
+                    routesPerSecond(), routesPerSecondPerCore(), workers);
+        }
+    }
+
+    /**
+     * Routes every trip read from <code>in</code> and writes one line per trip to
+     * <code>out</code>, in input order.
+     * @param in The trips. It is read by another thread but not closed.
+     * @param out Where to write the results. It is flushed but not closed.
+     * @return The counts and timing of the run.
+     * @throws IOException If the input cannot be read or parsed, or the output cannot be
+     * written.
+     */
+    public Stats run(BufferedReader in, Writer out) throws IOException {
+        long start = System.nanoTime();
+        BlockingQueue<Future<Chunk>> ordered = new ArrayBlockingQueue<>(2 * workers + 2);
+        ForkJoinPool pool = new ForkJoinPool(workers);
+
+        Thread reader = new Thread(() -> {
+            try {
+                long lineNumber = 0;
+                Chunk chunk = new Chunk(CHUNK_SIZE);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lineNumber += 1;
+                    if (!parse(line, lineNumber, chunk)) {
+                        continue;
+                    }
+                    if (chunk.size == CHUNK_SIZE) {
+                        Chunk full = chunk;
+                        ordered.put(pool.submit(() -> route(full)));
+                        chunk = new Chunk(CHUNK_SIZE);
+                    }
+                }
+                if (chunk.size > 0) {
+                    Chunk last = chunk;
+                    ordered.put(pool.submit(() -> route(last)));
+                }
+                ordered.put(CompletableFuture.completedFuture(END));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                try {
+                    ordered.put(CompletableFuture.failedFuture(e));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "batch-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long routes = 0;
+        long unreachable = 0;
+        try {
+            while (true) {
+                Chunk chunk = ordered.take().get();
+                if (chunk == END) {
+                    break;
+                }
+                out.write(chunk.output);
+                routes += chunk.size;
+                unreachable += chunk.unreachable;
+            }
+            out.flush();
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while routing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            reader.interrupt();
+            pool.shutdownNow();
+        }
+        return new Stats(routes, unreachable, System.nanoTime() - start, workers);
+    }
+
+    /**
+     * Adds the trip on a line to a chunk.
+     * @return False if the line is blank or a comment.
+     * @throws IOException If the line does not hold four numbers.
+     */
+    private static boolean parse(String line, long lineNumber, Chunk chunk) throws IOException {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return false;
+        }
+        String[] fields = trimmed.split("[,\\s]+");
+        if (fields.length != 4) {
+            throw new IOException(String.format("Line %d: expected 4 numbers, found %d.",
+                    lineNumber, fields.length));
+        }
+        try {
+            for (int i = 0; i < 4; i += 1) {
+                chunk.trips[4 * chunk.size + i] = Double.parseDouble(fields[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Line %d: %s", lineNumber, e.getMessage()));
+        }
+        chunk.size += 1;
+        return true;
+    }
+
+    /** Routes the trips of a chunk and formats their result lines. */
+    private Chunk route(Chunk chunk) {
+        CompactGraph c = g.csr;
+        StringBuilder sb = new StringBuilder(chunk.size * (withPaths ? 256 : 24));
+        for (int i = 0; i < chunk.size; i += 1) {
+            double[] t = chunk.trips;
+            int start = g.closestIndex(t[4 * i], t[4 * i + 1]);
+            int dest = g.closestIndex(t[4 * i + 2], t[4 * i + 3]);
+            int[] path = Router.search(g, start, dest, algorithm);
+            if (path.length == 0) {
+                chunk.unreachable += 1;
+                sb.append("-1 0\n");
+                continue;
+            }
+            double miles = 0;
+            for (int j = 1; j < path.length; j += 1) {
+                miles += c.distance(path[j - 1], path[j]);
+            }
+            sb.append(miles).append(' ').append(path.length);
+            if (withPaths) {
+                for (int v : path) {
+                    sb.append(' ').append(c.id(v));
+                }
+            }
+            sb.append('\n');
+        }
+        chunk.output = sb.toString();
+        return chunk;
+    }
+}
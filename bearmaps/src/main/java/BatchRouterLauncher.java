@@ -0,0 +1,57 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * This class provides a main method for routing a file of trips in bulk with
+ * <code>BatchRouter</code>, writing one result line per trip and reporting the throughput.
+ */
+public class BatchRouterLauncher {
+    private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+
+    /**
+     * Routes a batch of trips.
+     * @param args The trips file, or - for standard input; optionally followed by the output
+     *             file, or - for standard output; the number of threads, by default one per
+     *             core; the algorithm, by default AUTO; and the OSM XML file to load, by default
+     *             the Berkeley map. A first argument of --paths also writes the vertex IDs of
+     *             each route. The contraction hierarchy is used if one has been built for the map.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean withPaths = args.length > 0 && args[0].equals("--paths");
+        int first = withPaths ? 1 : 0;
+        if (args.length <= first) {
+            System.err.println("Usage: BatchRouterLauncher [--paths] trips|- [output|-] [threads]"
+                    + " [algorithm] [osm]");
+            return;
+        }
+        String tripsPath = args[first];
+        String outPath = args.length > first + 1 ? args[first + 1] : "-";
+        int threads = args.length > first + 2 ? Integer.parseInt(args[first + 2])
+                : Runtime.getRuntime().availableProcessors();
+        Router.Algorithm algorithm = Router.Algorithm.from(
+                args.length > first + 3 ? args[first + 3] : null);
+        String dbPath = args.length > first + 4 ? args[first + 4] : OSM_DB_PATH;
+
+        GraphDB g = new GraphDB(dbPath, null, GraphDB.LoadMode.ROUTABLE_NODES);
+        g.loadHierarchy(MapServer.OSM_CH_PATH);
+        System.err.print(g.report);
+
+        BatchRouter router = new BatchRouter(g, algorithm, threads, withPaths);
+        try (BufferedReader in = tripsPath.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(tripsPath));
+             Writer out = outPath.equals("-")
+                ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                : Files.newBufferedWriter(Paths.get(outPath))) {
+            BatchRouter.Stats stats = router.run(in, out);
+            System.err.println(stats);
+        }
+    }
+}
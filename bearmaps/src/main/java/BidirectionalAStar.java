@@ -0,0 +1,151 @@
+/**
+ * Bidirectional A* over the dense vertex indices of a <code>CompactGraph</code>: one search runs
+ * forward from the start and one backward from the destination, and the route is found where
+ * they meet. Road edges are undirected, so both searches use the same adjacency.
+ *
+ * Both searches use the averaged potential p(v) = (h_dest(v) - h_start(v)) / 2, forward, and
+ * -p(v), backward, where h is the great-circle distance to the start or destination point. It is
+ * consistent in both directions at once, so the search may stop as soon as the smallest keys of
+ * the two heaps add up to at least the best route seen so far.
+ *
+ * Like <code>AStar</code>, a search may begin from several sources and end at several targets,
+ * each with a distance already covered or still to go.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class BidirectionalAStar {
+    private final CompactGraph g;
+    private final SearchContext forward, backward;
+    private final double startLat, startLon, destLat, destLon;
+    /** Length of the shortest route seen so far, and the vertex where its two halves meet. */
+    private double best;
+    private int meet = -1;
+
+    private BidirectionalAStar(CompactGraph g, SearchContext forward, SearchContext backward,
+                               double startLat, double startLon,
+                               double destLat, double destLon) {
+        this.g = g;
+        this.forward = forward;
+        this.backward = backward;
+        this.startLat = startLat;
+        this.startLon = startLon;
+        this.destLat = destLat;
+        this.destLon = destLon;
+    }
+
+    /**
+     * Finds the shortest path between two vertices.
+     * @param g The graph to search.
+     * @param ctx Working state sized for <code>g</code>, reset by this call. Its settled count
+     *            becomes the total for both directions.
+     * @param start The index of the start vertex.
+     * @param dest The index of the destination vertex.
+     * @return The indices of the vertices on the path, from start to dest, or an empty array if
+     * dest cannot be reached.
+     */
+    public static int[] shortestPath(CompactGraph g, SearchContext ctx, int start, int dest) {
+        int[] path = search(g, ctx, new int[]{start}, new double[]{0}, new int[]{dest},
+                new double[]{0}, g.lat[start], g.lon[start], g.lat[dest], g.lon[dest],
+                Double.POSITIVE_INFINITY);
+        return path == null ? new int[0] : path;
+    }
+
+    /**
+     * Runs bidirectional A* from several sources to several targets.
+     * @param g The graph to search.
+     * @param ctx Working state sized for <code>g</code>, reset by this call. It runs the forward
+     *            search and its <code>reverse</code> context the backward one, and its settled
+     *            count becomes the total for both.
+     * @param sources Indices of the vertices to start from.
+     * @param sourceCosts The distance already covered on reaching each source.
+     * @param targets Indices of the vertices to end at.
+     * @param targetCosts The distance still to go after each target.
+     * @param startLat The latitude of the point the sources were reached from.
+     * @param startLon The longitude of the point the sources were reached from.
+     * @param destLat The latitude of the point the targets lead to.
+     * @param destLon The longitude of the point the targets lead to.
+     * @param bound Only paths shorter than this are of interest.
+     * @return The indices of the vertices on the shortest path, from a source to a target, or
+     * null if no path is shorter than bound.
+     */
+    static int[] search(CompactGraph g, SearchContext ctx, int[] sources, double[] sourceCosts,
+                        int[] targets, double[] targetCosts, double startLat, double startLon,
+                        double destLat, double destLon, double bound) {
+        BidirectionalAStar search = new BidirectionalAStar(g, ctx, ctx.reverse(),
+                startLat, startLon, destLat, destLon);
+        return search.run(sources, sourceCosts, targets, targetCosts, bound);
+    }
+
+    private int[] run(int[] sources, double[] sourceCosts, int[] targets, double[] targetCosts,
+                      double bound) {
+        forward.reset();
+        backward.reset();
+        best = bound;
+        for (int i = 0; i < sources.length; i += 1) {
+            relax(forward, backward, 1, sources[i], -1, sourceCosts[i]);
+        }
+        for (int i = 0; i < targets.length; i += 1) {
+            relax(backward, forward, -1, targets[i], -1, targetCosts[i]);
+        }
+        IndexedHeap ahead = forward.heap;
+        IndexedHeap behind = backward.heap;
+        while (!ahead.isEmpty() && !behind.isEmpty() && ahead.minKey() + behind.minKey() < best) {
+            if (ahead.minKey() <= behind.minKey()) {
+                expand(forward, backward, 1);
+            } else {
+                expand(backward, forward, -1);
+            }
+        }
+        int settled = forward.settled + backward.settled;
+        forward.settled = settled;
+        if (meet < 0) {
+            return null;
+        }
+        int[] head = forward.path(meet);
+        int[] tail = backward.path(meet);
+        int[] path = new int[head.length + tail.length - 1];
+        System.arraycopy(head, 0, path, 0, head.length);
+        for (int i = 1; i < tail.length; i += 1) {
+            path[head.length + i - 1] = tail[tail.length - 1 - i];
+        }
+        return path;
+    }
+
+    /** Settles the top vertex of one side's heap and relaxes its edges. */
+    private void expand(SearchContext self, SearchContext other, int sign) {
+        int v = self.heap.poll();
+        self.settled += 1;
+        double d = self.dist[v];
+        for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+            int w = g.targets[k];
+            relax(self, other, sign, w, v, d + g.distance(v, w));
+        }
+    }
+
+    /**
+     * Records that w can be reached at distance d through v on one side, and checks whether
+     * that completes a shorter route with the other side's distance to w.
+     * @param sign 1 for the forward search and -1 for the backward one.
+     */
+    private void relax(SearchContext self, SearchContext other, int sign, int w, int v, double d) {
+        if (!self.touched(w)) {
+            self.touch(w, sign * potential(w));
+        } else if (d >= self.dist[w]) {
+            return;
+        }
+        self.dist[w] = d;
+        self.parent[w] = v;
+        self.heap.offer(w, d + self.heuristic[w]);
+        if (other.touched(w) && d + other.dist[w] < best) {
+            best = d + other.dist[w];
+            meet = w;
+        }
+    }
+
+    /** Returns the forward potential of v. */
+    private double potential(int v) {
+        double toDest = GraphDB.haversine(g.lat[v], g.lon[v], destLat, destLon);
+        double fromStart = GraphDB.haversine(g.lat[v], g.lon[v], startLat, startLon);
+        return (toDest - fromStart) / 2;
+    }
+}
@@ -0,0 +1,249 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Frozen, compressed-sparse-row (CSR) representation of the road graph. Every vertex is given a
+ * dense int index in [0, size()), in ascending order of its OSM id, and all per-vertex data is
+ * kept in parallel primitive arrays so that lookups never chase pointers or box longs.
+ *
+ * The neighbors of vertex <code>v</code> are <code>targets[offsets[v]]</code> through
+ * <code>targets[offsets[v + 1] - 1]</code>, in the same order the builder supplied them.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class CompactGraph {
+    /** OSM ids of each vertex, sorted ascending so that ids can be resolved by binary search. */
+    final long[] ids;
+    /** Coordinates of each vertex. */
+    final double[] lat, lon;
+    /** Projected Euclidean coordinates of each vertex (see GraphDB.projectToX/Y). */
+    final double[] x, y;
+    /** Start of each vertex's neighbor run in targets; has size() + 1 entries. */
+    final int[] offsets;
+    /** Concatenated neighbor runs, as vertex indices. */
+    final int[] targets;
+    /** The length of every edge, computed the first time it is asked for. */
+    private volatile double[] lengths;
+
+    CompactGraph(long[] ids, double[] lat, double[] lon, double[] x, double[] y,
+                 int[] offsets, int[] targets) {
+        this.ids = ids;
+        this.lat = lat;
+        this.lon = lon;
+        this.x = x;
+        this.y = y;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Freezes the mutable vertex map built by the XML handler. Neighbors keep the iteration order
+     * of each vertex's neighbor set, so searches over the frozen graph break ties the same way.
+     * @param nodes The vertices of the cleaned graph, keyed by id.
+     * @return A new <code>CompactGraph</code> holding the same vertices and edges.
+     */
+    static CompactGraph freeze(Map<Long, GraphDB.Vertex> nodes) {
+        int n = nodes.size();
+        long[] ids = new long[n];
+        int i = 0;
+        for (long id : nodes.keySet()) {
+            ids[i] = id;
+            i += 1;
+        }
+        Arrays.sort(ids);
+
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        int[] offsets = new int[n + 1];
+        for (i = 0; i < n; i += 1) {
+            GraphDB.Vertex v = nodes.get(ids[i]);
+            lat[i] = v.lat;
+            lon[i] = v.lon;
+            x[i] = v.x;
+            y[i] = v.y;
+            offsets[i + 1] = offsets[i] + countPresent(v, ids);
+        }
+
+        int[] targets = new int[offsets[n]];
+        for (i = 0; i < n; i += 1) {
+            int k = offsets[i];
+            for (long w : nodes.get(ids[i]).neighbors) {
+                int j = Arrays.binarySearch(ids, w);
+                if (j >= 0) {
+                    targets[k] = j;
+                    k += 1;
+                }
+            }
+        }
+        return new CompactGraph(ids, lat, lon, x, y, offsets, targets);
+    }
+
+    /** Counts the neighbors of v that survived cleaning. */
+    private static int countPresent(GraphDB.Vertex v, long[] ids) {
+        int count = 0;
+        for (long w : v.neighbors) {
+            if (Arrays.binarySearch(ids, w) >= 0) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns the number of vertices. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the number of directed edges (each road segment counts once per direction). */
+    int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the dense index of the vertex with OSM id <code>id</code>.
+     * @param id The OSM id of a vertex.
+     * @return Its index, or -1 if the vertex is not in the graph.
+     */
+    int indexOf(long id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? i : -1;
+    }
+
+    /** Returns the OSM id of vertex index <code>v</code>. */
+    long id(int v) {
+        return ids[v];
+    }
+
+    /**
+     * Returns the great-circle distance in miles between vertex indices <code>v</code> and
+     * <code>w</code>.
+     */
+    double distance(int v, int w) {
+        return GraphDB.haversine(lat[v], lon[v], lat[w], lon[w]);
+    }
+
+    /**
+     * Returns the index of the edge from vertex <code>u</code> to vertex <code>w</code>, which
+     * is also where its weight sits in per-edge arrays such as a <code>RoadMetrics</code> metric.
+     * @return The index into <code>targets</code>, or -1 if they are not adjacent.
+     */
+    int edge(int u, int w) {
+        for (int k = offsets[u]; k < offsets[u + 1]; k += 1) {
+            if (targets[k] == w) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the length in miles of every edge, indexed like <code>targets</code>, so that
+     * searches that relax most edges need not compute great-circle distances as they go.
+     * Callers may not modify it.
+     */
+    double[] lengths() {
+        double[] result = lengths;
+        if (result == null) {
+            result = RoadMetrics.distance(this);
+            lengths = result;
+        }
+        return result;
+    }
+
+    /** Returns the OSM ids of all vertices, in index order, without copying them. */
+    Iterable<Long> vertexIds() {
+        return () -> new Iterator<Long>() {
+            private int v = 0;
+
+            @Override
+            public boolean hasNext() {
+                return v < ids.length;
+            }
+
+            @Override
+            public Long next() {
+                if (v >= ids.length) {
+                    throw new NoSuchElementException();
+                }
+                long id = ids[v];
+                v += 1;
+                return id;
+            }
+        };
+    }
+
+    /**
+     * Returns the OSM ids of the neighbors of vertex index <code>v</code>, without copying them.
+     * @param v A vertex index.
+     * @return A view over the neighbor run of <code>v</code>.
+     */
+    Iterable<Long> adjacentIds(int v) {
+        final int start = offsets[v];
+        final int end = offsets[v + 1];
+        return () -> new Iterator<Long>() {
+            private int k = start;
+
+            @Override
+            public boolean hasNext() {
+                return k < end;
+            }
+
+            @Override
+            public Long next() {
+                if (k >= end) {
+                    throw new NoSuchElementException();
+                }
+                long id = ids[targets[k]];
+                k += 1;
+                return id;
+            }
+        };
+    }
+
+    /**
+     * Returns an estimate of the heap held by the arrays of this graph, in bytes.
+     * @return The approximate number of bytes used by this graph.
+     */
+    long estimatedBytes() {
+        long n = size();
+        return n * (Long.BYTES + 4 * Double.BYTES) + (n + 1 + targets.length) * Integer.BYTES;
+    }
+
+    /**
+     * Returns a CRC-32 over the vertex ids, coordinates and edges, for checking that data derived
+     * from this graph and stored separately, such as a contraction hierarchy, still belongs to it.
+     */
+    long fingerprint() {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(Long.BYTES * 1024);
+        for (int i = 0; i < ids.length; i += 1) {
+            if (buf.remaining() < 3 * Long.BYTES) {
+                buf.flip();
+                crc.update(buf);
+                buf.clear();
+            }
+            buf.putLong(ids[i]);
+            buf.putDouble(lat[i]);
+            buf.putDouble(lon[i]);
+        }
+        for (int[] run : new int[][]{offsets, targets}) {
+            for (int i = 0; i < run.length; i += 1) {
+                if (!buf.hasRemaining()) {
+                    buf.flip();
+                    crc.update(buf);
+                    buf.clear();
+                }
+                buf.putInt(run[i]);
+            }
+        }
+        buf.flip();
+        crc.update(buf);
+        return crc.getValue();
+    }
+}
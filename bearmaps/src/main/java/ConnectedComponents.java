@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+/**
+ * The connected component of every vertex of a <code>CompactGraph</code>, so that routing can
+ * tell in constant time that two vertices have no path between them, instead of searching the
+ * whole of the smaller component to find out.
+ *
+ * Every road is stored in both directions in the compact graph, so its weakly and strongly
+ * connected components are the same, and one breadth-first search per component finds them in
+ * O(n + m). Components are numbered by size, largest first, so component 0 is the main road
+ * network and any other component is an island cut off from it.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class ConnectedComponents {
+    /** The component of each vertex. */
+    private final int[] ids;
+    /** The number of vertices in each component, largest first. */
+    private final int[] sizes;
+
+    /**
+     * Labels the connected components of <code>g</code>.
+     * @param g The road graph.
+     */
+    public ConnectedComponents(CompactGraph g) {
+        int n = g.size();
+        int[] found = new int[n];
+        Arrays.fill(found, -1);
+        int[] queue = new int[n];
+        int[] counts = new int[n];
+        int count = 0;
+        for (int s = 0; s < n; s += 1) {
+            if (found[s] >= 0) {
+                continue;
+            }
+            found[s] = count;
+            queue[0] = s;
+            int head = 0;
+            int tail = 1;
+            while (head < tail) {
+                int v = queue[head];
+                head += 1;
+                for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                    int w = g.targets[k];
+                    if (found[w] < 0) {
+                        found[w] = count;
+                        queue[tail] = w;
+                        tail += 1;
+                    }
+                }
+            }
+            counts[count] = tail;
+            count += 1;
+        }
+
+        /* Renumber by decreasing size, breaking ties by discovery order. */
+        Integer[] bySize = new Integer[count];
+        for (int c = 0; c < count; c += 1) {
+            bySize[c] = c;
+        }
+        Arrays.sort(bySize, (a, b) -> counts[a] != counts[b]
+                ? Integer.compare(counts[b], counts[a]) : Integer.compare(a, b));
+        int[] rank = new int[count];
+        this.sizes = new int[count];
+        for (int r = 0; r < count; r += 1) {
+            rank[bySize[r]] = r;
+            sizes[r] = counts[bySize[r]];
+        }
+        for (int v = 0; v < n; v += 1) {
+            found[v] = rank[found[v]];
+        }
+        this.ids = found;
+    }
+
+    /** Returns the component of vertex <code>v</code>; 0 is the largest. */
+    public int id(int v) {
+        return ids[v];
+    }
+
+    /** Returns whether there is a path between vertices <code>u</code> and <code>v</code>. */
+    public boolean connected(int u, int v) {
+        return ids[u] == ids[v];
+    }
+
+    /** Returns whether vertex <code>v</code> is in the largest component. */
+    public boolean inLargest(int v) {
+        return ids[v] == 0;
+    }
+
+    /** Returns the number of components. */
+    public int count() {
+        return sizes.length;
+    }
+
+    /** Returns the number of vertices in component <code>c</code>. */
+    public int size(int c) {
+        return sizes[c];
+    }
+
+    /**
+     * Returns the vertices of the largest component, in increasing order.
+     * @return The vertex indices, or an empty array if the graph is empty.
+     */
+    public int[] largest() {
+        if (sizes.length == 0) {
+            return new int[0];
+        }
+        int[] result = new int[sizes[0]];
+        int i = 0;
+        for (int v = 0; v < ids.length; v += 1) {
+            if (ids[v] == 0) {
+                result[i] = v;
+                i += 1;
+            }
+        }
+        return result;
+    }
+}
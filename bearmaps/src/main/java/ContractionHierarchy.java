@@ -0,0 +1,246 @@
+import java.io.IOException;
+
+/**
+ * A contraction hierarchy over a <code>CompactGraph</code>, built offline by
+ * <code>ContractionHierarchyBuilder</code>. Every vertex has a rank, the order it was contracted
+ * in, and the hierarchy keeps only the upward edges, from each vertex to higher-ranked
+ * neighbors: the original road edges plus the shortcuts added while contracting. A shortcut
+ * records the vertex it bypasses, so any path through the hierarchy unpacks into the original
+ * road vertices.
+ *
+ * Road edges are undirected, so a query runs the same upward search from both ends and the
+ * shortest route is found at the highest vertex of the path, where the two searches meet.
+ *
+ * Hierarchies are persisted next to the graph, tied to it by <code>CompactGraph.fingerprint</code>.
+ * All values are big-endian. The layout is:
+ * <pre>
+ *     int magic, int version, long graphFingerprint
+ *     int n, int m
+ *     int[n] rank, int[n + 1] offsets, int[m] targets, double[m] weights, int[m] middles
+ * </pre>
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class ContractionHierarchy {
+    /** Marks the start of a hierarchy file ("BMCH"). */
+    private static final int MAGIC = 0x424D4348;
+    /** Bumped whenever the layout changes; files of other versions are ignored. */
+    static final int VERSION = 1;
+
+    /** The position of each vertex in the contraction order. */
+    final int[] rank;
+    /** Upward edges of each vertex, in CSR form like <code>CompactGraph</code>. */
+    final int[] offsets, targets;
+    /**
+     * Weight of each upward edge: its length in miles, or its cost under the metric a
+     * <code>CustomizableContractionHierarchy</code> was customized for.
+     */
+    final double[] weights;
+    /** The vertex each shortcut bypasses, or -1 for an original road edge. */
+    final int[] middles;
+    /** Fingerprint of the graph this hierarchy was built over. */
+    final long fingerprint;
+
+    ContractionHierarchy(int[] rank, int[] offsets, int[] targets, double[] weights,
+                         int[] middles, long fingerprint) {
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+        this.fingerprint = fingerprint;
+    }
+
+    /** Returns the number of vertices in the hierarchy. */
+    public int size() {
+        return rank.length;
+    }
+
+    /** Returns the number of upward edges, original and shortcut. */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Finds the shortest path between two vertices.
+     * @param ctx Working state sized for the graph, reset by this call. Its settled count
+     *            becomes the total for both directions.
+     * @param start The index of the start vertex.
+     * @param dest The index of the destination vertex.
+     * @return The indices of the road vertices on the path, from start to dest, or an empty array
+     * if dest cannot be reached.
+     */
+    public int[] shortestPath(SearchContext ctx, int start, int dest) {
+        int[] path = search(ctx, new int[]{start}, new double[]{0}, new int[]{dest},
+                new double[]{0}, Double.POSITIVE_INFINITY);
+        return path == null ? new int[0] : path;
+    }
+
+    /**
+     * Runs the upward searches from several sources and several targets, like
+     * <code>AStar.search</code>.
+     * @param ctx Working state sized for the graph, reset by this call. It runs the search from
+     *            the sources and its <code>reverse</code> context the one from the targets.
+     * @param sources Indices of the vertices to start from.
+     * @param sourceCosts The distance already covered on reaching each source.
+     * @param targets Indices of the vertices to end at.
+     * @param targetCosts The distance still to go after each target.
+     * @param bound Only paths shorter than this are of interest.
+     * @return The indices of the road vertices on the shortest path, from a source to a target,
+     * or null if no path is shorter than bound.
+     */
+    int[] search(SearchContext ctx, int[] sources, double[] sourceCosts,
+                 int[] targets, double[] targetCosts, double bound) {
+        SearchContext forward = ctx;
+        SearchContext backward = ctx.reverse();
+        forward.reset();
+        backward.reset();
+        Meeting meeting = new Meeting(bound);
+        for (int i = 0; i < sources.length; i += 1) {
+            relax(forward, backward, sources[i], -1, sourceCosts[i], meeting);
+        }
+        for (int i = 0; i < targets.length; i += 1) {
+            relax(backward, forward, targets[i], -1, targetCosts[i], meeting);
+        }
+        while (true) {
+            boolean ahead = !forward.heap.isEmpty() && forward.heap.minKey() < meeting.best;
+            boolean behind = !backward.heap.isEmpty() && backward.heap.minKey() < meeting.best;
+            if (!ahead && !behind) {
+                break;
+            }
+            if (ahead && (!behind || forward.heap.minKey() <= backward.heap.minKey())) {
+                expand(forward, backward, meeting);
+            } else {
+                expand(backward, forward, meeting);
+            }
+        }
+        forward.settled += backward.settled;
+        if (meeting.vertex < 0) {
+            return null;
+        }
+        int[] up = forward.path(meeting.vertex);
+        int[] down = backward.path(meeting.vertex);
+        IntList path = new IntList(4 * (up.length + down.length));
+        path.add(up[0]);
+        for (int i = 1; i < up.length; i += 1) {
+            unpack(up[i - 1], up[i], path);
+        }
+        for (int i = down.length - 1; i > 0; i -= 1) {
+            unpack(down[i], down[i - 1], path);
+        }
+        return path.toArray();
+    }
+
+    /** The best route found so far by a query, and where its two halves meet. */
+    private static class Meeting {
+        double best;
+        int vertex = -1;
+
+        Meeting(double bound) {
+            best = bound;
+        }
+    }
+
+    /**
+     * Settles the top vertex of one side's heap and relaxes its upward edges, unless a
+     * higher-ranked vertex already reached shows that the vertex cannot be on a shortest path
+     * (stall-on-demand).
+     */
+    private void expand(SearchContext self, SearchContext other, Meeting meeting) {
+        int v = self.heap.poll();
+        self.settled += 1;
+        double d = self.dist[v];
+        for (int k = offsets[v]; k < offsets[v + 1]; k += 1) {
+            int w = targets[k];
+            if (self.touched(w) && self.dist[w] + weights[k] < d) {
+                return;
+            }
+        }
+        for (int k = offsets[v]; k < offsets[v + 1]; k += 1) {
+            relax(self, other, targets[k], v, d + weights[k], meeting);
+        }
+    }
+
+    /** Records that w can be reached at distance d through v, and checks for a meeting. */
+    private static void relax(SearchContext self, SearchContext other, int w, int v, double d,
+                              Meeting meeting) {
+        if (!self.touched(w)) {
+            self.touch(w, 0);
+        } else if (d >= self.dist[w]) {
+            return;
+        }
+        self.dist[w] = d;
+        self.parent[w] = v;
+        self.heap.offer(w, d);
+        if (other.touched(w) && d + other.dist[w] < meeting.best) {
+            meeting.best = d + other.dist[w];
+            meeting.vertex = w;
+        }
+    }
+
+    /**
+     * Appends the road vertices after <code>a</code> up to and including <code>b</code>, along
+     * the hierarchy edge between them.
+     */
+    private void unpack(int a, int b, IntList out) {
+        int e = edgeBetween(a, b);
+        int middle = middles[e];
+        if (middle < 0) {
+            out.add(b);
+        } else {
+            unpack(a, middle, out);
+            unpack(middle, b, out);
+        }
+    }
+
+    /** Returns the index of the upward edge between a and b, stored at the lower of the two. */
+    private int edgeBetween(int a, int b) {
+        int low = rank[a] < rank[b] ? a : b;
+        int high = low == a ? b : a;
+        for (int k = offsets[low]; k < offsets[low + 1]; k += 1) {
+            if (targets[k] == high) {
+                return k;
+            }
+        }
+        throw new IllegalStateException("No hierarchy edge between " + a + " and " + b);
+    }
+
+    /**
+     * Reads a hierarchy written by <code>write</code>.
+     * @param path Path to the hierarchy file.
+     * @param g The graph the hierarchy should belong to.
+     * @return The hierarchy, or null if the file is missing, was built for another graph or is cut
+     * short.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    static ContractionHierarchy read(String path, CompactGraph g) throws IOException {
+        int n = g.size();
+        return GraphSnapshot.readFile(path, MAGIC, VERSION, g, (buf, fingerprint) -> {
+            int m = buf.getInt();
+            int[] rank = GraphSnapshot.readInts(buf, n);
+            int[] offsets = GraphSnapshot.readInts(buf, n + 1);
+            int[] targets = GraphSnapshot.readInts(buf, m);
+            double[] weights = GraphSnapshot.readDoubles(buf, m);
+            int[] middles = GraphSnapshot.readInts(buf, m);
+            return new ContractionHierarchy(rank, offsets, targets, weights, middles, fingerprint);
+        });
+    }
+
+    /**
+     * Writes the hierarchy with <code>GraphSnapshot.writeAtomically</code>.
+     * @param path Path to the hierarchy file.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(String path) throws IOException {
+        GraphSnapshot.writeAtomically(path, out -> {
+            GraphSnapshot.writeHeader(out, MAGIC, VERSION, fingerprint);
+            out.writeInt(size());
+            out.writeInt(edgeCount());
+            GraphSnapshot.writeInts(out, rank);
+            GraphSnapshot.writeInts(out, offsets);
+            GraphSnapshot.writeInts(out, targets);
+            GraphSnapshot.writeDoubles(out, weights);
+            GraphSnapshot.writeInts(out, middles);
+        });
+    }
+}
@@ -0,0 +1,285 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Builds a <code>ContractionHierarchy</code> offline. Vertices are contracted one at a time, the
+ * least important first. Contracting a vertex removes it from the remaining graph and adds a
+ * shortcut between each pair of its remaining neighbors, unless a witness search finds a path
+ * between them that is no longer without it.
+ *
+ * Importance is twice the edge difference, the shortcuts contracting a vertex would add less the
+ * edges it would remove, plus the number of its neighbors already contracted and its depth in
+ * the hierarchy so far, both of which spread the contraction evenly over the map. Importance is
+ * kept in a heap and updated lazily: the vertex on top is re-evaluated before it is contracted
+ * and pushed back if it is no longer the least important. Re-evaluating every neighbor after
+ * each contraction instead made building several times slower for no better hierarchy.
+ *
+ * Run <code>main</code> to build the hierarchy for an OSM file and store it next to it.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class ContractionHierarchyBuilder {
+    /**
+     * Vertices a witness search may settle before it gives up and assumes there is no witness,
+     * when contracting a vertex and when only estimating its importance. Giving up early only
+     * costs a redundant shortcut.
+     */
+    private static final int CONTRACT_SETTLE_LIMIT = 500, ESTIMATE_SETTLE_LIMIT = 50;
+
+    private final CompactGraph g;
+    private final int n;
+    /** Remaining edges at each vertex: neighbor, length, and bypassed vertex or -1. */
+    private final int[][] neighbors;
+    private final double[][] lengths;
+    private final int[][] middles;
+    private final int[] degree;
+    private final boolean[] contracted;
+    /** Number of contracted neighbors of each vertex. */
+    private final int[] deleted;
+    /** One more than the deepest contracted neighbor of each vertex, or 0. */
+    private final int[] depth;
+    private final SearchContext witness;
+    /** The witness search each vertex is a target of; it counts as settled once cleared. */
+    private final int[] targetOf;
+    private int search;
+    /** Scratch lists of the remaining neighbors of the vertex being evaluated. */
+    private final IntList around = new IntList();
+    private double[] aroundLengths = new double[16];
+
+    /**
+     * Prepares to contract <code>g</code>.
+     * @param g The road graph.
+     */
+    public ContractionHierarchyBuilder(CompactGraph g) {
+        this.g = g;
+        this.n = g.size();
+        neighbors = new int[n][];
+        lengths = new double[n][];
+        middles = new int[n][];
+        degree = new int[n];
+        contracted = new boolean[n];
+        deleted = new int[n];
+        witness = new SearchContext(n);
+        targetOf = new int[n];
+        depth = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            int size = Math.max(2, g.offsets[v + 1] - g.offsets[v]);
+            neighbors[v] = new int[size];
+            lengths[v] = new double[size];
+            middles[v] = new int[size];
+        }
+        for (int v = 0; v < n; v += 1) {
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                if (g.targets[k] != v) {
+                    addEdge(v, g.targets[k], g.distance(v, g.targets[k]), -1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Contracts every vertex and returns the resulting hierarchy.
+     * @return The hierarchy over the graph.
+     */
+    public ContractionHierarchy build() {
+        IndexedHeap queue = new IndexedHeap(n);
+        for (int v = 0; v < n; v += 1) {
+            queue.offer(v, importance(v));
+        }
+        int[] rank = new int[n];
+        /* Upward edges, gathered per vertex as it is contracted and laid out in CSR at the end. */
+        int[] start = new int[n];
+        int[] count = new int[n];
+        IntList upTargets = new IntList(2 * g.edgeCount());
+        IntList upMiddles = new IntList(2 * g.edgeCount());
+        double[] upLengths = new double[2 * g.edgeCount() + 16];
+        int next = 0;
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            double current = importance(v);
+            if (!queue.isEmpty() && current > queue.minKey()) {
+                queue.offer(v, current);
+                continue;
+            }
+            rank[v] = next;
+            next += 1;
+            start[v] = upTargets.size();
+            for (int k = 0; k < degree[v]; k += 1) {
+                int w = neighbors[v][k];
+                if (contracted[w]) {
+                    continue;
+                }
+                if (upTargets.size() == upLengths.length) {
+                    upLengths = Arrays.copyOf(upLengths, 2 * upLengths.length);
+                }
+                upLengths[upTargets.size()] = lengths[v][k];
+                upTargets.add(w);
+                upMiddles.add(middles[v][k]);
+                count[v] += 1;
+            }
+            contract(v, false);
+            contracted[v] = true;
+            /* Only bookkeeping here: the neighbors' importance is refreshed when they surface. */
+            for (int k = 0; k < degree[v]; k += 1) {
+                int w = neighbors[v][k];
+                if (!contracted[w]) {
+                    deleted[w] += 1;
+                    depth[w] = Math.max(depth[w], depth[v] + 1);
+                }
+            }
+            /* The removed vertex's edges are no longer needed. */
+            neighbors[v] = null;
+            lengths[v] = null;
+            middles[v] = null;
+        }
+
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            offsets[v + 1] = offsets[v] + count[v];
+        }
+        int m = offsets[n];
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] bypassed = new int[m];
+        for (int v = 0; v < n; v += 1) {
+            for (int i = 0; i < count[v]; i += 1) {
+                targets[offsets[v] + i] = upTargets.get(start[v] + i);
+                weights[offsets[v] + i] = upLengths[start[v] + i];
+                bypassed[offsets[v] + i] = upMiddles.get(start[v] + i);
+            }
+        }
+        return new ContractionHierarchy(rank, offsets, targets, weights, bypassed,
+                g.fingerprint());
+    }
+
+    /** Returns how important v is now: lower values are contracted first. */
+    private double importance(int v) {
+        int shortcuts = contract(v, true);
+        return 2 * (shortcuts - around.size()) + deleted[v] + depth[v];
+    }
+
+    /**
+     * Finds the shortcuts needed to contract v, and adds them unless <code>simulate</code>.
+     * Leaves the remaining neighbors of v in <code>around</code>.
+     * @return The number of shortcuts needed.
+     */
+    private int contract(int v, boolean simulate) {
+        around.clear();
+        for (int k = 0; k < degree[v]; k += 1) {
+            int w = neighbors[v][k];
+            if (!contracted[w]) {
+                if (around.size() == aroundLengths.length) {
+                    aroundLengths = Arrays.copyOf(aroundLengths, 2 * aroundLengths.length);
+                }
+                aroundLengths[around.size()] = lengths[v][k];
+                around.add(w);
+            }
+        }
+        int shortcuts = 0;
+        int size = around.size();
+        for (int i = 0; i < size - 1; i += 1) {
+            int u = around.get(i);
+            double limit = 0;
+            for (int j = i + 1; j < size; j += 1) {
+                limit = Math.max(limit, aroundLengths[i] + aroundLengths[j]);
+            }
+            witnessSearch(u, v, i + 1, limit,
+                    simulate ? ESTIMATE_SETTLE_LIMIT : CONTRACT_SETTLE_LIMIT);
+            for (int j = i + 1; j < size; j += 1) {
+                int w = around.get(j);
+                double via = aroundLengths[i] + aroundLengths[j];
+                if (witness.touched(w) && witness.dist[w] <= via) {
+                    continue;
+                }
+                shortcuts += 1;
+                if (!simulate) {
+                    addEdge(u, w, via, v);
+                    addEdge(w, u, via, v);
+                }
+            }
+        }
+        return shortcuts;
+    }
+
+    /**
+     * Runs Dijkstra from u over the remaining graph without <code>skip</code>, until it has
+     * settled the neighbors in <code>around</code> from index <code>first</code> on, passed
+     * distance <code>limit</code>, or settled <code>settleLimit</code> vertices. The distances
+     * found are left in <code>witness</code>.
+     */
+    private void witnessSearch(int u, int skip, int first, double limit, int settleLimit) {
+        witness.reset();
+        search += 1;
+        for (int j = first; j < around.size(); j += 1) {
+            targetOf[around.get(j)] = search;
+        }
+        int unsettled = around.size() - first;
+        witness.touch(u, 0);
+        witness.dist[u] = 0;
+        witness.heap.offer(u, 0);
+        while (!witness.heap.isEmpty() && witness.settled < settleLimit
+                && witness.heap.minKey() <= limit) {
+            int v = witness.heap.poll();
+            witness.settled += 1;
+            if (targetOf[v] == search) {
+                targetOf[v] = 0;
+                unsettled -= 1;
+                if (unsettled == 0) {
+                    break;
+                }
+            }
+            double d = witness.dist[v];
+            for (int k = 0; k < degree[v]; k += 1) {
+                int w = neighbors[v][k];
+                if (w == skip || contracted[w]) {
+                    continue;
+                }
+                double candidate = d + lengths[v][k];
+                if (!witness.touched(w)) {
+                    witness.touch(w, 0);
+                } else if (candidate >= witness.dist[w]) {
+                    continue;
+                }
+                witness.dist[w] = candidate;
+                witness.heap.offer(w, candidate);
+            }
+        }
+    }
+
+    /** Adds an edge from u to w, or shortens the existing one. */
+    private void addEdge(int u, int w, double length, int middle) {
+        for (int k = 0; k < degree[u]; k += 1) {
+            if (neighbors[u][k] == w) {
+                if (length < lengths[u][k]) {
+                    lengths[u][k] = length;
+                    middles[u][k] = middle;
+                }
+                return;
+            }
+        }
+        if (degree[u] == neighbors[u].length) {
+            neighbors[u] = Arrays.copyOf(neighbors[u], 2 * degree[u]);
+            lengths[u] = Arrays.copyOf(lengths[u], 2 * degree[u]);
+            middles[u] = Arrays.copyOf(middles[u], 2 * degree[u]);
+        }
+        neighbors[u][degree[u]] = w;
+        lengths[u][degree[u]] = length;
+        middles[u][degree[u]] = middle;
+        degree[u] += 1;
+    }
+
+    /**
+     * Builds the hierarchy for an OSM file and writes it where <code>MapServer</code> looks for
+     * it. Arguments: the OSM file, then the hierarchy file.
+     */
+    public static void main(String[] args) throws IOException {
+        String dbPath = args.length > 0 ? args[0] : MapServer.OSM_DB_PATH;
+        String chPath = args.length > 1 ? args[1] : MapServer.OSM_CH_PATH;
+        GraphDB g = new GraphDB(dbPath);
+        long t0 = System.nanoTime();
+        ContractionHierarchy ch = new ContractionHierarchyBuilder(g.csr).build();
+        System.out.printf("Contracted %d vertices in %.1f s: %d upward edges, %d road edges%n",
+                ch.size(), (System.nanoTime() - t0) / 1e9, ch.edgeCount(), g.csr.edgeCount() / 2);
+        ch.write(chPath);
+    }
+}
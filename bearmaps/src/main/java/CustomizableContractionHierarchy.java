@@ -0,0 +1,290 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A customizable contraction hierarchy (CCH): a contraction hierarchy whose vertex order and
+ * shortcuts depend only on the topology of the road graph, so that new edge weights, such as
+ * time-of-day speeds, closures or penalties, can be applied in a fraction of a second instead of
+ * contracting the graph again.
+ *
+ * Preprocessing ranks the vertices by <code>NestedDissection</code> and contracts them in that
+ * order without witness searches, adding an arc between every pair of higher-ranked neighbors of
+ * each contracted vertex. The result is a chordal supergraph of the road graph, and each arc is
+ * stored once, at its lower-ranked end.
+ *
+ * Customization then computes the weight of every arc for a metric: the weight of the road edge
+ * it stands for, if any, lowered by every lower triangle, a vertex below both ends adjacent to
+ * each. An arc only depends on arcs at lower-ranked vertices, so vertices are processed level by
+ * level up the elimination tree, and the vertices of a level in parallel, each updating only its
+ * own arcs. The result is an ordinary <code>ContractionHierarchy</code>, so queries and path
+ * unpacking work exactly as for a hierarchy built by <code>ContractionHierarchyBuilder</code>.
+ *
+ * Road edges are undirected, so each arc gets the larger of the weights given for the two
+ * directions of its road: closing a road one way closes it.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class CustomizableContractionHierarchy {
+    /** Levels with fewer vertices than this are customized on the calling thread. */
+    private static final int PARALLEL_LEVEL = 512;
+
+    private final long fingerprint;
+    /** The position of each vertex in the nested dissection order. */
+    final int[] rank;
+    /** Upward arcs of each vertex in CSR form, sorted by the rank of their heads. */
+    final int[] offsets, targets;
+    /** The arc each road edge lies on, indexed like <code>g.targets</code>, or -1 for loops. */
+    private final int[] arcOf;
+    /** Whether each arc stands for a road edge rather than only for fill. */
+    private final boolean[] original;
+    /** Downward arcs into each vertex in CSR form: the arc and its lower end. */
+    private final int[] downOffsets, downArcs, downTails;
+    /** Vertices grouped by elimination-tree level, and where each level starts. */
+    private final int[] byLevel, levelStarts;
+
+    /**
+     * Orders and contracts <code>g</code>. This does not depend on any metric.
+     * @param g The road graph.
+     */
+    public CustomizableContractionHierarchy(CompactGraph g) {
+        this.fingerprint = g.fingerprint();
+        int n = g.size();
+        rank = NestedDissection.rank(g);
+        int[] byRank = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            byRank[rank[v]] = v;
+        }
+
+        /* Contract in rank order, passing each vertex's upper neighbors on to the lowest one. */
+        int[][] up = new int[n][];
+        for (int v = 0; v < n; v += 1) {
+            IntList higher = new IntList();
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                if (rank[g.targets[k]] > rank[v]) {
+                    higher.add(rank[g.targets[k]]);
+                }
+            }
+            int[] ranks = higher.toArray();
+            Arrays.sort(ranks);
+            up[v] = ranks;
+        }
+        for (int r = 0; r < n; r += 1) {
+            int[] ranks = up[byRank[r]];
+            if (ranks.length > 1) {
+                int parent = byRank[ranks[0]];
+                up[parent] = merge(up[parent], ranks, 1);
+            }
+        }
+
+        offsets = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            offsets[v + 1] = offsets[v] + up[v].length;
+        }
+        int m = offsets[n];
+        targets = new int[m];
+        int[] level = new int[n];
+        int[] downCounts = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            for (int i = 0; i < up[v].length; i += 1) {
+                targets[offsets[v] + i] = byRank[up[v][i]];
+                downCounts[byRank[up[v][i]] + 1] += 1;
+            }
+        }
+        for (int r = 0; r < n; r += 1) {
+            int v = byRank[r];
+            for (int a = offsets[v]; a < offsets[v + 1]; a += 1) {
+                level[targets[a]] = Math.max(level[targets[a]], level[v] + 1);
+            }
+        }
+
+        downOffsets = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            downOffsets[v + 1] = downOffsets[v] + downCounts[v + 1];
+        }
+        downArcs = new int[m];
+        downTails = new int[m];
+        int[] fill = Arrays.copyOf(downOffsets, n);
+        for (int v = 0; v < n; v += 1) {
+            for (int a = offsets[v]; a < offsets[v + 1]; a += 1) {
+                int w = targets[a];
+                downArcs[fill[w]] = a;
+                downTails[fill[w]] = v;
+                fill[w] += 1;
+            }
+        }
+
+        arcOf = new int[g.edgeCount()];
+        original = new boolean[m];
+        for (int v = 0; v < n; v += 1) {
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                int w = g.targets[k];
+                arcOf[k] = w == v ? -1 : rank[v] < rank[w] ? arc(v, w) : arc(w, v);
+                if (arcOf[k] >= 0) {
+                    original[arcOf[k]] = true;
+                }
+            }
+        }
+
+        int levels = 0;
+        for (int v = 0; v < n; v += 1) {
+            levels = Math.max(levels, level[v] + 1);
+        }
+        levelStarts = new int[levels + 1];
+        for (int v = 0; v < n; v += 1) {
+            levelStarts[level[v] + 1] += 1;
+        }
+        for (int l = 0; l < levels; l += 1) {
+            levelStarts[l + 1] += levelStarts[l];
+        }
+        byLevel = new int[n];
+        fill = Arrays.copyOf(levelStarts, levels);
+        for (int v = 0; v < n; v += 1) {
+            byLevel[fill[level[v]]] = v;
+            fill[level[v]] += 1;
+        }
+    }
+
+    /** Returns the number of upward arcs, road edges and fill together. */
+    public int arcCount() {
+        return targets.length;
+    }
+
+    /** Returns the height of the elimination tree: the sequential steps of a customization. */
+    public int levelCount() {
+        return levelStarts.length - 1;
+    }
+
+    /**
+     * Computes arc weights and shortcut middles for a metric.
+     * @param metric The weight of every directed road edge, indexed like <code>g.targets</code>.
+     *               Weights must not be negative; infinity closes an edge.
+     * @return The hierarchy for that metric, together with the metric.
+     */
+    public Customization customize(double[] metric) {
+        int m = targets.length;
+        double[] weights = new double[m];
+        int[] middles = new int[m];
+        for (int a = 0; a < m; a += 1) {
+            weights[a] = original[a] ? 0 : Double.POSITIVE_INFINITY;
+            middles[a] = -1;
+        }
+        for (int k = 0; k < arcOf.length; k += 1) {
+            if (arcOf[k] >= 0) {
+                weights[arcOf[k]] = Math.max(weights[arcOf[k]], metric[k]);
+            }
+        }
+        for (int l = 0; l + 1 < levelStarts.length; l += 1) {
+            int from = levelStarts[l];
+            int to = levelStarts[l + 1];
+            if (to - from < PARALLEL_LEVEL) {
+                for (int i = from; i < to; i += 1) {
+                    lowerTriangles(byLevel[i], weights, middles);
+                }
+            } else {
+                IntStream.range(from, to).parallel()
+                        .forEach(i -> lowerTriangles(byLevel[i], weights, middles));
+            }
+        }
+        return new Customization(metric, new ContractionHierarchy(rank, offsets, targets, weights,
+                middles, fingerprint));
+    }
+
+    /**
+     * Lowers the weight of each upward arc of u by the lower triangles through it: for every
+     * lower neighbor v, the path from u down to v and back up to the arc's head. The upper
+     * neighbors of v above u are all upper neighbors of u too, and both lists are sorted by rank,
+     * so one pass over each finds every triangle.
+     */
+    private void lowerTriangles(int u, double[] weights, int[] middles) {
+        for (int i = downOffsets[u]; i < downOffsets[u + 1]; i += 1) {
+            int down = downArcs[i];
+            int v = downTails[i];
+            double base = weights[down];
+            if (base == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            int j = offsets[u];
+            for (int b = down + 1; b < offsets[v + 1]; b += 1) {
+                int w = targets[b];
+                while (targets[j] != w) {
+                    j += 1;
+                }
+                double via = base + weights[b];
+                if (via < weights[j]) {
+                    weights[j] = via;
+                    middles[j] = v;
+                }
+            }
+        }
+    }
+
+    /** Returns the index of the upward arc from v to the higher-ranked w. */
+    private int arc(int v, int w) {
+        int lo = offsets[v];
+        int hi = offsets[v + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int r = rank[targets[mid]];
+            if (r < rank[w]) {
+                lo = mid + 1;
+            } else if (r > rank[w]) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        throw new IllegalStateException("No arc from " + v + " to " + w);
+    }
+
+    /** Returns the sorted union of a and b[from...]. */
+    private static int[] merge(int[] a, int[] b, int from) {
+        int[] result = new int[a.length + b.length - from];
+        int i = 0;
+        int j = from;
+        int size = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i];
+                i += 1;
+            } else {
+                next = b[j];
+                j += 1;
+            }
+            if (size == 0 || result[size - 1] != next) {
+                result[size] = next;
+                size += 1;
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /** A hierarchy customized for one metric, kept with that metric. */
+    public static class Customization {
+        /** The weight of every directed road edge the hierarchy was customized for. */
+        final double[] metric;
+        final ContractionHierarchy hierarchy;
+
+        Customization(double[] metric, ContractionHierarchy hierarchy) {
+            this.metric = metric;
+            this.hierarchy = hierarchy;
+        }
+
+        /**
+         * Returns the weight of the road between two adjacent vertices under this metric, the
+         * larger of its two directions as in the hierarchy.
+         * @param g The road graph.
+         * @param u The index of one end.
+         * @param w The index of the other end.
+         * @return The weight, or infinity if they are not adjacent.
+         */
+        double weight(CompactGraph g, int u, int w) {
+            int forward = g.edge(u, w);
+            int backward = g.edge(w, u);
+            if (forward < 0 || backward < 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return Math.max(metric[forward], metric[backward]);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Dijkstra's algorithm over the dense vertex indices of a <code>CompactGraph</code>, for searches
+ * that settle vertices in order of distance instead of heading for one destination: isochrones,
+ * rows of a distance matrix and landmark tables. Edge lengths come from
+ * <code>CompactGraph.lengths</code>, and all per-vertex working state lives in a caller-owned
+ * <code>SearchContext</code>, as in <code>AStar</code>.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class Dijkstra {
+    /** Told about each vertex as it is settled. */
+    interface Visitor {
+        /**
+         * @param v The index of the vertex just settled.
+         * @param d Its distance from the sources, which is final.
+         * @return Whether to keep searching.
+         */
+        boolean settle(int v, double d);
+    }
+
+    /**
+     * Settles vertices in order of distance from the sources until none within the limit is
+     * left or the visitor stops the search. Afterwards <code>ctx</code> holds the distance and
+     * parent of every vertex touched, which are final for those that were settled.
+     * @param g The graph to search.
+     * @param ctx Working state sized for <code>g</code>, reset by this call.
+     * @param sources Indices of the vertices to start from.
+     * @param sourceCosts The distance already covered on reaching each source.
+     * @param limit The farthest distance to settle vertices at.
+     * @param visitor Told about each settled vertex, in order.
+     */
+    static void search(CompactGraph g, SearchContext ctx, int[] sources, double[] sourceCosts,
+                       double limit, Visitor visitor) {
+        double[] lengths = g.lengths();
+        ctx.reset();
+        IndexedHeap heap = ctx.heap;
+        for (int i = 0; i < sources.length; i += 1) {
+            relax(ctx, sources[i], -1, sourceCosts[i]);
+        }
+        while (!heap.isEmpty() && heap.minKey() <= limit) {
+            int v = heap.poll();
+            ctx.settled += 1;
+            double d = ctx.dist[v];
+            if (!visitor.settle(v, d)) {
+                return;
+            }
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                relax(ctx, g.targets[k], v, d + lengths[k]);
+            }
+        }
+    }
+
+    /** Records that w can be reached through v at distance d, if that is an improvement. */
+    private static void relax(SearchContext ctx, int w, int v, double d) {
+        if (!ctx.touched(w)) {
+            ctx.touch(w, 0);
+        } else if (d >= ctx.dist[w]) {
+            return;
+        }
+        ctx.dist[w] = d;
+        ctx.parent[w] = v;
+        ctx.heap.offer(w, d);
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Shortest-path distances from many origins to many destinations at once, as needed for
+ * dispatching, where every vehicle is weighed against every job.
+ *
+ * Each row is one Dijkstra search from its origin over the whole road graph, which stops as soon
+ * as every destination has been settled rather than running to a single target per pair: one
+ * search answers a full row, and it never expands past the farthest destination. Rows are
+ * independent, so they are computed in parallel on the common fork-join pool, each worker thread
+ * searching with its own <code>SearchContext</code>.
+ *
+ * When hub labels are available no search is needed at all, and each entry is a single label
+ * merge.
+ *
+ * Given the connected components, a search only waits for the destinations in its origin's
+ * component, so an origin on an island settles just the island rather than every vertex looking
+ * for destinations it can never reach, and pairs in different components are infinite at once.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class DistanceMatrix {
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Computes the distance from every origin to every destination.
+     * @param g The graph to search.
+     * @param labels Hub labels for <code>g</code>, or null to search.
+     * @param origins Indices of the vertices to start from.
+     * @param destinations Indices of the vertices to end at.
+     * @return The distance in miles from origins[i] to destinations[j] at [i][j], or infinity if
+     * there is no path.
+     */
+    static double[][] compute(CompactGraph g, HubLabels labels, int[] origins,
+                              int[] destinations) {
+        return compute(g, labels, null, origins, destinations);
+    }
+
+    /**
+     * Computes the distance from every origin to every destination, skipping the pairs that the
+     * components show to be unreachable.
+     * @param g The graph to search.
+     * @param labels Hub labels for <code>g</code>, or null to search.
+     * @param components The connected components of <code>g</code>, or null if not known.
+     * @param origins Indices of the vertices to start from.
+     * @param destinations Indices of the vertices to end at.
+     * @return The distance in miles from origins[i] to destinations[j] at [i][j], or infinity if
+     * there is no path.
+     */
+    static double[][] compute(CompactGraph g, HubLabels labels, ConnectedComponents components,
+                              int[] origins, int[] destinations) {
+        double[][] result = new double[origins.length][destinations.length];
+        if (labels != null) {
+            IntStream.range(0, origins.length).parallel().forEach(i -> {
+                for (int j = 0; j < destinations.length; j += 1) {
+                    result[i][j] = components != null
+                            && !components.connected(origins[i], destinations[j])
+                            ? Double.POSITIVE_INFINITY
+                            : labels.distance(origins[i], destinations[j]);
+                }
+            });
+            return result;
+        }
+        /* Shared by every search, and only read: which vertices are destinations. */
+        boolean[] isTarget = new boolean[g.size()];
+        /* The number of distinct destinations in each component, or in all if none are known. */
+        int[] targetCounts = new int[components == null ? 1 : components.count()];
+        for (int d : destinations) {
+            if (!isTarget[d]) {
+                isTarget[d] = true;
+                targetCounts[components == null ? 0 : components.id(d)] += 1;
+            }
+        }
+        IntStream.range(0, origins.length).parallel().forEach(i -> {
+            int targetCount = targetCounts[components == null ? 0 : components.id(origins[i])];
+            if (targetCount == 0) {
+                Arrays.fill(result[i], Double.POSITIVE_INFINITY);
+                return;
+            }
+            oneToMany(g, Router.context(g), origins[i], isTarget, targetCount, destinations,
+                    result[i]);
+        });
+        return result;
+    }
+
+    /**
+     * Runs Dijkstra from source until every target is settled or nothing more can be reached,
+     * and fills in the distances to the destinations.
+     * @param g The graph to search.
+     * @param ctx Working state sized for <code>g</code>, reset by this call.
+     * @param source The index of the vertex to start from.
+     * @param isTarget Whether each vertex is a destination.
+     * @param targetCount The number of vertices marked in isTarget.
+     * @param destinations Indices of the destinations, in row order.
+     * @param row Receives the distance to each destination, or infinity if there is no path.
+     */
+    static void oneToMany(CompactGraph g, SearchContext ctx, int source, boolean[] isTarget,
+                          int targetCount, int[] destinations, double[] row) {
+        int[] remaining = {targetCount};
+        Dijkstra.search(g, ctx, new int[]{source}, new double[]{0}, Double.POSITIVE_INFINITY,
+                (v, d) -> {
+                    if (isTarget[v]) {
+                        remaining[0] -= 1;
+                    }
+                    return remaining[0] > 0;
+                });
+        /* Every destination reached was also settled, so its distance is final. */
+        for (int j = 0; j < destinations.length; j += 1) {
+            int d = destinations[j];
+            row[j] = ctx.touched(d) ? ctx.dist[d] : Double.POSITIVE_INFINITY;
+        }
+    }
+}
@@ -32,7 +32,7 @@ public class GraphBuildingHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = Set.of(
+    static final Set<String> ALLOWED_HIGHWAY_TYPES = Set.of(
             "motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential",
             "living_street", "motorway_link", "trunk_link", "primary_link", "secondary_link",
             "tertiary_link"
@@ -40,6 +40,10 @@ public class GraphBuildingHandler extends DefaultHandler {
     private String activeState = "";
     private final GraphDB g;
     private long nodeID;
+    private double nodeLat;
+    private double nodeLon;
+    /** If not null, only nodes in this set become vertices; see RoutableWayScanner. */
+    private final LongHashSet keep;
     private long wayID;
     private ArrayList<Long> wayVertices = new ArrayList<>();
     private HashMap<String, String> wayTags = new HashMap<>();
@@ -50,7 +54,18 @@ public class GraphBuildingHandler extends DefaultHandler {
      * @param g The graph to populate with the XML data.
      */
     public GraphBuildingHandler(GraphDB g) {
+        this(g, null);
+    }
+
+    /**
+     * Create a new GraphBuildingHandler that only adds the nodes in <code>keep</code> as vertices.
+     * Named nodes are still recorded for search.
+     * @param g The graph to populate with the XML data.
+     * @param keep Ids of the nodes to add, or null to add every node.
+     */
+    public GraphBuildingHandler(GraphDB g, LongHashSet keep) {
         this.g = g;
+        this.keep = keep;
     }
 
     /**
@@ -72,39 +87,77 @@ public class GraphBuildingHandler extends DefaultHandler {
             throws SAXException {
         if (qName.equals("node")) {
             /* Encountering a new <node...> tag. */
-            activeState = "node";
             // System.out.println("Node id: " + attributes.getValue("id"));
             // System.out.println("Node lon: " + attributes.getValue("lon"));
             // System.out.println("Node lat: " + attributes.getValue("lat"));
-
-            /*
-             * Hint: A graph-like structure would be nice. */
-            nodeID = Long.valueOf(attributes.getValue("id"));
-            double lat = Double.valueOf(attributes.getValue("lat"));
-            double lon = Double.valueOf(attributes.getValue("lon"));
-            g.addVertex(nodeID, lat, lon);
-
+            startNode(Long.parseLong(attributes.getValue("id")),
+                    Double.parseDouble(attributes.getValue("lat")),
+                    Double.parseDouble(attributes.getValue("lon")));
         } else if (qName.equals("way")) {
             /* Encountering a new <way...> tag. */
-            activeState = "way";
-            wayID = Long.valueOf(attributes.getValue("id"));
+            startWay(Long.parseLong(attributes.getValue("id")));
             // System.out.println("Beginning a way...");
         } else if (activeState.equals("way") && qName.equals("nd")) {
             /* While looking at a way, found a <nd...> tag. */
             // System.out.println("Node id in this way: " + attributes.getValue("ref"));
+            wayNode(Long.parseLong(attributes.getValue("ref")));
+        } else if (qName.equals("tag")) {
+            tag(attributes.getValue("k"), attributes.getValue("v"));
+        }
+    }
 
-            /*
-             * Hint 1: It would be useful to remember what was the last node in this way.
-             * Hint 2: Not all ways are valid. So, directly connecting the nodes here would be
-               cumbersome since you might have to remove the connections if you later see a tag that
-               makes this way invalid. Instead, think of keeping a list of possible connections and
-               remember whether this way is valid or not. */
-            long id = Long.valueOf(attributes.getValue("ref"));
-            wayVertices.add(id);
-        } else if (activeState.equals("way") && qName.equals("tag")) {
+    /**
+     * Handles a <code>&lt;node&gt;</code> element whose attributes have already been decoded.
+     * @param id The node id.
+     * @param lat The node latitude.
+     * @param lon The node longitude.
+     */
+    void startNode(long id, double lat, double lon) {
+        activeState = "node";
+        /*
+         * Hint: A graph-like structure would be nice. */
+        nodeID = id;
+        nodeLat = lat;
+        nodeLon = lon;
+        if (keep == null || keep.contains(nodeID)) {
+            g.addVertex(nodeID, nodeLat, nodeLon);
+        }
+    }
+
+    /**
+     * Handles a <code>&lt;way&gt;</code> element whose id has already been decoded.
+     * @param id The way id.
+     */
+    void startWay(long id) {
+        activeState = "way";
+        wayID = id;
+    }
+
+    /**
+     * Handles a <code>&lt;nd&gt;</code> element inside a way.
+     * @param ref The id of the referenced node.
+     */
+    void wayNode(long ref) {
+        if (!activeState.equals("way")) {
+            return;
+        }
+        /*
+         * Hint 1: It would be useful to remember what was the last node in this way.
+         * Hint 2: Not all ways are valid. So, directly connecting the nodes here would be
+           cumbersome since you might have to remove the connections if you later see a tag that
+           makes this way invalid. Instead, think of keeping a list of possible connections and
+           remember whether this way is valid or not. */
+        wayVertices.add(ref);
+    }
+
+    /**
+     * Handles a <code>&lt;tag&gt;</code> element, which belongs to the last node or way seen.
+     * @param k The tag key.
+     * @param v The tag value.
+     */
+    void tag(String k, String v) {
+        if (activeState.equals("way")) {
             /* While looking at a way, found a <tag...> tag. */
-            String k = attributes.getValue("k");
-            String v = attributes.getValue("v");
             if (k.equals("maxspeed")) {
                 // System.out.println("Max Speed: " + v);
                 wayTags.put(k, v);
@@ -121,17 +174,18 @@ public class GraphBuildingHandler extends DefaultHandler {
                 wayTags.put(k, v);
             }
             // System.out.println("Tag with k=" + k + ", v=" + v + ".");
-        } else if (activeState.equals("node") && qName.equals("tag")
-                && attributes.getValue("k").equals("name")) {
+        } else if (activeState.equals("node") && k.equals("name")) {
             /* While looking at a node, found a <tag...> with k="name". */
             /*
              * Hint: Since we found this <tag...> INSIDE a node, we should probably remember which
              * node this tag belongs to. Remember XML is parsed top-to-bottom, so probably it's the
              * last node that you looked at (check the first if-case). */
-            // System.out.println("Node's name: " + attributes.getValue("v"));
-            String k = attributes.getValue("k");
-            String v = attributes.getValue("v");
-            g.nodes.get(nodeID).addTags(k, v);
+            // System.out.println("Node's name: " + v);
+            GraphDB.Vertex vertex = g.nodes.get(nodeID);
+            if (vertex != null) {
+                vertex.addTags(k, v);
+            }
+            g.addLocation(nodeID, nodeLat, nodeLon, v);
         }
     }
 
@@ -149,32 +203,37 @@ public class GraphBuildingHandler extends DefaultHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
-            /* Done looking at a way. (Finished looking at the nodes, speeds, etc.) */
+            endWay();
+        }
+    }
+
+    /** Handles the end of a way, connecting its nodes if the way is valid. */
+    void endWay() {
+        /* Done looking at a way. (Finished looking at the nodes, speeds, etc.) */
 
-            /* Hint: If you have stored the possible connections for this way, here's your chance to
-             * actually connect the nodes together if the way is valid. */
+        /* Hint: If you have stored the possible connections for this way, here's your chance to
+         * actually connect the nodes together if the way is valid. */
 
-            // System.out.println("Finishing a way...");
-            if (isValid) {
-                g.addPath(wayID, wayVertices, wayTags);
-                if (wayVertices.size() != 1) {
-                    for (int i = 0; i < wayVertices.size(); i++) {
-                        if (i == 0) {
-                            g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i + 1));
-                        } else if (i == wayVertices.size() - 1) {
-                            g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i - 1));
-                        } else {
-                            g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i - 1));
-                            g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i + 1));
-                        }
+        // System.out.println("Finishing a way...");
+        if (isValid) {
+            g.addPath(wayID, wayVertices, wayTags);
+            if (wayVertices.size() != 1) {
+                for (int i = 0; i < wayVertices.size(); i++) {
+                    if (i == 0) {
+                        g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i + 1));
+                    } else if (i == wayVertices.size() - 1) {
+                        g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i - 1));
+                    } else {
+                        g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i - 1));
+                        g.nodes.get(wayVertices.get(i)).neighbors.add(wayVertices.get(i + 1));
                     }
                 }
             }
-            activeState = "";
-            wayVertices = new ArrayList<>();
-            wayTags = new HashMap<>();
-            isValid = false;
         }
+        activeState = "";
+        wayVertices = new ArrayList<>();
+        wayTags = new HashMap<>();
+        isValid = false;
     }
 
 }
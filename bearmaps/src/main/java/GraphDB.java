@@ -1,8 +1,10 @@
 import org.xml.sax.SAXException;
 
-import java.io.File;
+import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -11,7 +13,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.HashSet;
 import java.util.HashMap;
-import java.util.stream.Collectors;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
@@ -55,6 +56,15 @@ public class GraphDB {
             this.neighbors = new HashSet<>();
         }
 
+        /** Creates a lightweight vertex with precomputed projections and no tags or neighbors. */
+        Vertex(long id, double lat, double lon, double x, double y) {
+            this.id = id;
+            this.lat = lat;
+            this.lon = lon;
+            this.x = x;
+            this.y = y;
+        }
+
         public Vertex(double lat, double lon) {
             this.id = 0;
             this.lon = lon;
@@ -104,10 +114,41 @@ public class GraphDB {
         }
     }
 
+    /** Mutable vertices used while parsing; released once the graph is frozen into csr. */
     HashMap<Long, Vertex> nodes;
     HashMap<Long, Path> paths;
+    /** Frozen vertices and edges of the cleaned graph. */
+    CompactGraph csr;
+    /** Every named node in the OSM file, on a road or not, keyed by id. Used for search. */
+    HashMap<Long, LocationParams> locations;
     KDTree amanda;
-    Vertex bestNode;
+    /** Spatial index over road segments, for snapping points onto roads. */
+    SegmentIndex segments;
+    /** The name of the way along each edge, for directions. */
+    WayIndex ways;
+    /** The connected component of each vertex, for rejecting routes between them at once. */
+    ConnectedComponents components;
+    /**
+     * Tree over the vertices of the largest component only, or amanda itself when that is every
+     * vertex.
+     */
+    KDTree mainland;
+    /** Whether points snap to the largest component, so that routes between them always exist. */
+    private volatile boolean preferLargestComponent;
+    /** Contraction hierarchy for fast routing, or null if none has been loaded. */
+    ContractionHierarchy ch;
+    /** Landmark distance tables for the ALT heuristic, or null if none have been loaded. */
+    Landmarks landmarks;
+    /** Hub labels for distance-only queries, or null if none have been loaded. */
+    HubLabels labels;
+    /** Metric-independent hierarchy for fast reweighting, or null if none has been prepared. */
+    CustomizableContractionHierarchy cch;
+    /** Whether the first CCH query may prepare the customizable hierarchy. */
+    private volatile boolean customizable;
+    /** The hierarchy customized for the current metric, replaced whole by each customization. */
+    volatile CustomizableContractionHierarchy.Customization customized;
+    /** Time spent in each stage of loading this graph. */
+    final LoadReport report = new LoadReport();
 
     /**
      * This constructor creates and starts an XML parser, cleans the nodes, and prepares the
@@ -115,19 +156,308 @@ public class GraphDB {
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
-        File inputFile = new File(dbPath);
+        this(dbPath, null);
+    }
+
+    /** How the OSM XML is turned into vertices. */
+    public enum LoadMode {
+        /** Materialize every node in one pass, then drop the ones not on a road in clean(). */
+        ALL_NODES,
+        /**
+         * Scan the ways first and only materialize the nodes of routable ways in a second pass,
+         * so peak memory follows the size of the road graph rather than of the whole file.
+         */
+        ROUTABLE_NODES,
+        /**
+         * Materialize every node in one pass through OsmIngestPipeline, which decodes attributes
+         * on several cores while a single builder keeps the graph in file order.
+         */
+        PIPELINED
+    }
+
+    /**
+     * Loads the graph from a binary snapshot when one exists for the current contents of the XML
+     * file, and otherwise parses the XML and writes a fresh snapshot for the next start.
+     * @param dbPath Path to the XML file to be parsed.
+     * @param snapshotPath Path to the snapshot file, or null to always parse the XML.
+     */
+    public GraphDB(String dbPath, String snapshotPath) {
+        this(dbPath, snapshotPath, LoadMode.ALL_NODES);
+    }
+
+    /**
+     * Loads the graph from a snapshot, as above, parsing the XML with the given mode when the
+     * snapshot cannot be used.
+     * @param dbPath Path to the XML file to be parsed.
+     * @param snapshotPath Path to the snapshot file, or null to always parse the XML.
+     * @param mode How to parse the XML.
+     */
+    public GraphDB(String dbPath, String snapshotPath, LoadMode mode) {
         this.nodes = new HashMap<>();
         this.paths = new HashMap<>();
-        try (FileInputStream inputStream = new FileInputStream(inputFile)) {
+        this.locations = new HashMap<>();
+        long checksum = 0;
+        long t0 = System.nanoTime();
+        if (snapshotPath != null) {
+            try {
+                checksum = GraphSnapshot.checksum(dbPath);
+                boolean loaded = GraphSnapshot.read(this, snapshotPath, checksum);
+                report.addStage("snapshot read", System.nanoTime() - t0);
+                if (loaded) {
+                    buildIndexes();
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                snapshotPath = null;
+            }
+        }
+        t0 = System.nanoTime();
+        parse(dbPath, mode);
+        long t1 = System.nanoTime();
+        report.addStage("parse", t1 - t0);
+        clean();
+        long t2 = System.nanoTime();
+        report.addStage("clean", t2 - t1);
+        freeze();
+        report.addStage("freeze", System.nanoTime() - t2);
+        buildIndexes();
+        if (snapshotPath != null) {
+            t0 = System.nanoTime();
+            try {
+                GraphSnapshot.write(this, snapshotPath, checksum);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            report.addStage("snapshot write", System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Builds the derived indexes that are cheap enough to recompute from csr on every start, and
+     * so are not stored in snapshots.
+     */
+    private void buildIndexes() {
+        long t0 = System.nanoTime();
+        this.segments = new SegmentIndex(csr);
+        long t1 = System.nanoTime();
+        report.addStage("segment index", t1 - t0);
+        this.ways = new WayIndex(csr, paths.values());
+        long t2 = System.nanoTime();
+        report.addStage("way index", t2 - t1);
+        this.components = new ConnectedComponents(csr);
+        int largest = components.count() == 0 ? 0 : components.size(0);
+        this.mainland = largest == csr.size() ? amanda : KDTree.over(csr, components.largest());
+        report.addStage("components", System.nanoTime() - t2);
+        report.addStat("components", components.count());
+        report.addStat("largest component", largest);
+        report.addStat("largest component %",
+                String.format("%.2f", csr.size() == 0 ? 0 : 100.0 * largest / csr.size()));
+    }
+
+    /**
+     * Sets whether points snap only to vertices and road segments of the largest connected
+     * component. Otherwise a point beside a road cut off from the rest of the network snaps onto
+     * it, and routes to anywhere else come back empty.
+     * @param prefer True to snap to the largest component.
+     */
+    public void preferLargestComponent(boolean prefer) {
+        this.preferLargestComponent = prefer;
+    }
+
+    /**
+     * Loads the contraction hierarchy stored at <code>chPath</code>, if there is one for this
+     * graph, so that routing can use it.
+     * @param chPath Path to the hierarchy file.
+     * @return True if the hierarchy was loaded.
+     */
+    public boolean loadHierarchy(String chPath) {
+        long t0 = System.nanoTime();
+        try {
+            this.ch = ContractionHierarchy.read(chPath, csr);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        report.addStage("hierarchy read", System.nanoTime() - t0);
+        return ch != null;
+    }
+
+    /**
+     * Loads the landmark distance tables stored at <code>path</code>. If there are none for this
+     * graph, or they hold a different number of landmarks, selects <code>count</code> landmarks,
+     * computes their tables and stores them at <code>path</code> for next time.
+     * @param path Path to the landmark file.
+     * @param count The number of landmarks to use.
+     * @return True if landmarks were loaded or built.
+     */
+    public boolean loadLandmarks(String path, int count) {
+        long t0 = System.nanoTime();
+        try {
+            landmarks = Landmarks.read(path, csr);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        report.addStage("landmarks read", System.nanoTime() - t0);
+        if (landmarks != null && landmarks.count() == count) {
+            return true;
+        }
+        t0 = System.nanoTime();
+        landmarks = Landmarks.build(csr, count, Landmarks.Strategy.AVOID);
+        report.addStage("landmarks build", System.nanoTime() - t0);
+        try {
+            landmarks.write(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return landmarks.count() > 0;
+    }
+
+    /**
+     * Loads the hub labels stored at <code>path</code>. If there are none for this graph but a
+     * contraction hierarchy is loaded, derives the labels from it and stores them at
+     * <code>path</code> for next time. Label sizes and memory are recorded in the load report.
+     * @param path Path to the label file.
+     * @return True if labels were loaded or built.
+     */
+    public boolean loadHubLabels(String path) {
+        long t0 = System.nanoTime();
+        try {
+            labels = HubLabels.read(path, csr);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        report.addStage("hub labels read", System.nanoTime() - t0);
+        if (labels == null && ch != null) {
+            t0 = System.nanoTime();
+            labels = HubLabels.build(ch);
+            report.addStage("hub labels build", System.nanoTime() - t0);
+            try {
+                labels.write(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (labels == null) {
+            return false;
+        }
+        report.addStat("hub label entries", labels.entryCount());
+        report.addStat("hub label mean size",
+                String.format("%.1f", (double) labels.entryCount() / Math.max(1, labels.size())));
+        report.addStat("hub label max size", labels.maxLabelSize());
+        report.addStat("hub label MB", String.format("%.1f", labels.estimatedBytes() / 1e6));
+        return true;
+    }
+
+    /**
+     * Lets the first <code>Algorithm.CCH</code> query prepare customizable routing, so that a
+     * server that never gets one does not spend its startup ordering and contracting the graph.
+     */
+    public void allowCustomization() {
+        customizable = true;
+    }
+
+    /**
+     * Returns the hierarchy customized for the current metric, preparing it first if
+     * customization is allowed and this is the first time it is needed.
+     * @return The customization, or null if customization is neither allowed nor prepared.
+     */
+    CustomizableContractionHierarchy.Customization customization() {
+        CustomizableContractionHierarchy.Customization current = customized;
+        if (current == null && customizable) {
+            prepareCustomization();
+            current = customized;
+        }
+        return current;
+    }
+
+    /**
+     * Orders and contracts the graph for customizable routing, then customizes it for travel
+     * time at the speed limit of each road. Does nothing if that has already been done.
+     */
+    public synchronized void prepareCustomization() {
+        if (customized == null) {
+            customize(RoadMetrics.travelTime(this));
+        }
+    }
+
+    /**
+     * Customizes the hierarchy for new edge weights and routes <code>Algorithm.CCH</code>
+     * queries with them from now on, ordering and contracting the graph first if it has not
+     * been yet. Queries already running finish with the old weights.
+     * @param metric The weight of every directed edge, indexed like <code>csr.targets</code>;
+     *               see <code>RoadMetrics</code>.
+     */
+    public synchronized void customize(double[] metric) {
+        if (cch == null) {
+            long t0 = System.nanoTime();
+            cch = new CustomizableContractionHierarchy(csr);
+            report.addStage("cch preprocess", System.nanoTime() - t0);
+            report.addStat("cch arcs", cch.arcCount());
+        }
+        long t0 = System.nanoTime();
+        customized = cch.customize(metric);
+        report.addStat("cch last customization ms",
+                String.format("%.1f", (System.nanoTime() - t0) / 1e6));
+    }
+
+    /**
+     * Opens an OSM XML file for streaming, decompressing it on the fly if its name ends in
+     * <code>.gz</code>.
+     * @param dbPath Path to the XML file.
+     * @return A buffered stream over the uncompressed XML.
+     * @throws IOException If the file cannot be opened.
+     */
+    static InputStream openOsm(String dbPath) throws IOException {
+        InputStream in = new FileInputStream(dbPath);
+        if (dbPath.endsWith(".gz")) {
+            return new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+        }
+        return new BufferedInputStream(in, 1 << 16);
+    }
+
+    /**
+     * Parses the OSM XML file at <code>dbPath</code> into nodes and paths.
+     * @param dbPath Path to the XML file to be parsed.
+     * @param mode Whether to materialize every node or only those on routable ways.
+     */
+    private void parse(String dbPath, LoadMode mode) {
+        if (mode == LoadMode.PIPELINED) {
+            try (InputStream inputStream = openOsm(dbPath)) {
+                new OsmIngestPipeline().run(inputStream, new GraphBuildingHandler(this), report);
+            } catch (SAXException | IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        try {
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
-            saxParser.parse(inputStream, new GraphBuildingHandler(this));
+            LongHashSet keep = null;
+            if (mode == LoadMode.ROUTABLE_NODES) {
+                RoutableWayScanner scanner = new RoutableWayScanner();
+                try (InputStream inputStream = openOsm(dbPath)) {
+                    saxParser.parse(inputStream, scanner);
+                }
+                keep = scanner.referenced();
+                this.nodes = new HashMap<>(keep.size() * 4 / 3 + 1);
+                saxParser.reset();
+            }
+            try (InputStream inputStream = openOsm(dbPath)) {
+                saxParser.parse(inputStream, new GraphBuildingHandler(this, keep));
+            }
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
-        clean();
-        List<Vertex> lst = nodes.values().stream().collect(Collectors.toList());
-        this.amanda = new KDTree(lst);
+    }
+
+    /**
+     * Freezes the cleaned vertices into the compact graph and bulk-builds the spatial index. The
+     * per-vertex objects are released afterwards.
+     */
+    private void freeze() {
+        this.csr = CompactGraph.freeze(nodes);
+        this.nodes = null;
+        this.amanda = new KDTree(csr);
     }
 
     public void addVertex(long id, double lat, double lon) {
@@ -137,6 +467,26 @@ public class GraphDB {
         }
     }
 
+    /**
+     * Returns a lightweight vertex for the compact graph vertex at index <code>i</code>.
+     * @param i A vertex index in csr.
+     * @return A new <code>Vertex</code> with the coordinates of that vertex.
+     */
+    Vertex vertexAt(int i) {
+        return new Vertex(csr.ids[i], csr.lat[i], csr.lon[i], csr.x[i], csr.y[i]);
+    }
+
+    /**
+     * Records a named node for search, whether or not it ends up in the road graph.
+     * @param id The id of the node.
+     * @param lat The latitude of the node.
+     * @param lon The longitude of the node.
+     * @param name The value of the node's name tag.
+     */
+    public void addLocation(long id, double lat, double lon, String name) {
+        locations.put(id, new LocationParams(lat, lon, name, id));
+    }
+
     public Vertex constructVertex(long id, double lat, double lon, HashMap<String, String> tags) {
         return new Vertex(id, lat, lon, tags, new HashSet<>());
     }
@@ -198,9 +548,9 @@ public class GraphDB {
      * @return The longitude of that vertex, or 0.0 if the vertex is not in the graph.
      */
     double lon(long v) {
-        // TODO
-        if (nodes.get(v) != null) {
-            return nodes.get(v).getLon();
+        int i = csr.indexOf(v);
+        if (i >= 0) {
+            return csr.lon[i];
         }
         return 1000000;
     }
@@ -211,9 +561,9 @@ public class GraphDB {
      * @return The latitude of that vertex, or 0.0 if the vertex is not in the graph.
      */
     double lat(long v) {
-        // TODO
-        if (nodes.get(v) != null) {
-            return nodes.get(v).getLat();
+        int i = csr.indexOf(v);
+        if (i >= 0) {
+            return csr.lat[i];
         }
         return 1000000;
     }
@@ -223,8 +573,7 @@ public class GraphDB {
      * @return An iterable of all vertex IDs in the graph.
      */
     Iterable<Long> vertices() {
-        // TODO
-        return nodes.keySet();
+        return csr.vertexIds();
     }
 
     /**
@@ -234,23 +583,11 @@ public class GraphDB {
      * iterable if the vertex is not in the graph.
      */
     Iterable<Long> adjacent(long v) {
-        return nodes.get(v).neighbors;
-//        ArrayList<Long> result = new ArrayList<>();
-//        for (Path p: paths.values()) {
-//            if (p.vertices.contains(v)) {
-//                if (p.vertices.get(0).equals(v) && p.vertices.size() > 1) {
-//                    result.add(p.vertices.get(1));
-//                } else if (p.vertices.get(p.vertices.size() - 1).equals(v)
-//                        && p.vertices.size() > 1) {
-//                    result.add(p.vertices.get(p.vertices.size() - 2));
-//                } else if (p.vertices.size() > 2) {
-//                    int index = p.vertices.indexOf(v);
-//                    result.add(p.vertices.get(index - 1));
-//                    result.add(p.vertices.get(index + 1));
-//                }
-//            }
-//        }
-//        return result;
+        int i = csr.indexOf(v);
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+        return csr.adjacentIds(i);
     }
 
     /**
@@ -262,10 +599,28 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     public double distance(long v, long w) {
-        double phi1 = Math.toRadians(lat(v));
-        double phi2 = Math.toRadians(lat(w));
-        double dphi = Math.toRadians(lat(w) - lat(v));
-        double dlambda = Math.toRadians(lon(w) - lon(v));
+        int i = csr.indexOf(v);
+        int j = csr.indexOf(w);
+        if (i >= 0 && j >= 0) {
+            return csr.distance(i, j);
+        }
+        return haversine(lat(v), lon(v), lat(w), lon(w));
+    }
+
+    /**
+     * Returns the great-circle distance between two points, in miles.
+     * @param lat1 The latitude of the first point.
+     * @param lon1 The longitude of the first point.
+     * @param lat2 The latitude of the second point.
+     * @param lon2 The longitude of the second point.
+     * @return The great-circle distance between the two points.
+     * @source https://www.movable-type.co.uk/scripts/latlong.html
+     */
+    static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dphi = Math.toRadians(lat2 - lat1);
+        double dlambda = Math.toRadians(lon2 - lon1);
 
         double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
         a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
@@ -280,11 +635,134 @@ public class GraphDB {
      * @return The ID for the vertex closest to the <code>lon</code> and <code>lat</code>.
      */
     public long closest(double lon, double lat) {
-        Vertex v = new Vertex(lat, lon);
-        amanda.closestHelper(amanda.root, v, 0);
-        return amanda.currBest.item.id;
+        return csr.ids[closestIndex(lon, lat)];
     }
 
+    /**
+     * Returns the compact-graph index of the vertex closest to the given longitude and latitude.
+     * Allocates nothing and is safe to call from any number of threads. Only vertices of the
+     * largest component are considered while <code>preferLargestComponent</code> is set.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @return The index in csr of the closest vertex.
+     */
+    int closestIndex(double lon, double lat) {
+        return snapTree().nearest(projectToX(lon, lat), projectToY(lon, lat));
+    }
+
+    /**
+     * Answers <code>closestIndex</code> for many points in one call.
+     * @param lons The longitudes of the query points.
+     * @param lats The latitudes of the query points, in the same order.
+     * @return For each query point, in order, the index in csr of its closest vertex.
+     */
+    int[] closestIndices(double[] lons, double[] lats) {
+        double[] xs = new double[lons.length];
+        double[] ys = new double[lons.length];
+        for (int i = 0; i < lons.length; i += 1) {
+            xs[i] = projectToX(lons[i], lats[i]);
+            ys[i] = projectToY(lons[i], lats[i]);
+        }
+        int[][] found = snapTree().kNearest(xs, ys, 1);
+        int[] result = new int[found.length];
+        for (int i = 0; i < found.length; i += 1) {
+            result[i] = found[i][0];
+        }
+        return result;
+    }
+
+    /** Returns the tree to snap points to, following <code>preferLargestComponent</code>. */
+    private KDTree snapTree() {
+        return preferLargestComponent ? mainland : amanda;
+    }
+
+    /**
+     * Returns the point on the nearest road segment to the given longitude and latitude. While
+     * <code>preferLargestComponent</code> is set and that segment is cut off from the largest
+     * component, the point snaps to the nearest vertex of the largest component instead.
+     * @param lon The longitude of the query point.
+     * @param lat The latitude of the query point.
+     * @return The snapped point, or null if the graph has no edges.
+     */
+    SegmentIndex.Snap snap(double lon, double lat) {
+        SegmentIndex.Snap s = segments.snap(lon, lat);
+        if (s == null || !preferLargestComponent || components.inLargest(s.from)) {
+            return s;
+        }
+        int v = mainland.nearest(projectToX(lon, lat), projectToY(lon, lat));
+        return new SegmentIndex.Snap(v, v, 0, csr.lon[v], csr.lat[v]);
+    }
+
+
+    /**
+     * Returns the IDs of the <code>k</code> vertices closest to the given longitude and latitude,
+     * closest first, using the same projected distance as <code>closest</code>.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @param k The number of vertices to return.
+     * @return The IDs of the min(k, number of vertices) closest vertices.
+     */
+    public long[] kNearest(double lon, double lat, int k) {
+        return toIds(amanda.kNearest(projectToX(lon, lat), projectToY(lon, lat), k));
+    }
+
+    /**
+     * Answers <code>kNearest</code> for many points in one call, which is cheaper than calling it
+     * once per point.
+     * @param lons The longitudes of the query points.
+     * @param lats The latitudes of the query points, in the same order.
+     * @param k The number of vertices to return per point.
+     * @return For each query point, in order, the IDs of its k closest vertices.
+     */
+    public long[][] kNearest(double[] lons, double[] lats, int k) {
+        double[] xs = new double[lons.length];
+        double[] ys = new double[lons.length];
+        for (int i = 0; i < lons.length; i += 1) {
+            xs[i] = projectToX(lons[i], lats[i]);
+            ys[i] = projectToY(lons[i], lats[i]);
+        }
+        int[][] found = amanda.kNearest(xs, ys, k);
+        long[][] result = new long[found.length][];
+        for (int i = 0; i < found.length; i += 1) {
+            result[i] = toIds(found[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the IDs of every vertex within <code>miles</code> great-circle miles of the given
+     * longitude and latitude, in no particular order.
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @param miles The search radius in miles.
+     * @return The IDs of the vertices in range.
+     */
+    public long[] withinRadius(double lon, double lat, double miles) {
+        /* Projected distances overstate true ones by the projection's scale factor, which stays
+         * under 1% within 8 degrees of the center; candidates are then checked exactly. */
+        int[] candidates = amanda.withinRadius(projectToX(lon, lat), projectToY(lon, lat),
+                miles / R * RADIUS_SLACK);
+        int count = 0;
+        for (int v : candidates) {
+            if (haversine(lat, lon, csr.lat[v], csr.lon[v]) <= miles) {
+                candidates[count] = v;
+                count += 1;
+            }
+        }
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i += 1) {
+            ids[i] = csr.ids[candidates[i]];
+        }
+        return ids;
+    }
+
+    private long[] toIds(int[] indices) {
+        long[] ids = new long[indices.length];
+        for (int i = 0; i < indices.length; i += 1) {
+            ids[i] = csr.ids[indices[i]];
+        }
+        return ids;
+    }
 
     /**
      * Return the Euclidean x-value for some point, p, in Berkeley. Found by computing the
@@ -351,10 +829,22 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     double bearing(long v, long w) {
-        double phi1 = Math.toRadians(lat(v));
-        double phi2 = Math.toRadians(lat(w));
-        double lambda1 = Math.toRadians(lon(v));
-        double lambda2 = Math.toRadians(lon(w));
+        return bearing(lat(v), lon(v), lat(w), lon(w));
+    }
+
+    /**
+     * Returns the initial bearing from one point to another in degrees, as above.
+     * @param lat1 The latitude of the starting point.
+     * @param lon1 The longitude of the starting point.
+     * @param lat2 The latitude of the end point.
+     * @param lon2 The longitude of the end point.
+     * @return The bearing, between -180 and 180 degrees clockwise from north.
+     */
+    static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double lambda1 = Math.toRadians(lon1);
+        double lambda2 = Math.toRadians(lon2);
 
         double y = Math.sin(lambda2 - lambda1) * Math.cos(phi2);
         double x = Math.cos(phi1) * Math.sin(phi2);
@@ -364,6 +854,8 @@ public class GraphDB {
 
     /** Radius of the Earth in miles. */
     private static final int R = 3963;
+    /** Factor by which withinRadius widens its projected search radius before exact checks. */
+    private static final double RADIUS_SLACK = 1.01;
     /** Latitude centered on Berkeley. */
     private static final double ROOT_LAT = (MapServer.ROOT_ULLAT + MapServer.ROOT_LRLAT) / 2;
     /** Longitude centered on Berkeley. */
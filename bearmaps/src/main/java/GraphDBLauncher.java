@@ -9,8 +9,18 @@ import java.util.ArrayList;
 public class GraphDBLauncher {
     private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
 
+    /**
+     * Loads a graph and prints a summary of it.
+     * @param args Optionally, the OSM XML file to load (which may be gzip-compressed) followed by
+     *             a GraphDB.LoadMode; defaults to the Berkeley map and ALL_NODES.
+     */
     public static void main(String[] args) {
-        GraphDB g = new GraphDB(OSM_DB_PATH);
+        String dbPath = args.length > 0 ? args[0] : OSM_DB_PATH;
+        GraphDB.LoadMode mode = args.length > 1
+                ? GraphDB.LoadMode.valueOf(args[1]) : GraphDB.LoadMode.ALL_NODES;
+        GraphDB g = new GraphDB(dbPath, null, mode);
+        System.out.println("Load report (" + mode + "):");
+        System.out.print(g.report);
         List<Long> vertices = new ArrayList<>();
         for (long v : g.vertices()) {
             vertices.add(v);
@@ -0,0 +1,379 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes versioned binary snapshots of a cleaned <code>GraphDB</code>, so that a server
+ * can start without re-parsing the OSM XML. A snapshot records the CRC-32 of the XML file it was
+ * built from and is only used while that checksum still matches.
+ *
+ * Snapshots are read through a read-only memory mapping, so the file itself is loaded straight
+ * from the page cache and shared between every server process on the host. All values are
+ * big-endian. The layout is:
+ * <pre>
+ *     int magic, int version, long sourceChecksum
+ *     int n, int m
+ *     long[n] ids, double[n] lat, double[n] lon, double[n] x, double[n] y
+ *     int[n + 1] offsets, int[m] targets
+ *     int[n] spatial index (KDTree.order)
+ *     int count, count * (long id, double lat, double lon, string name)      named vertices
+ *     int count, count * (long id, int size, long[size] vertices,
+ *                         int tags, tags * (string key, string value))      ways
+ * </pre>
+ * where a string is an int byte length followed by that many bytes of UTF-8.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class GraphSnapshot {
+    /** Marks the start of a snapshot file ("BMGS"). */
+    private static final int MAGIC = 0x424D4753;
+    /** Bumped whenever the layout changes; snapshots of other versions are rebuilt. */
+    static final int VERSION = 2;
+    /** Size of each block read while checksumming the source file. */
+    private static final int CHECKSUM_BLOCK = 1 << 26;
+
+    /**
+     * Computes the CRC-32 of a file by mapping it block by block.
+     * @param source Path to the file.
+     * @return The checksum of the file's contents.
+     * @throws IOException If the file cannot be read.
+     */
+    static long checksum(String source) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(Paths.get(source), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += CHECKSUM_BLOCK) {
+                long len = Math.min(CHECKSUM_BLOCK, size - pos);
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, len));
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Fills in <code>g</code> from a snapshot, if one exists and matches the source checksum.
+     * @param g An empty graph to load into.
+     * @param snapshotPath Path to the snapshot file.
+     * @param sourceChecksum Checksum of the OSM XML file the graph should reflect.
+     * @return True if the graph was loaded, or false if the snapshot is missing, stale or cut
+     * short, in which case <code>g</code> is left untouched.
+     * @throws IOException If the snapshot exists but cannot be read.
+     */
+    static boolean read(GraphDB g, String snapshotPath, long sourceChecksum) throws IOException {
+        Boolean loaded = readFile(snapshotPath, MAGIC, VERSION, sourceChecksum,
+                (buf, stamp) -> readGraph(g, buf) ? Boolean.TRUE : null);
+        return loaded != null;
+    }
+
+    /**
+     * Reads the graph after the header of a snapshot, and fills in <code>g</code> only once all
+     * of it has been read.
+     * @return True if the graph was loaded, or false if the snapshot has bytes left over.
+     */
+    private static boolean readGraph(GraphDB g, ByteBuffer buf) {
+        int n = buf.getInt();
+        int m = buf.getInt();
+        long[] ids = readLongs(buf, n);
+        double[] lat = readDoubles(buf, n);
+        double[] lon = readDoubles(buf, n);
+        double[] x = readDoubles(buf, n);
+        double[] y = readDoubles(buf, n);
+        int[] offsets = readInts(buf, n + 1);
+        int[] targets = readInts(buf, m);
+        int[] order = readInts(buf, n);
+
+        HashMap<Long, LocationParams> locations = new HashMap<>();
+        int count = buf.getInt();
+        for (int i = 0; i < count; i += 1) {
+            long id = buf.getLong();
+            double vlat = buf.getDouble();
+            double vlon = buf.getDouble();
+            locations.put(id, new LocationParams(vlat, vlon, readString(buf), id));
+        }
+
+        HashMap<Long, GraphDB.Path> paths = new HashMap<>();
+        count = buf.getInt();
+        for (int i = 0; i < count; i += 1) {
+            long id = buf.getLong();
+            int size = buf.getInt();
+            ArrayList<Long> vertices = new ArrayList<>(Math.min(size, buf.remaining() / 8));
+            for (int j = 0; j < size; j += 1) {
+                vertices.add(buf.getLong());
+            }
+            int numTags = buf.getInt();
+            HashMap<String, String> tags = new HashMap<>();
+            for (int j = 0; j < numTags; j += 1) {
+                tags.put(readString(buf), readString(buf));
+            }
+            paths.put(id, g.new Path(id, vertices, tags));
+        }
+        if (buf.hasRemaining()) {
+            return false;
+        }
+        CompactGraph csr = new CompactGraph(ids, lat, lon, x, y, offsets, targets);
+        KDTree tree = new KDTree(csr, order);
+        g.csr = csr;
+        g.locations = locations;
+        g.paths.putAll(paths);
+        g.amanda = tree;
+        g.nodes = null;
+        return true;
+    }
+
+    /**
+     * Writes a snapshot of a loaded graph. The file is written under a temporary name and then
+     * moved into place, so concurrent readers never see a partial snapshot.
+     * @param g A cleaned and frozen graph.
+     * @param snapshotPath Path to the snapshot file.
+     * @param sourceChecksum Checksum of the OSM XML file the graph was built from.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    static void write(GraphDB g, String snapshotPath, long sourceChecksum) throws IOException {
+        writeAtomically(snapshotPath, out -> {
+            CompactGraph csr = g.csr;
+            int n = csr.size();
+            writeHeader(out, MAGIC, VERSION, sourceChecksum);
+            out.writeInt(n);
+            out.writeInt(csr.edgeCount());
+            for (long id : csr.ids) {
+                out.writeLong(id);
+            }
+            writeDoubles(out, csr.lat);
+            writeDoubles(out, csr.lon);
+            writeDoubles(out, csr.x);
+            writeDoubles(out, csr.y);
+            writeInts(out, csr.offsets);
+            writeInts(out, csr.targets);
+            writeInts(out, g.amanda.order);
+
+            out.writeInt(g.locations.size());
+            for (LocationParams loc : g.locations.values()) {
+                out.writeLong(loc.id);
+                out.writeDouble(loc.lat);
+                out.writeDouble(loc.lon);
+                writeString(out, loc.name);
+            }
+
+            out.writeInt(g.paths.size());
+            for (GraphDB.Path p : g.paths.values()) {
+                out.writeLong(p.id);
+                out.writeInt(p.vertices.size());
+                for (long v : p.vertices) {
+                    out.writeLong(v);
+                }
+                out.writeInt(p.tags.size());
+                for (Map.Entry<String, String> tag : p.tags.entrySet()) {
+                    writeString(out, tag.getKey());
+                    writeString(out, tag.getValue());
+                }
+            }
+        });
+    }
+
+    /** Writes the contents of a binary file. */
+    interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes a file under a temporary name and then moves it into place, so concurrent readers
+     * never see a partial file. The temporary file is removed if writing fails.
+     * @param path Path to the file.
+     * @param body Writes the file's contents, big-endian.
+     * @throws IOException If the file cannot be written.
+     */
+    static void writeAtomically(String path, Body body) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath();
+        Path tmp = Paths.get(file + "." + ProcessHandle.current().pid() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+            body.write(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps a whole file read-only.
+     * @param path Path to the file.
+     * @return The mapping, or null if there is no such file.
+     * @throws IOException If the file exists but cannot be mapped.
+     */
+    static MappedByteBuffer map(String path) throws IOException {
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Maps a file and checks the header every format here starts with: int magic, int version
+     * and a long that ties it to its source.
+     * @param path Path to the file.
+     * @param magic The format's magic number.
+     * @param version The format's current version.
+     * @param stamp The checksum or fingerprint of the source the file must have been built from.
+     * @return The mapping, positioned after the header, or null if the file is missing or its
+     * header does not match.
+     * @throws IOException If the file exists but cannot be mapped.
+     */
+    static MappedByteBuffer map(String path, int magic, int version, long stamp)
+            throws IOException {
+        MappedByteBuffer buf = map(path);
+        if (buf == null || buf.remaining() < 16 || buf.getInt() != magic
+                || buf.getInt() != version || buf.getLong() != stamp) {
+            return null;
+        }
+        return buf;
+    }
+
+    /** Reads the contents of a binary file that follow its header. */
+    interface Parser<T> {
+        /**
+         * @param buf The file, positioned after its header.
+         * @param stamp The checksum or fingerprint the header was checked against.
+         * @return What the file holds, or null if it is not usable.
+         */
+        T parse(ByteBuffer buf, long stamp);
+    }
+
+    /**
+     * Maps a file, checks its header as <code>map(path, magic, version, stamp)</code> does and
+     * parses the rest. A file cut short, such as one half-copied by hand, or one with bytes left
+     * over counts as stale, so that the caller rebuilds it rather than failing.
+     * @param path Path to the file.
+     * @param magic The format's magic number.
+     * @param version The format's current version.
+     * @param stamp The checksum or fingerprint of the source the file must have been built from.
+     * @param parser Reads the contents after the header.
+     * @return What <code>parser</code> read, or null if the file is missing, stale or truncated.
+     * @throws IOException If the file exists but cannot be mapped.
+     */
+    static <T> T readFile(String path, int magic, int version, long stamp, Parser<T> parser)
+            throws IOException {
+        MappedByteBuffer buf = map(path, magic, version, stamp);
+        if (buf == null) {
+            return null;
+        }
+        try {
+            T result = parser.parse(buf, stamp);
+            return buf.hasRemaining() ? null : result;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a file derived from a graph, whose header is followed by an int vertex count, as
+     * <code>readFile</code> does. The stamp is the graph's fingerprint, and the vertex count has
+     * to match the graph's too.
+     * @param path Path to the file.
+     * @param magic The format's magic number.
+     * @param version The format's current version.
+     * @param g The graph the file should belong to.
+     * @param parser Reads the contents after the vertex count, given the graph's fingerprint.
+     * @return What <code>parser</code> read, or null if the file is missing, was built for
+     * another graph or is truncated.
+     * @throws IOException If the file exists but cannot be mapped.
+     */
+    static <T> T readFile(String path, int magic, int version, CompactGraph g, Parser<T> parser)
+            throws IOException {
+        int n = g.size();
+        return readFile(path, magic, version, g.fingerprint(), (buf, fingerprint) ->
+                buf.getInt() != n ? null : parser.parse(buf, fingerprint));
+    }
+
+    /**
+     * Writes the header that <code>readFile</code> checks.
+     * @param out The file being written.
+     * @param magic The format's magic number.
+     * @param version The format's current version.
+     * @param stamp The checksum or fingerprint of the source the file is built from.
+     * @throws IOException If the header cannot be written.
+     */
+    static void writeHeader(DataOutputStream out, int magic, int version, long stamp)
+            throws IOException {
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeLong(stamp);
+    }
+
+    static long[] readLongs(ByteBuffer buf, int n) {
+        long[] values = new long[n];
+        buf.asLongBuffer().get(values);
+        buf.position(buf.position() + n * Long.BYTES);
+        return values;
+    }
+
+    static double[] readDoubles(ByteBuffer buf, int n) {
+        double[] values = new double[n];
+        buf.asDoubleBuffer().get(values);
+        buf.position(buf.position() + n * Double.BYTES);
+        return values;
+    }
+
+    static float[] readFloats(ByteBuffer buf, int n) {
+        float[] values = new float[n];
+        buf.asFloatBuffer().get(values);
+        buf.position(buf.position() + n * Float.BYTES);
+        return values;
+    }
+
+    static int[] readInts(ByteBuffer buf, int n) {
+        int[] values = new int[n];
+        buf.asIntBuffer().get(values);
+        buf.position(buf.position() + n * Integer.BYTES);
+        return values;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double v : values) {
+            out.writeDouble(v);
+        }
+    }
+
+    static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+        for (float v : values) {
+            out.writeFloat(v);
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int v : values) {
+            out.writeInt(v);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
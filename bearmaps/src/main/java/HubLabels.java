@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A hub-labeling distance oracle derived from a <code>ContractionHierarchy</code>. Every vertex
+ * has a label: a few hubs, each with the exact distance to it, such that for any two vertices the
+ * highest-ranked vertex of a shortest path between them is a hub of both. The distance between
+ * two vertices is then the smallest sum over their common hubs, found by merging the two labels,
+ * with no search at all.
+ *
+ * Labels are built top-down in rank order. A vertex's label is its own entry plus, for each
+ * upward edge, the label of the neighbor it leads to, shifted by the edge weight; this is the
+ * upward search space of the vertex. An entry is then pruned if the labels already show a
+ * shorter way to its hub, since only exact entries are ever needed.
+ *
+ * Hubs are identified by rank, so each label is a run of increasing ints with a parallel run of
+ * float distances, 8 bytes per entry, all in two flat arrays. All file values are big-endian. The
+ * layout is:
+ * <pre>
+ *     int magic, int version, long graphFingerprint
+ *     int n, int entries
+ *     int[n + 1] offsets, int[entries] hubs, float[entries] distances
+ * </pre>
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class HubLabels {
+    /** Marks the start of a label file ("BMHL"). */
+    private static final int MAGIC = 0x424D484C;
+    /** Bumped whenever the layout changes; files of other versions are rebuilt. */
+    static final int VERSION = 1;
+
+    /** Start of each vertex's label in hubs and distances; has n + 1 entries. */
+    final int[] offsets;
+    /** The rank of each hub, increasing within each label. */
+    final int[] hubs;
+    /** The distance from the vertex to each hub in miles. */
+    final float[] distances;
+    /** Fingerprint of the graph the labels were computed over. */
+    final long fingerprint;
+
+    HubLabels(int[] offsets, int[] hubs, float[] distances, long fingerprint) {
+        this.offsets = offsets;
+        this.hubs = hubs;
+        this.distances = distances;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Computes the labels of every vertex from a hierarchy over the distance metric.
+     * @param ch The contraction hierarchy.
+     * @return The labels.
+     */
+    public static HubLabels build(ContractionHierarchy ch) {
+        int n = ch.size();
+        int[] byRank = new int[n];
+        for (int v = 0; v < n; v += 1) {
+            byRank[ch.rank[v]] = v;
+        }
+        int[][] labelHubs = new int[n][];
+        float[][] labelDistances = new float[n][];
+        /* Scratch space: the best distance found to each hub, by rank, and the hubs reached. */
+        double[] best = new double[n];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        IntList reached = new IntList();
+        double[] tentative = new double[16];
+        for (int r = n - 1; r >= 0; r -= 1) {
+            int v = byRank[r];
+            reached.clear();
+            best[r] = 0;
+            reached.add(r);
+            for (int k = ch.offsets[v]; k < ch.offsets[v + 1]; k += 1) {
+                int u = ch.targets[k];
+                int[] uHubs = labelHubs[u];
+                float[] uDistances = labelDistances[u];
+                for (int i = 0; i < uHubs.length; i += 1) {
+                    double d = ch.weights[k] + uDistances[i];
+                    if (d < best[uHubs[i]]) {
+                        if (best[uHubs[i]] == Double.POSITIVE_INFINITY) {
+                            reached.add(uHubs[i]);
+                        }
+                        best[uHubs[i]] = d;
+                    }
+                }
+            }
+            int[] candidates = reached.toArray();
+            Arrays.sort(candidates);
+            if (tentative.length < candidates.length) {
+                tentative = new double[2 * candidates.length];
+            }
+            for (int i = 0; i < candidates.length; i += 1) {
+                tentative[i] = best[candidates[i]];
+                best[candidates[i]] = Double.POSITIVE_INFINITY;
+            }
+            IntList kept = new IntList(candidates.length);
+            for (int i = 0; i < candidates.length; i += 1) {
+                int h = candidates[i];
+                if (h == r || !shorter(candidates, tentative, labelHubs[byRank[h]],
+                        labelDistances[byRank[h]], tentative[i])) {
+                    kept.add(i);
+                }
+            }
+            labelHubs[v] = new int[kept.size()];
+            labelDistances[v] = new float[kept.size()];
+            for (int j = 0; j < kept.size(); j += 1) {
+                labelHubs[v][j] = candidates[kept.get(j)];
+                labelDistances[v][j] = (float) tentative[kept.get(j)];
+            }
+        }
+
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            offsets[v + 1] = offsets[v] + labelHubs[v].length;
+        }
+        int[] hubs = new int[offsets[n]];
+        float[] distances = new float[offsets[n]];
+        for (int v = 0; v < n; v += 1) {
+            System.arraycopy(labelHubs[v], 0, hubs, offsets[v], labelHubs[v].length);
+            System.arraycopy(labelDistances[v], 0, distances, offsets[v], labelHubs[v].length);
+        }
+        return new HubLabels(offsets, hubs, distances, ch.fingerprint);
+    }
+
+    /**
+     * Returns whether a tentative label and a finished one share a hub through which the
+     * distance between their vertices is less than <code>limit</code>.
+     */
+    private static boolean shorter(int[] aHubs, double[] aDistances, int[] bHubs,
+                                   float[] bDistances, double limit) {
+        int i = 0;
+        int j = 0;
+        while (i < aHubs.length && j < bHubs.length) {
+            if (aHubs[i] < bHubs[j]) {
+                i += 1;
+            } else if (aHubs[i] > bHubs[j]) {
+                j += 1;
+            } else {
+                if (aDistances[i] + bDistances[j] < limit) {
+                    return true;
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the length of the shortest path between two vertices by merging their labels.
+     * Safe to call from any number of threads.
+     * @param s The index of one vertex.
+     * @param t The index of the other.
+     * @return The distance in miles, or infinity if there is no path.
+     */
+    public double distance(int s, int t) {
+        int i = offsets[s];
+        int iEnd = offsets[s + 1];
+        int j = offsets[t];
+        int jEnd = offsets[t + 1];
+        double best = Double.POSITIVE_INFINITY;
+        while (i < iEnd && j < jEnd) {
+            int a = hubs[i];
+            int b = hubs[j];
+            if (a == b) {
+                best = Math.min(best, (double) distances[i] + distances[j]);
+            }
+            /* Advance without branching on which hub is smaller, which is unpredictable. */
+            i += a <= b ? 1 : 0;
+            j += a >= b ? 1 : 0;
+        }
+        return best;
+    }
+
+    /** Returns the number of vertices labeled. */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /** Returns the total number of label entries. */
+    public int entryCount() {
+        return hubs.length;
+    }
+
+    /** Returns the size of the largest label. */
+    public int maxLabelSize() {
+        int max = 0;
+        for (int v = 0; v < size(); v += 1) {
+            max = Math.max(max, offsets[v + 1] - offsets[v]);
+        }
+        return max;
+    }
+
+    /** Returns the memory taken by the labels, in bytes. */
+    public long estimatedBytes() {
+        return (long) offsets.length * Integer.BYTES
+                + (long) hubs.length * (Integer.BYTES + Float.BYTES);
+    }
+
+    /**
+     * Reads labels written by <code>write</code>.
+     * @param path Path to the label file.
+     * @param g The graph the labels should belong to.
+     * @return The labels, or null if the file is missing, was built for another graph or is cut
+     * short.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    static HubLabels read(String path, CompactGraph g) throws IOException {
+        return GraphSnapshot.readFile(path, MAGIC, VERSION, g, (buf, fingerprint) -> {
+            int entries = buf.getInt();
+            int[] offsets = GraphSnapshot.readInts(buf, g.size() + 1);
+            int[] hubs = GraphSnapshot.readInts(buf, entries);
+            float[] distances = GraphSnapshot.readFloats(buf, entries);
+            return new HubLabels(offsets, hubs, distances, fingerprint);
+        });
+    }
+
+    /**
+     * Writes the labels with <code>GraphSnapshot.writeAtomically</code>.
+     * @param path Path to the label file.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(String path) throws IOException {
+        GraphSnapshot.writeAtomically(path, out -> {
+            GraphSnapshot.writeHeader(out, MAGIC, VERSION, fingerprint);
+            out.writeInt(size());
+            out.writeInt(entryCount());
+            GraphSnapshot.writeInts(out, offsets);
+            GraphSnapshot.writeInts(out, hubs);
+            GraphSnapshot.writeFloats(out, distances);
+        });
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+
+/**
+ * A 4-ary min-heap of vertex indices 0..n-1 keyed by doubles, with decrease-key. Each vertex's
+ * key and heap position live in arrays indexed by the vertex, so nothing is allocated after
+ * construction. A 4-ary heap is shallower than a binary one and its children share a cache line,
+ * which makes the sift-downs of <code>poll</code> cheaper.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class IndexedHeap {
+    private final int[] heap;
+    private final double[] keys;
+    /** Position of each vertex in <code>heap</code>, or -1 if it is not in the heap. */
+    private final int[] pos;
+    private int size;
+
+    /**
+     * Creates an empty heap for the vertex indices 0..n-1.
+     * @param n The number of vertices.
+     */
+    public IndexedHeap(int n) {
+        heap = new int[n];
+        keys = new double[n];
+        pos = new int[n];
+        Arrays.fill(pos, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns whether v is in the heap. */
+    public boolean contains(int v) {
+        return pos[v] >= 0;
+    }
+
+    /** Returns the smallest key in the heap. The heap must not be empty. */
+    public double minKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Adds v with the given key, or lowers its key if v is already in the heap with a larger one.
+     * @param v The vertex index.
+     * @param key Its new key.
+     */
+    public void offer(int v, double key) {
+        int i = pos[v];
+        if (i < 0) {
+            i = size;
+            size += 1;
+            heap[i] = v;
+            pos[v] = i;
+        } else if (key >= keys[v]) {
+            return;
+        }
+        keys[v] = key;
+        siftUp(i);
+    }
+
+    /** Removes and returns the vertex with the smallest key. The heap must not be empty. */
+    public int poll() {
+        int top = heap[0];
+        pos[top] = -1;
+        size -= 1;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            pos[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /** Removes every vertex, in time proportional to the number of vertices in the heap. */
+    public void clear() {
+        for (int i = 0; i < size; i += 1) {
+            pos[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (i > 0) {
+            int parent = (i - 1) >>> 2;
+            int p = heap[parent];
+            if (keys[p] <= key) {
+                break;
+            }
+            heap[i] = p;
+            pos[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double key = keys[v];
+        while (true) {
+            int first = 4 * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + 4, size);
+            int best = first;
+            for (int c = first + 1; c < last; c += 1) {
+                if (keys[heap[c]] < keys[heap[best]]) {
+                    best = c;
+                }
+            }
+            int b = heap[best];
+            if (keys[b] >= key) {
+                break;
+            }
+            heap[i] = b;
+            pos[b] = i;
+            i = best;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+}
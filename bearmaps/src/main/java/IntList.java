@@ -0,0 +1,48 @@
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, for building index arrays without boxing.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class IntList {
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty list with room for <code>capacity</code> values before it grows.
+     * @param capacity The initial capacity.
+     */
+    public IntList(int capacity) {
+        values = new int[Math.max(1, capacity)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size] = value;
+        size += 1;
+    }
+
+    public int get(int i) {
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /** Returns a copy of the values, trimmed to the size of the list. */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * The vertices reachable from a starting point within each of several distance budgets, found by
+ * one Dijkstra sweep that stops at the largest budget. Vertices are settled in order of distance,
+ * so they are kept in that order and the vertices within a smaller budget are simply a prefix of
+ * the list: the whole result is one int array and a count per budget.
+ *
+ * The sweep is a <code>Dijkstra.search</code> with a caller-owned <code>SearchContext</code>,
+ * so even a budget covering the whole graph allocates nothing per vertex visited beyond its
+ * entry in the result.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class Isochrone {
+    /** Default number of angular sectors for <code>hull</code>, 5 degrees each. */
+    static final int HULL_SECTORS = 72;
+
+    /** The budgets in miles, in increasing order. */
+    final double[] budgets;
+    /** Every vertex within the largest budget, nearest first. */
+    final int[] vertices;
+    /** The number of vertices within each budget; a prefix of vertices. */
+    final int[] counts;
+
+    private Isochrone(double[] budgets, int[] vertices, int[] counts) {
+        this.budgets = budgets;
+        this.vertices = vertices;
+        this.counts = counts;
+    }
+
+    /**
+     * Finds the vertices within each budget of the sources.
+     * @param g The graph to search.
+     * @param ctx Working state sized for <code>g</code>, reset by this call.
+     * @param sources Indices of the vertices to start from.
+     * @param sourceCosts The distance already covered on reaching each source.
+     * @param budgets The distance budgets in miles, in any order; none may be negative.
+     * @return The reachable vertices, with the budgets sorted.
+     */
+    static Isochrone compute(CompactGraph g, SearchContext ctx, int[] sources,
+                             double[] sourceCosts, double[] budgets) {
+        double[] sorted = budgets.clone();
+        Arrays.sort(sorted);
+        int[] counts = new int[sorted.length];
+        IntList settled = new IntList();
+        if (sorted.length == 0) {
+            return new Isochrone(sorted, settled.toArray(), counts);
+        }
+        int[] band = {0};
+        Dijkstra.search(g, ctx, sources, sourceCosts, sorted[sorted.length - 1], (v, d) -> {
+            while (d > sorted[band[0]]) {
+                counts[band[0]] = settled.size();
+                band[0] += 1;
+            }
+            settled.add(v);
+            return true;
+        });
+        for (int i = band[0]; i < sorted.length; i += 1) {
+            counts[i] = settled.size();
+        }
+        return new Isochrone(sorted, settled.toArray(), counts);
+    }
+
+    /**
+     * Returns the vertices within one budget.
+     * @param band The index of the budget in increasing order.
+     * @return Their indices, nearest first.
+     */
+    int[] within(int band) {
+        return Arrays.copyOf(vertices, counts[band]);
+    }
+
+    /**
+     * Returns a concave outline of the vertices within one budget: the farthest of them in each
+     * of a number of equal angular sectors around the nearest one, in order of angle.
+     * The polygon is star-shaped about the start, so it follows an area reachable from there
+     * into its inlets, unlike a convex hull, and takes one pass over the vertices to find.
+     * @param g The graph that was searched.
+     * @param band The index of the budget in increasing order.
+     * @param sectors The number of sectors; more give a finer outline.
+     * @return The corners as {lon, lat} pairs, at most one per sector, or none if no vertex is
+     * within the budget.
+     */
+    double[][] hull(CompactGraph g, int band, int sectors) {
+        int count = counts[band];
+        if (count == 0) {
+            return new double[0][];
+        }
+        int center = vertices[0];
+        int[] farthest = new int[sectors];
+        double[] reach = new double[sectors];
+        Arrays.fill(farthest, -1);
+        for (int i = 1; i < count; i += 1) {
+            int v = vertices[i];
+            double dx = g.x[v] - g.x[center];
+            double dy = g.y[v] - g.y[center];
+            double angle = Math.atan2(dy, dx) + Math.PI;
+            int s = Math.min(sectors - 1, (int) (angle / (2 * Math.PI) * sectors));
+            double r = dx * dx + dy * dy;
+            if (farthest[s] < 0 || r > reach[s]) {
+                farthest[s] = v;
+                reach[s] = r;
+            }
+        }
+        IntList corners = new IntList();
+        for (int s = 0; s < sectors; s += 1) {
+            if (farthest[s] >= 0) {
+                corners.add(farthest[s]);
+            }
+        }
+        if (corners.size() == 0) {
+            corners.add(center);
+        }
+        double[][] result = new double[corners.size()][];
+        for (int i = 0; i < corners.size(); i += 1) {
+            int v = corners.get(i);
+            result[i] = new double[]{g.lon[v], g.lat[v]};
+        }
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.Map;
+
+/**
+ * The IsochroneRequestParams contains the fields received from the browser in a reachability
+ * request: a starting point, one or more distance budgets listed in a single comma-separated
+ * parameter, such as <code>miles=0.5,1,2</code>, and whether to outline each area.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class IsochroneRequestParams {
+    /** The most budgets a single request may list. */
+    static final int MAX_BUDGETS = 8;
+
+    /** The starting point longitude. */
+    public final double lon;
+    /** The starting point latitude. */
+    public final double lat;
+    /** The distance budgets in miles, as listed. */
+    public final double[] miles;
+    /** Whether to return an outline of the area within each budget. */
+    public final boolean hull;
+
+    private IsochroneRequestParams(double lon, double lat, double[] miles, boolean hull) {
+        this.lon = lon;
+        this.lat = lat;
+        this.miles = miles;
+        this.hull = hull;
+    }
+
+    /**
+     * Validate and return the fields of a reachability request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed request.
+     * @throws IllegalArgumentException If a field is missing or malformed, or a budget is
+     * negative.
+     */
+    public static IsochroneRequestParams from(Map<String, String[]> req) {
+        double lon = parse(value(req, "lon"), "lon");
+        double lat = parse(value(req, "lat"), "lat");
+        String[] listed = value(req, "miles").split(",");
+        if (listed.length > MAX_BUDGETS) {
+            String msg = String.format("Request failed: more than %d budgets.", MAX_BUDGETS);
+            throw new IllegalArgumentException(msg);
+        }
+        double[] miles = new double[listed.length];
+        for (int i = 0; i < listed.length; i += 1) {
+            miles[i] = parse(listed[i].trim(), "miles");
+            if (miles[i] < 0 || Double.isInfinite(miles[i])) {
+                throw new IllegalArgumentException("Incorrect parameters: unusable miles.");
+            }
+        }
+        boolean hull = req.containsKey("hull") && req.get("hull").length > 0
+                && Boolean.parseBoolean(req.get("hull")[0]);
+        return new IsochroneRequestParams(lon, lat, miles, hull);
+    }
+
+    private static String value(Map<String, String[]> req, String param) {
+        if (!req.containsKey(param) || req.get(param).length == 0) {
+            String msg = String.format("Request failed: %s not found.", param);
+            throw new IllegalArgumentException(msg);
+        }
+        return req.get(param)[0];
+    }
+
+    private static double parse(String value, String param) {
+        try {
+            double parsed = Double.parseDouble(value);
+            if (Double.isNaN(parsed)) {
+                throw new NumberFormatException(value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            String msg = String.format("Incorrect parameters: unable to parse %s.", param);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+}
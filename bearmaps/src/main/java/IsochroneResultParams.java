@@ -0,0 +1,40 @@
+/**
+ * The IsochroneResultParams contains the vertices found by Router.isochrone, for serialization
+ * by Gson. The vertex IDs are listed once, nearest first, and the area within each budget is the
+ * prefix of that list given by its count, so nested areas share one list.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+class IsochroneResultParams {
+    /** The budgets in miles, in increasing order. */
+    private final double[] miles;
+    /** The number of vertices within each budget. */
+    private final int[] counts;
+    /** The IDs of every vertex within the largest budget, nearest first. */
+    private final long[] ids;
+    /** For each budget, the corners of its outline as {lon, lat} pairs; absent if not asked. */
+    private final double[][][] hulls;
+
+    /**
+     * Collects the result of a reachability request.
+     * @param g The graph that was searched.
+     * @param isochrone The vertices found.
+     * @param hull Whether to outline the area within each budget.
+     */
+    IsochroneResultParams(CompactGraph g, Isochrone isochrone, boolean hull) {
+        this.miles = isochrone.budgets;
+        this.counts = isochrone.counts;
+        this.ids = new long[isochrone.vertices.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            ids[i] = g.id(isochrone.vertices[i]);
+        }
+        if (hull) {
+            hulls = new double[miles.length][][];
+            for (int b = 0; b < miles.length; b += 1) {
+                hulls[b] = isochrone.hull(g, b, Isochrone.HULL_SECTORS);
+            }
+        } else {
+            hulls = null;
+        }
+    }
+}
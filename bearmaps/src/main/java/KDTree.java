@@ -1,167 +1,420 @@
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * This class provides a k-dimensional tree that improves the efficiency of finding nearest adjacent nodes.
+ *
+ * The tree is bulk-built over the projected coordinates of a <code>CompactGraph</code> by
+ * repeated median splits, alternating between x and y, so it is balanced regardless of the order
+ * vertices were loaded in. It has no node objects: the vertex indices are permuted so that every
+ * subtree covers a contiguous range of <code>order</code>. The subtree over [lo, hi) has its
+ * splitting vertex at mid = (lo + hi) / 2, its left subtree over [lo, mid) and its right subtree
+ * over [mid + 1, hi). Ranges of at most <code>BUCKET_SIZE</code> vertices are leaves, scanned
+ * linearly.
+ *
+ * A built tree is never modified, and queries keep all of their state in local variables on the
+ * call stack, so any number of threads may query one tree at once without locking.
+ *
  * @author: Huiyi Zhang, Yanqian Wu
  */
-
 public class KDTree {
+    /** Largest range that is stored as a leaf bucket instead of being split further. */
+    private static final int BUCKET_SIZE = 8;
 
-    Node root;
-    Node currBest;
+    /** Vertex indices in tree order. */
+    final int[] order;
+    /** Projected coordinates of order[i], copied so that searches scan them sequentially. */
+    private final double[] xs, ys;
 
-    public double disHelper(GraphDB.Vertex vertex1, GraphDB.Vertex vertex2) {
-        return Math.sqrt(Math.pow(vertex1.x - vertex2.x, 2) + Math.pow(vertex1.y - vertex2.y, 2));
+    /**
+     * Bulk-builds a balanced tree over every vertex of <code>csr</code> in O(n log n).
+     * @param csr The graph whose vertices to index.
+     */
+    public KDTree(CompactGraph csr) {
+        int n = csr.size();
+        this.order = new int[n];
+        this.xs = new double[n];
+        this.ys = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+            xs[i] = csr.x[i];
+            ys[i] = csr.y[i];
+        }
+        build(0, n, true);
     }
 
-    public Node closestHelper(Node currNode, GraphDB.Vertex target, int depth) {
-        if (depth % 2 == 0) {
-            if (target.x < currNode.item.x) {
-                if (currNode.left != null) {
-                    currBest = closestHelper(currNode.left, target, depth + 1);
-                } else {
-                    currBest = currNode;
-                }
-                if (disHelper(currBest.item, target) > disHelper(currNode.item, target)) {
-                    currBest = currNode;
-                }
-                if (disHelper(currBest.item, target) > Math.abs(target.x - currNode.item.x)
-                        && currNode.right != null) {
-                    Node temp = currBest;
-                    closestHelper(currNode.right, target, depth + 1);
-                    if (disHelper(currBest.item, target) > disHelper(temp.item, target)) {
-                        currBest = temp;
-                    }
+    /**
+     * Rebuilds a tree from an <code>order</code> array produced by the bulk-building constructor,
+     * without comparing any coordinates.
+     * @param csr The graph the tree was built over.
+     * @param order The vertex indices in tree order.
+     */
+    KDTree(CompactGraph csr, int[] order) {
+        this.order = order;
+        this.xs = new double[order.length];
+        this.ys = new double[order.length];
+        for (int i = 0; i < order.length; i += 1) {
+            xs[i] = csr.x[order[i]];
+            ys[i] = csr.y[order[i]];
+        }
+    }
+
+    /**
+     * Bulk-builds a balanced tree over some of the vertices of <code>csr</code>, so that
+     * searches only ever return one of them.
+     * @param csr The graph whose vertices to index.
+     * @param vertices The indices of the vertices to index; not modified.
+     * @return The tree.
+     */
+    static KDTree over(CompactGraph csr, int[] vertices) {
+        KDTree t = new KDTree(csr, vertices.clone());
+        t.build(0, vertices.length, true);
+        return t;
+    }
+
+    /** Returns the number of vertices in the tree. */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Returns the index of the vertex closest to the projected point (x, y). Distances are
+     * compared squared, and nothing is allocated.
+     * @param x The projected x-coordinate of the query point.
+     * @param y The projected y-coordinate of the query point.
+     * @return The vertex index of the nearest vertex, or -1 if the tree is empty.
+     */
+    public int nearest(double x, double y) {
+        if (order.length == 0) {
+            return -1;
+        }
+        return order[nearestHelper(0, order.length, true, x, y, -1)];
+    }
+
+    /**
+     * Searches the subtree over [lo, hi) for a position closer to (x, y) than <code>best</code>.
+     * @return The position in tree order of the closest vertex seen so far.
+     */
+    private int nearestHelper(int lo, int hi, boolean splitX, double x, double y, int best) {
+        if (hi - lo <= BUCKET_SIZE) {
+            for (int i = lo; i < hi; i += 1) {
+                if (best < 0 || distSq(i, x, y) < distSq(best, x, y)) {
+                    best = i;
                 }
+            }
+            return best;
+        }
+        int mid = (lo + hi) >>> 1;
+        double diff = splitX ? x - xs[mid] : y - ys[mid];
+        if (diff < 0) {
+            best = nearestHelper(lo, mid, !splitX, x, y, best);
+        } else {
+            best = nearestHelper(mid + 1, hi, !splitX, x, y, best);
+        }
+        if (distSq(mid, x, y) < distSq(best, x, y)) {
+            best = mid;
+        }
+        if (diff * diff < distSq(best, x, y)) {
+            if (diff < 0) {
+                best = nearestHelper(mid + 1, hi, !splitX, x, y, best);
             } else {
-                if (currNode.right != null) {
-                    currBest = closestHelper(currNode.right, target, depth + 1);
-                } else {
-                    currBest = currNode;
-                }
-                if (disHelper(currBest.item, target) > disHelper(currNode.item, target)) {
-                    currBest = currNode;
-                }
-                if (disHelper(currBest.item, target) > Math.abs(target.x - currNode.item.x)
-                        && currNode.left != null) {
-                    Node temp = currBest;
-                    closestHelper(currNode.left, target, depth + 1);
-                    if (disHelper(currBest.item, target) > disHelper(temp.item, target)) {
-                        currBest = temp;
-                    }
-                }
+                best = nearestHelper(lo, mid, !splitX, x, y, best);
             }
-        } else if (depth % 2 == 1) {
-            if (target.y < currNode.item.y) {
-                if (currNode.left == null) {
-                    currBest = currNode;
-                } else {
-                    currBest = closestHelper(currNode.left, target, depth + 1);
-                }
-                if (disHelper(currBest.item, target) > disHelper(currNode.item, target)) {
-                    currBest = currNode;
-                }
-                if (disHelper(currBest.item, target) > Math.abs(target.y - currNode.item.y)
-                        && currNode.right != null) {
-                    Node temp = currBest;
-                    closestHelper(currNode.right, target, depth + 1);
-                    if (disHelper(currBest.item, target) > disHelper(temp.item, target)) {
-                        currBest = temp;
-                    }
-                }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the indices of the <code>k</code> vertices closest to the projected point (x, y),
+     * nearest first. Subtrees are pruned against the farthest of the best k found so far, which
+     * is kept at the top of a bounded max-heap.
+     * @param x The projected x-coordinate of the query point.
+     * @param y The projected y-coordinate of the query point.
+     * @param k The number of vertices to return.
+     * @return The vertex indices of the min(k, size()) nearest vertices, nearest first.
+     */
+    public int[] kNearest(double x, double y, int k) {
+        return kNearest(x, y, new MaxHeap(Math.max(0, Math.min(k, order.length))));
+    }
+
+    /**
+     * Answers many k-nearest queries in one call. The query points are visited in Z-order, so
+     * consecutive queries walk mostly the same tree paths while they are still in cache, and one
+     * heap is reused for all of them.
+     * @param xs The projected x-coordinates of the query points.
+     * @param ys The projected y-coordinates of the query points.
+     * @param k The number of vertices to return per query.
+     * @return For each query point, in input order, the result of kNearest.
+     */
+    public int[][] kNearest(double[] xs, double[] ys, int k) {
+        int[][] results = new int[xs.length][];
+        MaxHeap heap = new MaxHeap(Math.max(0, Math.min(k, order.length)));
+        for (int q : zOrder(xs, ys)) {
+            results[q] = kNearest(xs[q], ys[q], heap);
+        }
+        return results;
+    }
+
+    private int[] kNearest(double x, double y, MaxHeap heap) {
+        heap.size = 0;
+        if (heap.capacity() > 0) {
+            kNearestHelper(0, order.length, true, x, y, heap);
+        }
+        int[] result = new int[heap.size];
+        for (int i = result.length - 1; i >= 0; i -= 1) {
+            result[i] = order[heap.pos[0]];
+            heap.pop();
+        }
+        return result;
+    }
+
+    private void kNearestHelper(int lo, int hi, boolean splitX, double x, double y,
+                                MaxHeap heap) {
+        if (hi - lo <= BUCKET_SIZE) {
+            for (int i = lo; i < hi; i += 1) {
+                heap.offer(i, distSq(i, x, y));
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double diff = splitX ? x - xs[mid] : y - ys[mid];
+        if (diff < 0) {
+            kNearestHelper(lo, mid, !splitX, x, y, heap);
+        } else {
+            kNearestHelper(mid + 1, hi, !splitX, x, y, heap);
+        }
+        heap.offer(mid, distSq(mid, x, y));
+        if (!heap.isFull() || diff * diff < heap.dist[0]) {
+            if (diff < 0) {
+                kNearestHelper(mid + 1, hi, !splitX, x, y, heap);
             } else {
-                if (currNode.right == null) {
-                    currBest = currNode;
-                } else {
-                    currBest = closestHelper(currNode.right, target, depth + 1);
-                }
-                if (disHelper(currBest.item, target) > disHelper(currNode.item, target)) {
-                    currBest = currNode;
-                }
-                if (disHelper(currBest.item, target) > Math.abs(target.y - currNode.item.y)
-                        && currNode.left != null) {
-                    Node temp = currBest;
-                    closestHelper(currNode.left, target, depth + 1);
-                    if (disHelper(currBest.item, target) > disHelper(temp.item, target)) {
-                        currBest = temp;
-                    }
-                }
+                kNearestHelper(lo, mid, !splitX, x, y, heap);
             }
         }
-        return currBest;
     }
 
-    public KDTree(List<GraphDB.Vertex> vertices) {
-        for (int i = vertices.size() - 1; i >= 0; i--) {
-            add(vertices.get(i));
+    /**
+     * Returns the indices of every vertex within projected distance <code>r</code> of (x, y),
+     * in no particular order.
+     * @param x The projected x-coordinate of the query point.
+     * @param y The projected y-coordinate of the query point.
+     * @param r The search radius, in projected units.
+     * @return The vertex indices of the vertices in range.
+     */
+    public int[] withinRadius(double x, double y, double r) {
+        Hits hits = new Hits();
+        if (order.length > 0) {
+            radiusHelper(0, order.length, true, x, y, r * r, hits);
         }
-        this.currBest = new Node();
+        return Arrays.copyOf(hits.items, hits.size);
     }
 
-    public void add(GraphDB.Vertex v) {
-        if (root == null) {
-            root = new Node(v, null, null);
+    private void radiusHelper(int lo, int hi, boolean splitX, double x, double y, double r2,
+                              Hits hits) {
+        if (hi - lo <= BUCKET_SIZE) {
+            for (int i = lo; i < hi; i += 1) {
+                if (distSq(i, x, y) <= r2) {
+                    hits.add(order[i]);
+                }
+            }
             return;
         }
-        root.addHelper(v, 0);
+        int mid = (lo + hi) >>> 1;
+        double diff = splitX ? x - xs[mid] : y - ys[mid];
+        if (distSq(mid, x, y) <= r2) {
+            hits.add(order[mid]);
+        }
+        if (diff < 0 || diff * diff <= r2) {
+            radiusHelper(lo, mid, !splitX, x, y, r2, hits);
+        }
+        if (diff >= 0 || diff * diff <= r2) {
+            radiusHelper(mid + 1, hi, !splitX, x, y, r2, hits);
+        }
     }
 
-    class Node {
-        GraphDB.Vertex item;
-        private Node left;
-        private Node right;
+    /** Returns the positions 0..n-1 of the query points sorted by their Z-order (Morton) code. */
+    private static int[] zOrder(double[] xs, double[] ys) {
+        int n = xs.length;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i += 1) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double scaleX = maxX > minX ? 65535 / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? 65535 / (maxY - minY) : 0;
+        /* The 32-bit code goes in the high half so that sorting the longs sorts the positions. */
+        long[] keyed = new long[n];
+        for (int i = 0; i < n; i += 1) {
+            long code = interleave((int) ((xs[i] - minX) * scaleX),
+                    (int) ((ys[i] - minY) * scaleY));
+            keyed[i] = code << 32 | i;
+        }
+        Arrays.sort(keyed);
+        int[] queries = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            queries[i] = (int) keyed[i];
+        }
+        return queries;
+    }
 
-        Node() {
-            this.item = null;
-            this.left = null;
-            this.right = null;
+    /** Interleaves the low 16 bits of a and b, with a in the even bits. */
+    private static long interleave(int a, int b) {
+        long code = 0;
+        for (int bit = 0; bit < 16; bit += 1) {
+            code |= (long) ((a >> bit) & 1) << (2 * bit);
+            code |= (long) ((b >> bit) & 1) << (2 * bit + 1);
         }
+        return code;
+    }
 
-        Node(GraphDB.Vertex item, Node left, Node right) {
-            this.item = item;
-            this.left = left;
-            this.right = right;
+    /** A bounded max-heap of tree positions keyed by squared distance. */
+    private static class MaxHeap {
+        final int[] pos;
+        final double[] dist;
+        int size;
+
+        MaxHeap(int capacity) {
+            pos = new int[capacity];
+            dist = new double[capacity];
         }
 
-        public void addHelper(GraphDB.Vertex v, int depth) {
-            if (item == null) {
-                item = v;
-                return;
+        int capacity() {
+            return pos.length;
+        }
+
+        boolean isFull() {
+            return size == pos.length;
+        }
+
+        /** Adds (p, d) if the heap has room or d beats the current farthest entry. */
+        void offer(int p, double d) {
+            if (size < pos.length) {
+                int i = size;
+                size += 1;
+                while (i > 0 && dist[(i - 1) / 2] < d) {
+                    pos[i] = pos[(i - 1) / 2];
+                    dist[i] = dist[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                pos[i] = p;
+                dist[i] = d;
+            } else if (size > 0 && d < dist[0]) {
+                siftDown(p, d);
             }
-            double targetX = GraphDB.projectToX(v.getLon(), v.getLat());
-            double targetY = GraphDB.projectToY(v.getLon(), v.getLat());
-            double itemX = GraphDB.projectToX(item.getLon(), item.getLat());
-            double itemY = GraphDB.projectToY(item.getLon(), item.getLat());
-            if (depth % 2 == 0) {
-                if (targetX < itemX) {
-                    if (left != null) {
-                        left.addHelper(v, depth + 1);
-                    } else {
-                        left = new Node(v, null, null);
-                    }
-                } else {
-                    if (right != null) {
-                        right.addHelper(v, depth + 1);
-                    } else {
-                        right = new Node(v, null, null);
-                    }
+        }
+
+        /** Removes the farthest entry. */
+        void pop() {
+            size -= 1;
+            if (size > 0) {
+                siftDown(pos[size], dist[size]);
+            }
+        }
+
+        /** Places (p, d) at the root and restores the heap order below it. */
+        private void siftDown(int p, double d) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
                 }
-            } else {
-                if (targetY < itemY) {
-                    if (left != null) {
-                        left.addHelper(v, depth + 1);
-                    } else {
-                        left = new Node(v, null, null);
-                    }
+                if (child + 1 < size && dist[child + 1] > dist[child]) {
+                    child += 1;
+                }
+                if (dist[child] <= d) {
+                    break;
+                }
+                pos[i] = pos[child];
+                dist[i] = dist[child];
+                i = child;
+            }
+            pos[i] = p;
+            dist[i] = d;
+        }
+    }
+
+    /** A growable list of vertex indices. */
+    private static class Hits {
+        int[] items = new int[16];
+        int size;
+
+        void add(int v) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = v;
+            size += 1;
+        }
+    }
+
+    /** Returns the squared distance from the vertex at tree position i to (x, y). */
+    private double distSq(int i, double x, double y) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /** Splits [lo, hi) around its median on the current axis, then recurses into both halves. */
+    private void build(int lo, int hi, boolean splitX) {
+        if (hi - lo <= BUCKET_SIZE) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi, mid, splitX ? xs : ys);
+        build(lo, mid, !splitX);
+        build(mid + 1, hi, !splitX);
+    }
+
+    /**
+     * Rearranges [lo, hi) so that position k holds the element that would be there if the range
+     * were sorted by <code>key</code>, with no larger keys before it and no smaller keys after.
+     * Uses quickselect with a three-way partition, so runs of equal coordinates stay linear.
+     */
+    private void select(int lo, int hi, int k, double[] key) {
+        hi -= 1;
+        while (lo < hi) {
+            double pivot = medianOfThree(key[lo], key[(lo + hi) >>> 1], key[hi]);
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                if (key[i] < pivot) {
+                    swap(i, lt);
+                    lt += 1;
+                    i += 1;
+                } else if (key[i] > pivot) {
+                    swap(i, gt);
+                    gt -= 1;
                 } else {
-                    if (right != null) {
-                        right.addHelper(v, depth + 1);
-                    } else {
-                        right = new Node(v, null, null);
-                    }
+                    i += 1;
                 }
             }
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return;
+            }
         }
     }
-}
 
+    private static double medianOfThree(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private void swap(int i, int j) {
+        int o = order[i];
+        order[i] = order[j];
+        order[j] = o;
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+    }
+}
@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Landmark distance tables for the ALT (A*, landmarks, triangle inequality) heuristic. For a
+ * landmark L, the triangle inequality gives |d(L, t) - d(L, v)| as a lower bound on d(v, t), and
+ * the best bound over a handful of well-spread landmarks is usually far tighter than great-circle
+ * distance wherever water or hills force roads to detour. Road edges are undirected, so one
+ * table per landmark serves as both its forward and its backward distances.
+ *
+ * Distances are stored as floats, vertex-major, so that the bounds for one vertex sit together
+ * in memory. Each stored distance is off by at most a relative <code>ROUNDING</code>, so every
+ * bound is lowered by that fraction of the two distances it is taken from, which keeps the
+ * heuristic admissible however long the distances are.
+ *
+ * Tables are persisted next to the graph and tied to it by <code>CompactGraph.fingerprint</code>.
+ * All values are big-endian. The layout is:
+ * <pre>
+ *     int magic, int version, long graphFingerprint
+ *     int n, int k
+ *     int[k] landmarks, float[n * k] distances
+ * </pre>
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class Landmarks {
+    /** Marks the start of a landmark file ("BMLM"). */
+    private static final int MAGIC = 0x424D4C4D;
+    /** Bumped whenever the layout changes; files of other versions are rebuilt. */
+    static final int VERSION = 1;
+    /**
+     * Relative error allowed for a distance rounded to float, which is well above the 2^-24 that
+     * rounding itself can introduce.
+     */
+    private static final double ROUNDING = 1e-6;
+    /** Seed for the random choices made while selecting landmarks, so builds are repeatable. */
+    private static final long SEED = 61;
+
+    /** How landmarks are chosen. */
+    public enum Strategy {
+        /** Each landmark is the vertex farthest from those already chosen. */
+        FARTHEST,
+        /**
+         * Each landmark is the end of the region of a random shortest-path tree where the
+         * landmarks so far give the worst bounds (Goldberg and Werneck's "avoid").
+         */
+        AVOID
+    }
+
+    /** Vertex index of each landmark. */
+    final int[] vertices;
+    /** Distance from landmark i to vertex v at <code>distances[v * k + i]</code>. */
+    final float[] distances;
+    /** Fingerprint of the graph the tables were computed over. */
+    final long fingerprint;
+    private final int k;
+    /** Number of vertices in the graph, which the tables cannot tell without landmarks. */
+    private final int n;
+
+    Landmarks(int[] vertices, float[] distances, int n, long fingerprint) {
+        this.vertices = vertices;
+        this.distances = distances;
+        this.n = n;
+        this.fingerprint = fingerprint;
+        this.k = vertices.length;
+    }
+
+    /** Returns the number of landmarks. */
+    public int count() {
+        return k;
+    }
+
+    /** Returns the memory taken by the distance tables, in bytes. */
+    public long estimatedBytes() {
+        return (long) distances.length * Float.BYTES + (long) k * Integer.BYTES;
+    }
+
+    /**
+     * Selects landmarks and computes their distance tables, one Dijkstra per landmark in
+     * parallel.
+     * @param g The road graph.
+     * @param count The number of landmarks to select.
+     * @param strategy How to select them.
+     * @return The landmarks. There may be fewer than <code>count</code> if the graph is small.
+     */
+    public static Landmarks build(CompactGraph g, int count, Strategy strategy) {
+        int n = g.size();
+        double[][] known = new double[count][];
+        int[] chosen = strategy == Strategy.AVOID ? avoid(g, count, known)
+                : farthest(g, count);
+        int found = chosen.length;
+        float[] distances = new float[n * found];
+        IntStream.range(0, found).parallel().forEach(i -> {
+            double[] d = known[i] != null ? known[i]
+                    : dijkstra(g, new SearchContext(n), new int[]{chosen[i]}, null, null);
+            for (int v = 0; v < n; v += 1) {
+                distances[v * found + i] = (float) d[v];
+            }
+        });
+        return new Landmarks(chosen, distances, n, g.fingerprint());
+    }
+
+    /** Picks each landmark as the vertex farthest from all landmarks picked before it. */
+    private static int[] farthest(CompactGraph g, int count) {
+        int n = g.size();
+        if (n == 0) {
+            return new int[0];
+        }
+        SearchContext ctx = new SearchContext(n);
+        int start = new Random(SEED).nextInt(n);
+        IntList chosen = new IntList(count);
+        int[] sources = {start};
+        while (chosen.size() < count) {
+            int next = argmaxFinite(dijkstra(g, ctx, sources, null, null));
+            if (next < 0) {
+                break;
+            }
+            chosen.add(next);
+            sources = chosen.toArray();
+        }
+        return chosen.toArray();
+    }
+
+    /**
+     * Picks landmarks by Goldberg and Werneck's "avoid" rule. The first is the vertex farthest
+     * from a random vertex. Each later one comes from a shortest-path tree grown from a random
+     * root: every vertex v is weighted by how much the landmarks so far underestimate
+     * d(root, v), subtrees holding a landmark are ignored, and the new landmark is the leaf
+     * reached by descending from the heaviest subtree into its heaviest child at every step.
+     * @param known Receives the distance table of each landmark picked.
+     */
+    private static int[] avoid(CompactGraph g, int count, double[][] known) {
+        int n = g.size();
+        if (n == 0) {
+            return new int[0];
+        }
+        Random r = new Random(SEED);
+        SearchContext ctx = new SearchContext(n);
+        IntList chosen = new IntList(count);
+        boolean[] isLandmark = new boolean[n];
+        int first = argmaxFinite(dijkstra(g, ctx, new int[]{r.nextInt(n)}, null, null));
+        int[] parent = new int[n];
+        IntList order = new IntList(n);
+        double[] weight = new double[n];
+        int attempts = 0;
+        for (int next = first; next >= 0 && chosen.size() < count; attempts += 1) {
+            if (!isLandmark[next]) {
+                known[chosen.size()] = dijkstra(g, ctx, new int[]{next}, null, null);
+                chosen.add(next);
+                isLandmark[next] = true;
+            }
+            if (chosen.size() == count || attempts > 4 * count) {
+                break;
+            }
+            int root = r.nextInt(n);
+            double[] fromRoot = dijkstra(g, ctx, new int[]{root}, parent, order);
+            /* Leaves first, so every subtree is totalled before its parent. */
+            Arrays.fill(weight, 0);
+            boolean[] blocked = new boolean[n];
+            for (int i = order.size() - 1; i >= 0; i -= 1) {
+                int v = order.get(i);
+                double bound = 0;
+                for (int j = 0; j < chosen.size(); j += 1) {
+                    bound = Math.max(bound, Math.abs(known[j][root] - known[j][v]));
+                }
+                weight[v] += fromRoot[v] - bound;
+                blocked[v] |= isLandmark[v];
+                if (parent[v] >= 0) {
+                    weight[parent[v]] += blocked[v] ? 0 : weight[v];
+                    blocked[parent[v]] |= blocked[v];
+                }
+            }
+            next = -1;
+            double heaviest = 0;
+            for (int i = 0; i < order.size(); i += 1) {
+                int v = order.get(i);
+                if (!blocked[v] && weight[v] > heaviest) {
+                    heaviest = weight[v];
+                    next = v;
+                }
+            }
+            next = descend(g, next, parent, weight, blocked);
+        }
+        return chosen.toArray();
+    }
+
+    /** Follows the heaviest unblocked child from v down to a leaf of the tree. */
+    private static int descend(CompactGraph g, int v, int[] parent, double[] weight,
+                               boolean[] blocked) {
+        while (v >= 0) {
+            int child = -1;
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                int w = g.targets[k];
+                if (parent[w] == v && !blocked[w] && (child < 0 || weight[w] > weight[child])) {
+                    child = w;
+                }
+            }
+            if (child < 0) {
+                return v;
+            }
+            v = child;
+        }
+        return v;
+    }
+
+    /** Returns the vertex with the largest finite positive distance, or -1 if there is none. */
+    private static int argmaxFinite(double[] d) {
+        int best = -1;
+        for (int v = 0; v < d.length; v += 1) {
+            if (d[v] > 0 && d[v] < Double.POSITIVE_INFINITY && (best < 0 || d[v] > d[best])) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs Dijkstra from the given sources over the whole graph.
+     * @param parent If not null, receives the parent of each vertex in the shortest-path tree,
+     *               or -1 for sources and unreached vertices.
+     * @param order If not null, receives the reached vertices in the order they were settled.
+     * @return The distance to every vertex, infinite for those not reached.
+     */
+    static double[] dijkstra(CompactGraph g, SearchContext ctx, int[] sources, int[] parent,
+                             IntList order) {
+        if (order != null) {
+            order.clear();
+        }
+        Dijkstra.search(g, ctx, sources, new double[sources.length], Double.POSITIVE_INFINITY,
+                (v, d) -> {
+                    if (order != null) {
+                        order.add(v);
+                    }
+                    return true;
+                });
+        double[] dist = new double[g.size()];
+        for (int v = 0; v < dist.length; v += 1) {
+            boolean reached = ctx.touched(v);
+            dist[v] = reached ? ctx.dist[v] : Double.POSITIVE_INFINITY;
+            if (parent != null) {
+                parent[v] = reached ? ctx.parent[v] : -1;
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Returns an ALT heuristic for a search that may end at any of several targets, each with
+     * some distance still to go after it: the smallest landmark bound to a target plus its cost.
+     * @param targets Indices of the vertices the search may end at.
+     * @param targetCosts The distance still to go after each target.
+     * @return A lower bound on the remaining distance from each vertex.
+     */
+    public IntToDoubleFunction potential(int[] targets, double[] targetCosts) {
+        float[][] toTarget = new float[targets.length][];
+        for (int j = 0; j < targets.length; j += 1) {
+            int base = targets[j] * k;
+            toTarget[j] = Arrays.copyOfRange(distances, base, base + k);
+        }
+        return v -> {
+            int base = v * k;
+            double best = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < toTarget.length; j += 1) {
+                best = Math.min(best, bound(base, toTarget[j]) + targetCosts[j]);
+            }
+            return best;
+        };
+    }
+
+    /**
+     * Returns the best landmark lower bound on the distance between the vertex whose distances
+     * start at <code>base</code> and a target with the given landmark distances. The bound is
+     * infinite when some landmark reaches one but not the other, since they are then in
+     * different components.
+     */
+    private double bound(int base, float[] toTarget) {
+        double best = 0;
+        for (int i = 0; i < k; i += 1) {
+            float a = distances[base + i];
+            float b = toTarget[i];
+            boolean reachesA = a < Float.POSITIVE_INFINITY;
+            boolean reachesB = b < Float.POSITIVE_INFINITY;
+            if (reachesA != reachesB) {
+                return Double.POSITIVE_INFINITY;
+            } else if (reachesA) {
+                double error = ROUNDING * ((double) a + b);
+                best = Math.max(best, Math.abs((double) a - b) - error);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reads landmarks written by <code>write</code>.
+     * @param path Path to the landmark file.
+     * @param g The graph the landmarks should belong to.
+     * @return The landmarks, or null if the file is missing, was built for another graph or is cut
+     * short.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    static Landmarks read(String path, CompactGraph g) throws IOException {
+        int n = g.size();
+        return GraphSnapshot.readFile(path, MAGIC, VERSION, g, (buf, fingerprint) -> {
+            int count = buf.getInt();
+            int[] vertices = GraphSnapshot.readInts(buf, count);
+            float[] distances = GraphSnapshot.readFloats(buf, n * count);
+            return new Landmarks(vertices, distances, n, fingerprint);
+        });
+    }
+
+    /**
+     * Writes the landmarks with <code>GraphSnapshot.writeAtomically</code>.
+     * @param path Path to the landmark file.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(String path) throws IOException {
+        GraphSnapshot.writeAtomically(path, out -> {
+            GraphSnapshot.writeHeader(out, MAGIC, VERSION, fingerprint);
+            out.writeInt(n);
+            out.writeInt(k);
+            GraphSnapshot.writeInts(out, vertices);
+            GraphSnapshot.writeFloats(out, distances);
+        });
+    }
+}
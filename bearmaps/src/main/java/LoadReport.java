@@ -0,0 +1,49 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records where the time went while a <code>GraphDB</code> was loaded, stage by stage, along with
+ * any statistics the loaders want to surface. Stages and statistics are printed in the order
+ * they were first recorded.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class LoadReport {
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private final Map<String, String> stats = new LinkedHashMap<>();
+
+    /**
+     * Adds <code>nanos</code> to the time recorded for <code>stage</code>.
+     * @param stage The name of the stage.
+     * @param nanos The time spent, in nanoseconds.
+     */
+    synchronized void addStage(String stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+    }
+
+    /**
+     * Records a named statistic, replacing any earlier value.
+     * @param name The name of the statistic.
+     * @param value Its value.
+     */
+    synchronized void addStat(String name, Object value) {
+        stats.put(name, String.valueOf(value));
+    }
+
+    /** Returns the time recorded for <code>stage</code> in nanoseconds, or 0 if there is none. */
+    synchronized long stageNanos(String stage) {
+        return stageNanos.getOrDefault(stage, 0L);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : stageNanos.entrySet()) {
+            sb.append(String.format("%-32s %10.1f ms%n", e.getKey(), e.getValue() / 1e6));
+        }
+        for (Map.Entry<String, String> e : stats.entrySet()) {
+            sb.append(String.format("%-32s %13s%n", e.getKey(), e.getValue()));
+        }
+        return sb.toString();
+    }
+}
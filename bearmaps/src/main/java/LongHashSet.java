@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * A set of longs backed by a single open-addressing array, so each member costs 8 to 16 bytes
+ * instead of a boxed Long and a hash table entry. Used to remember large sets of OSM ids.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class LongHashSet {
+    /** Marks an empty slot. OSM ids are never this value. */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] slots;
+    private int size;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * Creates a set sized for about <code>expected</code> members before it needs to grow.
+     * @param expected The expected number of members.
+     */
+    public LongHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        slots = new long[capacity];
+        Arrays.fill(slots, EMPTY);
+    }
+
+    /**
+     * Adds <code>v</code> to this set.
+     * @param v The value to add.
+     * @return True if <code>v</code> was not already in the set.
+     */
+    public boolean add(long v) {
+        if (2 * (size + 1) > slots.length) {
+            grow();
+        }
+        int mask = slots.length - 1;
+        int i = mix(v) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == v) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = v;
+        size += 1;
+        return true;
+    }
+
+    /** Returns true if <code>v</code> is in this set. */
+    public boolean contains(long v) {
+        int mask = slots.length - 1;
+        int i = mix(v) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == v) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /** Returns the number of members. */
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+        for (long v : old) {
+            if (v != EMPTY) {
+                add(v);
+            }
+        }
+    }
+
+    /** Spreads the bits of v so that sequential ids do not cluster. */
+    private static int mix(long v) {
+        long h = v * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
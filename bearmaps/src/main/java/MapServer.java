@@ -3,13 +3,17 @@ import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
@@ -54,19 +58,47 @@ public class MapServer {
      */
     private static List<Long> route;
     /** The configured Gson Java serializer. */
-    private static Gson gson;
+    private static Gson gson = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+    /** Decoded and encoded tiles, shared by every raster request. */
+    static TileCache tiles;
+    /** The tile pack tiles are read from, or null to read loose files from IMG_ROOT. */
+    static TilePack pack;
+    /** Serves single tiles from the same backend as <code>tiles</code>. */
+    static TileEndpoint tileEndpoint;
 
     /**
      * Code responsible for initializing variables. These objects must be instantiated
      * independently of the main method for the tests to function properly.
      */
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = new GraphDB(OSM_DB_PATH, OSM_SNAPSHOT_PATH, GraphDB.LoadMode.ROUTABLE_NODES);
+        /* A click beside a stray service road should still route to the rest of the map. */
+        graph.preferLargestComponent(true);
+        graph.loadHierarchy(OSM_CH_PATH);
+        graph.loadLandmarks(OSM_LANDMARKS_PATH, LANDMARK_COUNT);
+        graph.loadHubLabels(OSM_LABELS_PATH);
+        graph.allowCustomization();
+        Router.invalidateCache();
         rasterer = new Rasterer();
+        pack = null;
+        try {
+            pack = TilePack.open(TILE_PACK_PATH);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (pack != null) {
+            /* The mapped pack already keeps encoded tiles in memory, in the page cache. */
+            tiles = new TileCache(pack::read, TILE_CACHE_IMAGE_BYTES, 0);
+        } else {
+            tiles = new TileCache(name -> Files.readAllBytes(Paths.get(IMG_ROOT + name)),
+                    TILE_CACHE_IMAGE_BYTES, TILE_CACHE_PNG_BYTES);
+        }
+        tileEndpoint = new TileEndpoint(pack, IMG_ROOT);
         route = Collections.emptyList();
-        gson = new GsonBuilder()
-                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-                .create();
+        /* Encode PNGs in memory rather than through a temporary file. */
+        ImageIO.setUseCache(false);
     }
 
     /**
@@ -92,15 +124,27 @@ public class MapServer {
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
-            try {
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
+            /* With format=grid, leave drawing to the client, which fetches tiles from /tiles. */
+            if ("grid".equals(req.queryParams("format"))) {
+                return gridJson(resultParams);
+            }
+            /* With format=png, stream the image itself, with the raster bounds in headers. */
+            if ("png".equals(req.queryParams("format"))) {
                 BufferedImage img = renderImage(resultParams);
-                ImageIO.write(img, "png", os);
-                return gson.toJson(
-                        new RenderedRasterResultParams(
-                                resultParams, img.getWidth(), img.getHeight(),
-                                Base64.getEncoder().encodeToString(os.toByteArray())
-                        ));
+                rasterHeaders(resultParams, img).forEach(res::header);
+                res.header("Access-Control-Expose-Headers", String.join(", ", RASTER_HEADERS));
+                res.type("image/png");
+                try {
+                    OutputStream os = res.raw().getOutputStream();
+                    ImageIO.write(img, "png", os);
+                    os.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return "";
+            }
+            try {
+                return rasterJson(resultParams, renderImage(resultParams));
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -108,6 +152,36 @@ public class MapServer {
             return gson.toJson(resultParams);
         });
 
+        /* Define the single-tile endpoint, /tiles/{depth}/{x}/{y}.png, for HTTP GET requests. */
+        get("/tiles/:depth/:x/:y", (req, res) -> {
+            String name = "d" + req.params(":depth") + "_x" + req.params(":x")
+                    + "_y" + req.params(":y");
+            int[] dxy = TilePack.parse(name);
+            TileEndpoint.Tile tile = null;
+            try {
+                tile = dxy == null ? null : tileEndpoint.find(dxy[0], dxy[1], dxy[2]);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (tile == null) {
+                halt(NOT_FOUND_RESPONSE, "No tile " + req.pathInfo());
+            }
+            res.header("ETag", tile.etag);
+            res.header("Cache-Control", TILE_CACHE_CONTROL);
+            if (TileEndpoint.notModified(req.headers("If-None-Match"), tile.etag)) {
+                res.status(NOT_MODIFIED_RESPONSE);
+                return "";
+            }
+            res.type("image/png");
+            res.raw().setContentLengthLong(tile.length);
+            try {
+                tileEndpoint.send(tile, res.raw().getOutputStream());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return "";
+        });
+
         /* Define the routing endpoint for HTTP GET requests. */
         get("/route", (req, res) -> {
             RouteRequestParams  params = null;
@@ -116,13 +190,50 @@ public class MapServer {
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
-            route = Router.shortestPath(graph,
-                    params.startLon, params.startLat, params.endLon, params.endLat);
+            Router.Algorithm algorithm = Router.Algorithm.AUTO;
+            try {
+                algorithm = Router.Algorithm.from(req.queryParams("algorithm"));
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            /* Snap onto road segments unless the client asks for the nearest vertices. */
+            if ("node".equals(req.queryParams("snap"))) {
+                route = Router.shortestPath(graph, params.startLon, params.startLat,
+                        params.endLon, params.endLat, algorithm);
+            } else {
+                route = Router.snappedShortestPath(graph, params.startLon, params.startLat,
+                        params.endLon, params.endLat, algorithm);
+            }
             String directions = getDirectionsText(Router.routeDirections(graph, route));
             RouteResultParams routeParams = new RouteResultParams(!route.isEmpty(), directions);
             return gson.toJson(routeParams);
         });
 
+        /* Define the distance-matrix endpoint for HTTP GET requests. */
+        get("/matrix", (req, res) -> {
+            MatrixRequestParams params = null;
+            try {
+                params = MatrixRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            double[][] matrix = Router.distanceMatrix(graph, params.originLons,
+                    params.originLats, params.destLons, params.destLats);
+            return gson.toJson(new MatrixResultParams(matrix));
+        });
+
+        /* Define the reachability endpoint for HTTP GET requests. */
+        get("/isochrone", (req, res) -> {
+            IsochroneRequestParams params = null;
+            try {
+                params = IsochroneRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            Isochrone isochrone = Router.isochrone(graph, params.lon, params.lat, params.miles);
+            return gson.toJson(new IsochroneResultParams(graph.csr, isochrone, params.hull));
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
             route = Collections.emptyList();
@@ -151,29 +262,15 @@ public class MapServer {
     }
 
     /**
-     * Return the image defined by the <code>resultParams</code>.
+     * Return the image defined by the <code>resultParams</code>. Tiles come from
+     * <code>tiles</code>, so only those not seen recently are read from disk, and are fetched
+     * and assembled in parallel by <code>TileCompositor</code>.
      * @param resultParams <code>RasterResultParams</code> from <code>Rasterer.getMapRaster</code>
      * @return The final, rastered image including any shortest-paths routes.
      */
-    private static BufferedImage renderImage(RasterResultParams resultParams) {
-        String[][] renderGrid = resultParams.renderGrid;
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
-
-        BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
-                numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+    static BufferedImage renderImage(RasterResultParams resultParams) {
+        BufferedImage img = TileCompositor.composite(resultParams.renderGrid, tiles);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(readImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
-            }
-        }
         /* If there is a route, draw it. */
         if (route != null && !route.isEmpty()) {
             double ullon = resultParams.rasterUlLon;
@@ -198,19 +295,67 @@ public class MapServer {
     }
 
     /**
-     * Returns the image found at the given <code>imgPath</code>.
-     * @param imgPath <code>String</code> path to the image.
-     * @return The <code>BufferedImage</code> at the specified <code>imgPath</code>.
+     * Returns the JSON body of a /raster response: the raster parameters and the image, encoded
+     * as a PNG in Base64.
+     * @param resultParams <code>RasterResultParams</code> from <code>Rasterer.getMapRaster</code>
+     * @param img The image from <code>renderImage</code>.
+     * @return The JSON text.
+     * @throws IOException If the image cannot be encoded.
      */
-    private static BufferedImage readImage(String imgPath) {
-        BufferedImage tileImg = null;
-        File in = new File(imgPath);
-        try {
-            tileImg = ImageIO.read(in);
-        } catch (IOException e) {
-            e.printStackTrace();
+    static String rasterJson(RasterResultParams resultParams, BufferedImage img)
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", os);
+        return gson.toJson(
+                new RenderedRasterResultParams(
+                        resultParams, img.getWidth(), img.getHeight(),
+                        Base64.getEncoder().encodeToString(os.toByteArray())
+                ));
+    }
+
+    /** The headers that carry the raster parameters when the image is sent as a PNG. */
+    static final String[] RASTER_HEADERS = {"Raster-Ul-Lon", "Raster-Ul-Lat", "Raster-Lr-Lon",
+        "Raster-Lr-Lat", "Raster-Width", "Raster-Height", "Raster-Depth", "Raster-Query-Success"};
+
+    /**
+     * Returns the raster parameters of a response that sends the image as a PNG, by header name.
+     * The render grid is left out; the client only needs the bounds to place the image.
+     * @param resultParams <code>RasterResultParams</code> from <code>Rasterer.getMapRaster</code>
+     * @param img The image from <code>renderImage</code>.
+     * @return The values of <code>RASTER_HEADERS</code>, in order.
+     */
+    static Map<String, String> rasterHeaders(RasterResultParams resultParams, BufferedImage img) {
+        String[] values = {
+            String.valueOf(resultParams.rasterUlLon), String.valueOf(resultParams.rasterUlLat),
+            String.valueOf(resultParams.rasterLrLon), String.valueOf(resultParams.rasterLrLat),
+            String.valueOf(img.getWidth()), String.valueOf(img.getHeight()),
+            String.valueOf(resultParams.depth), String.valueOf(resultParams.querySuccess)};
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < RASTER_HEADERS.length; i += 1) {
+            headers.put(RASTER_HEADERS[i], values[i]);
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the JSON body of a /raster response that leaves drawing to the client: the raster
+     * parameters, the URL of each tile of the grid and the current route.
+     * @param resultParams <code>RasterResultParams</code> from <code>Rasterer.getMapRaster</code>
+     * @return The JSON text.
+     */
+    static String gridJson(RasterResultParams resultParams) {
+        return gson.toJson(new TileGridResultParams(resultParams, routeLonLats()));
+    }
+
+    /** Returns the vertices of the current route as longitude, latitude pairs. */
+    private static double[][] routeLonLats() {
+        List<Long> current = route == null ? Collections.emptyList() : route;
+        double[][] lonLats = new double[current.size()][];
+        for (int i = 0; i < lonLats.length; i += 1) {
+            long v = current.get(i);
+            lonLats[i] = new double[]{graph.lon(v), graph.lat(v)};
         }
-        return tileImg;
+        return lonLats;
     }
 
     /**
@@ -230,17 +375,94 @@ public class MapServer {
 
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** HTTP response for a tile that does not exist. */
+    private static final int NOT_FOUND_RESPONSE = 404;
+    /** HTTP response for a tile the client already has. */
+    private static final int NOT_MODIFIED_RESPONSE = 304;
+    /**
+     * Lets browsers and shared caches keep tiles for a day, and revalidate them by ETag after
+     * that.
+     */
+    static final String TILE_CACHE_CONTROL = "public, max-age=86400";
     /** Route stroke information: typically roads are not more than 5px wide. */
     private static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: semi-transparent cyan. */
     private static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
     /** The directory where tile images can be found. */
-    private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
+    static final String IMG_ROOT = "../library-su18/bearmaps/img/";
+    /**
+     * The same tiles packed into one file by <code>TilePack</code>. Tiles are read from it when
+     * it exists, and from <code>IMG_ROOT</code> otherwise.
+     */
+    static final String TILE_PACK_PATH = "../library-su18/bearmaps/img.pack";
+    /**
+     * Bounds of the tile cache: decoded tiles take about 256 KB each, enough for several
+     * full-screen viewports, and their PNGs about a tenth of that.
+     */
+    private static final long TILE_CACHE_IMAGE_BYTES = 128L << 20;
+    private static final long TILE_CACHE_PNG_BYTES = 32L << 20;
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
      */
-    private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+    static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+    /**
+     * The binary snapshot of the graph built from <code>OSM_DB_PATH</code>. It is rebuilt
+     * automatically whenever it is missing or the XML file changes.
+     */
+    private static final String OSM_SNAPSHOT_PATH =
+            "../library-su18/bearmaps/berkeley-2018.snapshot";
+    /**
+     * The contraction hierarchy for the graph, built offline by
+     * <code>ContractionHierarchyBuilder</code>. Routing falls back to A* when it is missing or
+     * was built for a different graph.
+     */
+    static final String OSM_CH_PATH = "../library-su18/bearmaps/berkeley-2018.ch";
+    /**
+     * The landmark distance tables for the ALT heuristic. They are built on startup and stored
+     * here whenever they are missing or hold a different number of landmarks.
+     */
+    private static final String OSM_LANDMARKS_PATH =
+            "../library-su18/bearmaps/berkeley-2018.landmarks";
+    /**
+     * The hub labels for distance-only queries, derived from the contraction hierarchy and stored
+     * here on first start. Without a hierarchy there are none, and distances fall back to search.
+     */
+    private static final String OSM_LABELS_PATH = "../library-su18/bearmaps/berkeley-2018.labels";
+    /** The number of landmarks; more tighten the ALT bounds but cost 4 bytes per vertex each. */
+    private static final int LANDMARK_COUNT = 16;
+
+    /**
+     * An adapter class for extending RasterResultParams with where to fetch each tile and the
+     * current route, for clients that draw the raster themselves.
+     */
+    private static class TileGridResultParams {
+        private final String[][] renderGrid;
+        private final double rasterUlLon, rasterUlLat, rasterLrLon, rasterLrLat;
+        private final int depth;
+        private final boolean querySuccess;
+        private final String[][] tileUrls;
+        private final double[][] route;
+
+        private TileGridResultParams(RasterResultParams params, double[][] route) {
+            this.renderGrid = params.renderGrid;
+            this.rasterUlLon = params.rasterUlLon;
+            this.rasterUlLat = params.rasterUlLat;
+            this.rasterLrLon = params.rasterLrLon;
+            this.rasterLrLat = params.rasterLrLat;
+            this.depth = params.depth;
+            this.querySuccess = params.querySuccess;
+            /* A failed query has no grid. */
+            this.tileUrls = renderGrid == null ? null : new String[renderGrid.length][];
+            for (int r = 0; tileUrls != null && r < renderGrid.length; r += 1) {
+                tileUrls[r] = new String[renderGrid[r].length];
+                for (int c = 0; c < renderGrid[r].length; c += 1) {
+                    tileUrls[r][c] = TileEndpoint.url(renderGrid[r][c]);
+                }
+            }
+            this.route = route;
+        }
+    }
 
     /** An adapter class for extending RasterResultParams with the final image. */
     private static class RenderedRasterResultParams {
@@ -0,0 +1,65 @@
+import java.util.Map;
+
+/**
+ * The MatrixRequestParams contains the points received from the browser in a distance-matrix
+ * request. Origins and destinations each arrive as one parameter listing "lon,lat" pairs
+ * separated by semicolons, for example <code>origins=-122.26,37.87;-122.25,37.86</code>.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class MatrixRequestParams {
+    /** The most origins, or destinations, a single request may list. */
+    static final int MAX_POINTS = 1000;
+
+    public final double[] originLons;
+    public final double[] originLats;
+    public final double[] destLons;
+    public final double[] destLats;
+
+    private MatrixRequestParams(double[][] origins, double[][] destinations) {
+        this.originLons = origins[0];
+        this.originLats = origins[1];
+        this.destLons = destinations[0];
+        this.destLats = destinations[1];
+    }
+
+    /**
+     * Validate and return the points of a matrix request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed origins and destinations.
+     * @throws IllegalArgumentException If either list is missing, empty, too long or malformed.
+     */
+    public static MatrixRequestParams from(Map<String, String[]> req) {
+        return new MatrixRequestParams(points(req, "origins"), points(req, "destinations"));
+    }
+
+    /** Returns the longitudes and latitudes listed by a parameter, in that order. */
+    private static double[][] points(Map<String, String[]> req, String param) {
+        if (!req.containsKey(param) || req.get(param).length == 0
+                || req.get(param)[0].isEmpty()) {
+            String msg = String.format("Request failed: %s not found.", param);
+            throw new IllegalArgumentException(msg);
+        }
+        String[] pairs = req.get(param)[0].split(";");
+        if (pairs.length > MAX_POINTS) {
+            String msg = String.format("Request failed: more than %d %s.", MAX_POINTS, param);
+            throw new IllegalArgumentException(msg);
+        }
+        double[][] result = new double[2][pairs.length];
+        for (int i = 0; i < pairs.length; i += 1) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                result[0][i] = Double.parseDouble(lonLat[0].trim());
+                result[1][i] = Double.parseDouble(lonLat[1].trim());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                String msg = String.format("Incorrect parameters: unable to parse %s.", param);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * The MatrixResultParams contains a distance matrix computed by Router.distanceMatrix, flattened
+ * for serialization by Gson: one flat array of numbers in row-major order rather than nested
+ * arrays of objects, rounded to a ten-thousandth of a mile (about half a foot) so that each entry
+ * prints in a few characters.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+class MatrixResultParams {
+    /** Entries for destinations that cannot be reached. */
+    static final float UNREACHABLE = -1;
+
+    /** The number of origins. */
+    private final int rows;
+    /** The number of destinations. */
+    private final int cols;
+    /** The distance in miles from origin i to destination j at i * cols + j. */
+    private final float[] miles;
+
+    /**
+     * Flattens a distance matrix.
+     * @param matrix The distances, one row per origin; infinity where there is no path.
+     */
+    MatrixResultParams(double[][] matrix) {
+        this.rows = matrix.length;
+        this.cols = rows == 0 ? 0 : matrix[0].length;
+        this.miles = new float[rows * cols];
+        for (int i = 0; i < rows; i += 1) {
+            for (int j = 0; j < cols; j += 1) {
+                double d = matrix[i][j];
+                miles[i * cols + j] = d == Double.POSITIVE_INFINITY ? UNREACHABLE
+                        : (float) (Math.round(d * 1e4) / 1e4);
+            }
+        }
+    }
+}
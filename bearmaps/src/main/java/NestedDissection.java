@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+/**
+ * Orders the vertices of a <code>CompactGraph</code> for a
+ * <code>CustomizableContractionHierarchy</code> by nested dissection, using only the topology and
+ * coordinates of the graph, never edge weights. The graph is split in half, the vertices that
+ * separate the halves are ranked above both, and each half is ordered the same way, recursively.
+ * Small separators near the top keep the hierarchy's fill, and so its customization time, low.
+ *
+ * Splits are geometric, in the spirit of inertial flow: the vertices are sorted along each of four
+ * directions (east, north and the two diagonals) and cut at the median, and the direction whose
+ * cut needs the fewest separator vertices wins. The separator is the boundary of the cut on
+ * whichever side has the smaller one, which covers every cut edge.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class NestedDissection {
+    /** Parts no larger than this are ranked as they are instead of being split further. */
+    private static final int LEAF_SIZE = 8;
+    /** The directions to cut along, as weights of the projected x and y coordinates. */
+    private static final double[][] DIRECTIONS = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+    private final CompactGraph g;
+    private final int[] rank;
+    /** The part each vertex was last marked as belonging to, and the current part's mark. */
+    private final int[] owner;
+    private int mark;
+    /** Whether each vertex of the part being split falls on the far side of the cut. */
+    private final boolean[] far;
+
+    private NestedDissection(CompactGraph g) {
+        this.g = g;
+        int n = g.size();
+        rank = new int[n];
+        owner = new int[n];
+        far = new boolean[n];
+    }
+
+    /**
+     * Computes a nested dissection order of <code>g</code>.
+     * @param g The road graph.
+     * @return The rank of each vertex, a permutation of [0, n).
+     */
+    static int[] rank(CompactGraph g) {
+        NestedDissection nd = new NestedDissection(g);
+        int[] all = new int[g.size()];
+        for (int v = 0; v < all.length; v += 1) {
+            all[v] = v;
+        }
+        nd.dissect(all, all.length);
+        return nd.rank;
+    }
+
+    /** Ranks the given vertices with the ranks just below <code>top</code>. */
+    private void dissect(int[] vertices, int top) {
+        int size = vertices.length;
+        if (size <= LEAF_SIZE) {
+            for (int i = 0; i < size; i += 1) {
+                rank[vertices[i]] = top - size + i;
+            }
+            return;
+        }
+        int[] bestOrder = null;
+        boolean bestFar = false;
+        int bestSize = Integer.MAX_VALUE;
+        for (double[] direction : DIRECTIONS) {
+            int[] sorted = sortAlong(vertices, direction[0], direction[1]);
+            split(sorted);
+            int near = boundary(sorted, false).length;
+            int away = boundary(sorted, true).length;
+            if (Math.min(near, away) < bestSize) {
+                bestSize = Math.min(near, away);
+                bestOrder = sorted;
+                bestFar = away < near;
+            }
+        }
+        split(bestOrder);
+        int[] separator = boundary(bestOrder, bestFar);
+        for (int v : separator) {
+            owner[v] = 0;
+        }
+        int half = size / 2;
+        int[] first = remaining(bestOrder, 0, half);
+        int[] second = remaining(bestOrder, half, size);
+        for (int i = 0; i < separator.length; i += 1) {
+            rank[separator[i]] = top - separator.length + i;
+        }
+        top -= separator.length;
+        dissect(second, top);
+        dissect(first, top - second.length);
+    }
+
+    /** Marks the vertices as the current part, with the second half on the far side. */
+    private void split(int[] sorted) {
+        mark += 1;
+        int half = sorted.length / 2;
+        for (int i = 0; i < sorted.length; i += 1) {
+            owner[sorted[i]] = mark;
+            far[sorted[i]] = i >= half;
+        }
+    }
+
+    /** Returns the vertices on one side of the current cut with a neighbor on the other side. */
+    private int[] boundary(int[] sorted, boolean side) {
+        IntList result = new IntList();
+        for (int v : sorted) {
+            if (far[v] != side) {
+                continue;
+            }
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                int w = g.targets[k];
+                if (owner[w] == mark && far[w] != side) {
+                    result.add(v);
+                    break;
+                }
+            }
+        }
+        return result.toArray();
+    }
+
+    /** Returns the vertices in sorted[from, to) that are still in the current part. */
+    private int[] remaining(int[] sorted, int from, int to) {
+        IntList result = new IntList(to - from);
+        for (int i = from; i < to; i += 1) {
+            if (owner[sorted[i]] == mark) {
+                result.add(sorted[i]);
+            }
+        }
+        return result.toArray();
+    }
+
+    /** Returns the vertices sorted by their projected position along (dx, dy). */
+    private int[] sortAlong(int[] vertices, double dx, double dy) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int v : vertices) {
+            double key = dx * g.x[v] + dy * g.y[v];
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+        double scale = max > min ? Integer.MAX_VALUE / (max - min) : 0;
+        /* Sort quantized keys with the position in the low bits, rather than boxed indices. */
+        long[] packed = new long[vertices.length];
+        for (int i = 0; i < vertices.length; i += 1) {
+            int v = vertices[i];
+            long key = (long) ((dx * g.x[v] + dy * g.y[v] - min) * scale);
+            packed[i] = key << 32 | i;
+        }
+        Arrays.sort(packed);
+        int[] sorted = new int[vertices.length];
+        for (int i = 0; i < sorted.length; i += 1) {
+            sorted[i] = vertices[(int) packed[i]];
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,290 @@
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipelined OSM ingestion in three stages:
+ * <ol>
+ *     <li>a reader thread runs the SAX parser and copies the raw attribute strings of each
+ *     element into fixed-size chunks,</li>
+ *     <li>a pool of decoder threads turns the id and coordinate strings of each chunk into
+ *     primitives, and</li>
+ *     <li>the calling thread replays the decoded chunks, in file order, into a
+ *     <code>GraphBuildingHandler</code>, so the resulting graph is identical to a plain SAX
+ *     parse.</li>
+ * </ol>
+ * Chunks are handed from the reader to the builder through a bounded queue of futures, which
+ * keeps them in order and caps how far the reader can run ahead of the builder.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class OsmIngestPipeline {
+    /** Number of elements per chunk. */
+    private static final int CHUNK_SIZE = 4096;
+    /** Element kinds recorded by the reader. */
+    private static final byte NODE = 0, WAY = 1, ND = 2, TAG = 3, END_WAY = 4;
+    /** Sentinel chunk marking the end of the input. */
+    private static final Decoded END = new Decoded(0);
+
+    private final int workers;
+
+    /**
+     * Creates a pipeline with one reader thread, <code>workers</code> decoder threads, and the
+     * calling thread as the builder.
+     * @param workers The number of decoder threads.
+     */
+    public OsmIngestPipeline(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /** Creates a pipeline with as many decoders as there are cores left over. */
+    public OsmIngestPipeline() {
+        this(Runtime.getRuntime().availableProcessors() - 2);
+    }
+
+    /** Raw attribute strings of a run of elements, as captured by the reader. */
+    private static class Raw {
+        final byte[] kinds = new byte[CHUNK_SIZE];
+        final String[] a = new String[CHUNK_SIZE];
+        final String[] b = new String[CHUNK_SIZE];
+        final String[] c = new String[CHUNK_SIZE];
+        int size;
+    }
+
+    /** A run of elements with ids and coordinates decoded. */
+    private static class Decoded {
+        final byte[] kinds;
+        final long[] ids;
+        final double[] lat, lon;
+        final String[] keys, values;
+        int size;
+
+        Decoded(int capacity) {
+            kinds = new byte[capacity];
+            ids = new long[capacity];
+            lat = new double[capacity];
+            lon = new double[capacity];
+            keys = new String[capacity];
+            values = new String[capacity];
+        }
+    }
+
+    /**
+     * Parses the OSM XML in <code>in</code> into the graph behind <code>handler</code>.
+     * @param in The OSM XML input. It is read by another thread but not closed.
+     * @param handler The handler to replay the elements into.
+     * @param report The report to add the time spent in each stage to.
+     * @throws IOException If the input cannot be read.
+     * @throws SAXException If the input is not valid XML, or if building the graph fails.
+     */
+    public void run(InputStream in, GraphBuildingHandler handler, LoadReport report)
+            throws IOException, SAXException {
+        BlockingQueue<Future<Decoded>> ordered = new ArrayBlockingQueue<>(2 * workers + 2);
+        ExecutorService decoders = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "osm-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicLong decodeNanos = new AtomicLong();
+        AtomicLong readBlockedNanos = new AtomicLong();
+        AtomicLong readNanos = new AtomicLong();
+
+        Thread reader = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                ChunkingHandler chunker = new ChunkingHandler(raw -> {
+                    Future<Decoded> f = decoders.submit(() -> {
+                        long t0 = System.nanoTime();
+                        Decoded d = decode(raw);
+                        decodeNanos.addAndGet(System.nanoTime() - t0);
+                        return d;
+                    });
+                    long t0 = System.nanoTime();
+                    ordered.put(f);
+                    readBlockedNanos.addAndGet(System.nanoTime() - t0);
+                });
+                SAXParserFactory.newInstance().newSAXParser().parse(in, chunker);
+                chunker.flush();
+                ordered.put(CompletableFuture.completedFuture(END));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                /* Whatever stops the reader has to reach the builder, or it waits forever. */
+                try {
+                    ordered.put(CompletableFuture.failedFuture(e));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            } finally {
+                readNanos.set(System.nanoTime() - start);
+            }
+        }, "osm-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long buildNanos = 0;
+        long waitNanos = 0;
+        try {
+            while (true) {
+                long t0 = System.nanoTime();
+                Decoded chunk = ordered.take().get();
+                long t1 = System.nanoTime();
+                waitNanos += t1 - t0;
+                if (chunk == END) {
+                    break;
+                }
+                replay(chunk, handler);
+                buildNanos += System.nanoTime() - t1;
+            }
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading OSM data", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SAXException(String.valueOf(cause));
+        } finally {
+            reader.interrupt();
+            decoders.shutdownNow();
+        }
+
+        report.addStage("ingest: read (SAX)", readNanos.get() - readBlockedNanos.get());
+        report.addStage("ingest: read blocked on queue", readBlockedNanos.get());
+        report.addStage(String.format("ingest: decode (%d threads, cpu)", workers),
+                decodeNanos.get());
+        report.addStage("ingest: build", buildNanos);
+        report.addStage("ingest: build waiting", waitNanos);
+    }
+
+    /** Turns the id and coordinate strings of a raw chunk into primitives. */
+    private static Decoded decode(Raw raw) {
+        Decoded d = new Decoded(raw.size);
+        for (int i = 0; i < raw.size; i += 1) {
+            byte kind = raw.kinds[i];
+            d.kinds[i] = kind;
+            if (kind == NODE) {
+                d.ids[i] = Long.parseLong(raw.a[i]);
+                d.lat[i] = Double.parseDouble(raw.b[i]);
+                d.lon[i] = Double.parseDouble(raw.c[i]);
+            } else if (kind == WAY || kind == ND) {
+                d.ids[i] = Long.parseLong(raw.a[i]);
+            } else if (kind == TAG) {
+                d.keys[i] = raw.a[i];
+                d.values[i] = raw.b[i];
+            }
+        }
+        d.size = raw.size;
+        return d;
+    }
+
+    /** Feeds a decoded chunk to the handler, one element at a time. */
+    private static void replay(Decoded d, GraphBuildingHandler handler) {
+        for (int i = 0; i < d.size; i += 1) {
+            switch (d.kinds[i]) {
+                case NODE:
+                    handler.startNode(d.ids[i], d.lat[i], d.lon[i]);
+                    break;
+                case WAY:
+                    handler.startWay(d.ids[i]);
+                    break;
+                case ND:
+                    handler.wayNode(d.ids[i]);
+                    break;
+                case TAG:
+                    handler.tag(d.keys[i], d.values[i]);
+                    break;
+                default:
+                    handler.endWay();
+                    break;
+            }
+        }
+    }
+
+    /** Receives each full chunk from the reader. */
+    private interface ChunkSink {
+        void accept(Raw chunk) throws InterruptedException;
+    }
+
+    /** SAX handler that only copies attribute strings into chunks. */
+    private static class ChunkingHandler extends DefaultHandler {
+        private final ChunkSink sink;
+        private Raw chunk = new Raw();
+        private boolean inWay;
+
+        ChunkingHandler(ChunkSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                                 Attributes attributes) throws SAXException {
+            if (qName.equals("node")) {
+                inWay = false;
+                add(NODE, attributes.getValue("id"), attributes.getValue("lat"),
+                        attributes.getValue("lon"));
+            } else if (qName.equals("way")) {
+                inWay = true;
+                add(WAY, attributes.getValue("id"), null, null);
+            } else if (inWay && qName.equals("nd")) {
+                add(ND, attributes.getValue("ref"), null, null);
+            } else if (qName.equals("tag")) {
+                add(TAG, attributes.getValue("k"), attributes.getValue("v"), null);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (qName.equals("way")) {
+                inWay = false;
+                add(END_WAY, null, null, null);
+            }
+        }
+
+        private void add(byte kind, String a, String b, String c) throws SAXException {
+            int i = chunk.size;
+            chunk.kinds[i] = kind;
+            chunk.a[i] = a;
+            chunk.b[i] = b;
+            chunk.c[i] = c;
+            chunk.size += 1;
+            if (chunk.size == CHUNK_SIZE) {
+                flush();
+            }
+        }
+
+        /** Hands the current chunk to the sink, if it holds anything. */
+        void flush() throws SAXException {
+            if (chunk.size == 0) {
+                return;
+            }
+            try {
+                sink.accept(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException("Interrupted while loading OSM data", e);
+            }
+            chunk = new Raw();
+        }
+    }
+}
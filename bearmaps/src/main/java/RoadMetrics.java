@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Builds metrics for <code>CustomizableContractionHierarchy</code>: arrays holding a weight for
+ * every directed edge of a <code>CompactGraph</code>, indexed like its <code>targets</code>.
+ * A weight of infinity closes an edge.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class RoadMetrics {
+    /** Seconds per hour, for turning miles at miles per hour into seconds. */
+    private static final double SECONDS_PER_HOUR = 3600;
+    /** Miles per kilometer, for maxspeed tags given in km/h, the OSM default unit. */
+    private static final double MILES_PER_KM = 0.621371;
+    /** Speed in mph assumed for ways with no usable maxspeed tag, by highway type. */
+    private static final Map<String, Double> DEFAULT_SPEEDS = Map.ofEntries(
+            Map.entry("motorway", 65.0), Map.entry("motorway_link", 45.0),
+            Map.entry("trunk", 55.0), Map.entry("trunk_link", 40.0),
+            Map.entry("primary", 40.0), Map.entry("primary_link", 30.0),
+            Map.entry("secondary", 35.0), Map.entry("secondary_link", 30.0),
+            Map.entry("tertiary", 30.0), Map.entry("tertiary_link", 25.0),
+            Map.entry("unclassified", 25.0), Map.entry("residential", 25.0),
+            Map.entry("living_street", 10.0)
+    );
+    /** Speed in mph assumed for ways of any other type. */
+    private static final double FALLBACK_SPEED = 25;
+
+    /**
+     * Returns the length of every edge in miles.
+     * @param g The road graph.
+     * @return The weight of each directed edge.
+     */
+    public static double[] distance(CompactGraph g) {
+        double[] weights = new double[g.edgeCount()];
+        for (int v = 0; v < g.size(); v += 1) {
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                weights[k] = g.distance(v, g.targets[k]);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Returns the time to drive every edge in seconds, at the speed of the way it belongs to:
+     * its <code>maxspeed</code> tag if it has a usable one, or otherwise a typical speed for its
+     * highway type. Where several ways share an edge, the fastest wins.
+     * @param g A loaded graph, with its ways.
+     * @return The weight of each directed edge.
+     */
+    public static double[] travelTime(GraphDB g) {
+        CompactGraph c = g.csr;
+        double[] speeds = new double[c.edgeCount()];
+        for (GraphDB.Path p : g.paths.values()) {
+            double speed = speed(p.tags);
+            ArrayList<Long> refs = p.vertices;
+            for (int i = 1; i < refs.size(); i += 1) {
+                int u = c.indexOf(refs.get(i - 1));
+                int w = c.indexOf(refs.get(i));
+                if (u >= 0 && w >= 0) {
+                    setSpeed(c, speeds, u, w, speed);
+                    setSpeed(c, speeds, w, u, speed);
+                }
+            }
+        }
+        double[] weights = new double[c.edgeCount()];
+        for (int v = 0; v < c.size(); v += 1) {
+            for (int k = c.offsets[v]; k < c.offsets[v + 1]; k += 1) {
+                double speed = speeds[k] > 0 ? speeds[k] : FALLBACK_SPEED;
+                weights[k] = c.distance(v, c.targets[k]) / speed * SECONDS_PER_HOUR;
+            }
+        }
+        return weights;
+    }
+
+    /** Raises the speed of the edge from u to w, if there is one, to at least speed. */
+    private static void setSpeed(CompactGraph c, double[] speeds, int u, int w, double speed) {
+        int k = c.edge(u, w);
+        if (k >= 0) {
+            speeds[k] = Math.max(speeds[k], speed);
+        }
+    }
+
+    /**
+     * Returns the speed of a way in mph, from its maxspeed tag or its highway type.
+     * @param tags The way's tags.
+     * @return The speed, always positive.
+     */
+    static double speed(Map<String, String> tags) {
+        double tagged = parseMaxspeed(tags.get("maxspeed"));
+        if (tagged > 0) {
+            return tagged;
+        }
+        return DEFAULT_SPEEDS.getOrDefault(tags.get("highway"), FALLBACK_SPEED);
+    }
+
+    /**
+     * Parses an OSM maxspeed value such as "25 mph", "50" or "50 km/h". Plain numbers are in
+     * km/h, as OSM specifies.
+     * @param value The tag value, or null.
+     * @return The speed in mph, or 0 if the value is missing or not a single number.
+     */
+    static double parseMaxspeed(String value) {
+        if (value == null) {
+            return 0;
+        }
+        String s = value.trim().toLowerCase();
+        boolean mph = s.endsWith("mph");
+        s = s.replace("mph", "").replace("km/h", "").replace("kmh", "").trim();
+        try {
+            double speed = Double.parseDouble(s);
+            if (speed <= 0) {
+                return 0;
+            }
+            return mph ? speed : speed * MILES_PER_KM;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a copy of the weights with the road between two vertices closed both ways.
+     * @param g The road graph.
+     * @param weights The weight of each directed edge.
+     * @param u The index of one end of the road.
+     * @param w The index of the other end.
+     * @return The new weights.
+     */
+    public static double[] close(CompactGraph g, double[] weights, int u, int w) {
+        double[] result = weights.clone();
+        for (int[] ends : new int[][]{{u, w}, {w, u}}) {
+            int k = g.edge(ends[0], ends[1]);
+            if (k >= 0) {
+                result[k] = Double.POSITIVE_INFINITY;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the weights with the road between two vertices multiplied by a penalty
+     * both ways, as for congestion or road works.
+     * @param g The road graph.
+     * @param weights The weight of each directed edge.
+     * @param u The index of one end of the road.
+     * @param w The index of the other end.
+     * @param factor The penalty, at least 1.
+     * @return The new weights.
+     */
+    public static double[] scale(CompactGraph g, double[] weights, int u, int w, double factor) {
+        double[] result = weights.clone();
+        for (int[] ends : new int[][]{{u, w}, {w, u}}) {
+            int k = g.edge(ends[0], ends[1]);
+            if (k >= 0) {
+                result[k] *= factor;
+            }
+        }
+        return result;
+    }
+}
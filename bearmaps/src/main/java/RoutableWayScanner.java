@@ -0,0 +1,61 @@
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * First pass of the two-pass OSM loader. Skips every node and records only the ids of nodes
+ * referenced by routable ways, that is, ways whose highway tag is one of
+ * <code>GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES</code> and that have at least two nodes. These
+ * are exactly the nodes that survive <code>GraphDB.clean</code>, so the second pass only needs to
+ * materialize them.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class RoutableWayScanner extends DefaultHandler {
+    /** Ids of the nodes referenced by routable ways. */
+    private final LongHashSet referenced = new LongHashSet(1 << 16);
+    /** Node refs of the way currently being scanned. */
+    private long[] wayRefs = new long[64];
+    private int wayLength;
+    private boolean inWay;
+    private boolean isValid;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+            throws SAXException {
+        if (qName.equals("way")) {
+            inWay = true;
+            wayLength = 0;
+            isValid = false;
+        } else if (inWay && qName.equals("nd")) {
+            if (wayLength == wayRefs.length) {
+                long[] bigger = new long[wayRefs.length * 2];
+                System.arraycopy(wayRefs, 0, bigger, 0, wayLength);
+                wayRefs = bigger;
+            }
+            wayRefs[wayLength] = Long.parseLong(attributes.getValue("ref"));
+            wayLength += 1;
+        } else if (inWay && qName.equals("tag") && "highway".equals(attributes.getValue("k"))) {
+            if (GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.contains(attributes.getValue("v"))) {
+                isValid = true;
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (qName.equals("way")) {
+            if (isValid && wayLength > 1) {
+                for (int i = 0; i < wayLength; i += 1) {
+                    referenced.add(wayRefs[i]);
+                }
+            }
+            inWay = false;
+        }
+    }
+
+    /** Returns the ids of the nodes referenced by routable ways. */
+    LongHashSet referenced() {
+        return referenced;
+    }
+}
@@ -0,0 +1,289 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of shortest paths between pairs of vertices, or between pairs of points snapped
+ * onto road segments, safe to share between request threads. Roads are undirected, so a path
+ * cached one way also answers the reverse query, read backwards.
+ *
+ * Snapped paths are keyed on the two segments and on each point's exact position along its
+ * segment. Rounding the positions would let one entry answer queries whose shortest paths
+ * differ, such as the two directions between nearby points on one segment.
+ *
+ * Entries are spread over a fixed number of segments by key, each an access-ordered
+ * <code>LinkedHashMap</code> behind its own lock, so threads only contend when they touch the
+ * same segment. Each segment evicts its least recently used paths once it holds more than its
+ * share of either bound: the number of paths or their total weight, the number of vertices on
+ * them, which is what a path costs in memory.
+ *
+ * Every path remembers the graph it was computed on and is only served for that graph. Storing a
+ * path for a new graph drops everything cached for the old one.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class RouteCache {
+    /** Number of independently locked segments; a power of two. */
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int maxEntries;
+    private final long maxWeight;
+    /** The graph the cached paths belong to. */
+    private volatile Object owner;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder reversedHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates an empty cache. Either bound of 0 disables caching.
+     * @param maxEntries The most paths to keep.
+     * @param maxWeight The most vertices to keep, over all paths.
+     */
+    public RouteCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        for (int i = 0; i < SEGMENTS; i += 1) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /** A cached path and the graph it was computed on. */
+    private static class Route {
+        final Object graph;
+        final int[] path;
+
+        Route(Object graph, int[] path) {
+            this.graph = graph;
+            this.path = path;
+        }
+    }
+
+    /** One lock's share of the cache. */
+    private static class Segment {
+        final LinkedHashMap<Object, Route> routes = new LinkedHashMap<>(16, 0.75f, true);
+        long weight;
+    }
+
+    /** The key of a snapped path: both segments and the exact positions along them. */
+    private static class SnapKey {
+        final int startFrom, startTo, destFrom, destTo;
+        /** The bits of each position along its segment. */
+        final long startT, destT;
+
+        SnapKey(int startFrom, int startTo, long startT, int destFrom, int destTo, long destT) {
+            this.startFrom = startFrom;
+            this.startTo = startTo;
+            this.startT = startT;
+            this.destFrom = destFrom;
+            this.destTo = destTo;
+            this.destT = destT;
+        }
+
+        SnapKey(SegmentIndex.Snap start, SegmentIndex.Snap dest) {
+            this(start.from, start.to, Double.doubleToLongBits(start.t),
+                    dest.from, dest.to, Double.doubleToLongBits(dest.t));
+        }
+
+        SnapKey reversed() {
+            return new SnapKey(destFrom, destTo, destT, startFrom, startTo, startT);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SnapKey)) {
+                return false;
+            }
+            SnapKey k = (SnapKey) o;
+            return startFrom == k.startFrom && startTo == k.startTo && startT == k.startT
+                    && destFrom == k.destFrom && destTo == k.destTo && destT == k.destT;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = startFrom;
+            h = 31 * h + startTo;
+            h = 31 * h + Long.hashCode(startT);
+            h = 31 * h + destFrom;
+            h = 31 * h + destTo;
+            return 31 * h + Long.hashCode(destT);
+        }
+    }
+
+    /** Returns whether this cache keeps anything at all. */
+    public boolean enabled() {
+        return maxEntries > 0 && maxWeight > 0;
+    }
+
+    /**
+     * Returns the cached path from start to dest on <code>graph</code>, reversing the path from
+     * dest to start if only that one is cached.
+     * @param graph The graph being searched.
+     * @param start The index of the start vertex.
+     * @param dest The index of the destination vertex.
+     * @return The vertex indices from start to dest, or null on a miss. Callers may not modify it.
+     */
+    public int[] get(Object graph, int start, int dest) {
+        return get(graph, key(start, dest), key(dest, start));
+    }
+
+    /**
+     * Returns the cached path between two snapped points on <code>graph</code>, reversing the
+     * path cached the other way if only that one is.
+     * @param graph The graph being searched.
+     * @param start The start, snapped onto its segment.
+     * @param dest The destination, snapped onto its segment.
+     * @return The vertex indices from start to dest, or null on a miss. Callers may not modify it.
+     */
+    public int[] get(Object graph, SegmentIndex.Snap start, SegmentIndex.Snap dest) {
+        SnapKey key = new SnapKey(start, dest);
+        return get(graph, key, key.reversed());
+    }
+
+    private int[] get(Object graph, Object key, Object reverseKey) {
+        int[] path = lookup(graph, key);
+        if (path != null) {
+            hits.increment();
+            return path;
+        }
+        path = lookup(graph, reverseKey);
+        if (path != null) {
+            hits.increment();
+            reversedHits.increment();
+            int[] reversed = new int[path.length];
+            for (int i = 0; i < path.length; i += 1) {
+                reversed[i] = path[path.length - 1 - i];
+            }
+            return reversed;
+        }
+        misses.increment();
+        return null;
+    }
+
+    private int[] lookup(Object graph, Object key) {
+        Segment s = segment(key);
+        synchronized (s) {
+            Route r = s.routes.get(key);
+            return r != null && r.graph == graph ? r.path : null;
+        }
+    }
+
+    /**
+     * Caches the path from start to dest on <code>graph</code>, evicting the least recently used
+     * paths of its segment if it is over either bound.
+     * @param graph The graph that was searched.
+     * @param start The index of the start vertex.
+     * @param dest The index of the destination vertex.
+     * @param path The vertex indices from start to dest. The cache keeps it, unmodified.
+     */
+    public void put(Object graph, int start, int dest, int[] path) {
+        put(graph, (Object) key(start, dest), path);
+    }
+
+    /**
+     * Caches the path between two snapped points on <code>graph</code>, as
+     * <code>put(graph, start, dest, path)</code> caches one between vertices.
+     * @param graph The graph that was searched.
+     * @param start The start, snapped onto its segment.
+     * @param dest The destination, snapped onto its segment.
+     * @param path The vertex indices from start to dest. The cache keeps it, unmodified.
+     */
+    public void put(Object graph, SegmentIndex.Snap start, SegmentIndex.Snap dest, int[] path) {
+        put(graph, new SnapKey(start, dest), path);
+    }
+
+    private void put(Object graph, Object key, int[] path) {
+        if (!enabled() || path.length > maxWeight / SEGMENTS) {
+            return;
+        }
+        if (owner != graph) {
+            synchronized (this) {
+                if (owner != graph) {
+                    invalidate();
+                    owner = graph;
+                }
+            }
+        }
+        Segment s = segment(key);
+        synchronized (s) {
+            Route old = s.routes.put(key, new Route(graph, path));
+            s.weight += path.length - (old == null ? 0 : old.path.length);
+            Iterator<Route> eldest = s.routes.values().iterator();
+            while (s.routes.size() > Math.max(1, maxEntries / SEGMENTS)
+                    || s.weight > maxWeight / SEGMENTS) {
+                s.weight -= eldest.next().path.length;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /** Drops every cached path. */
+    public void invalidate() {
+        for (Segment s : segments) {
+            synchronized (s) {
+                s.routes.clear();
+                s.weight = 0;
+            }
+        }
+    }
+
+    /** Returns the number of paths cached. */
+    public int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                size += s.routes.size();
+            }
+        }
+        return size;
+    }
+
+    /** Returns the number of vertices on all cached paths. */
+    public long weight() {
+        long weight = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                weight += s.weight;
+            }
+        }
+        return weight;
+    }
+
+    /** Returns the number of lookups answered, including those answered by a reversed path. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Returns the number of lookups answered by reversing the path cached the other way. */
+    public long reversedHits() {
+        return reversedHits.sum();
+    }
+
+    /** Returns the number of lookups that found nothing. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Returns the number of paths evicted to stay within bounds. */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d routes, %d vertices; %d hits (%d reversed), %d misses,"
+                + " %d evictions", size(), weight(), hits(), reversedHits(), misses(), evictions());
+    }
+
+    private static long key(int start, int dest) {
+        return (long) start << 32 | dest;
+    }
+
+    private Segment segment(Object key) {
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 60) & (SEGMENTS - 1)];
+    }
+}
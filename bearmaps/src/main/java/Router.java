@@ -1,10 +1,9 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.IntToDoubleFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.PriorityQueue;
-import java.util.HashMap;
 import java.util.ArrayList;
 
 /**
@@ -26,70 +25,441 @@ public class Router {
     public static List<Long> shortestPath(GraphDB g,
                                           double stlon, double stlat,
                                           double destlon, double destlat) {
-        long startID = g.closest(stlon, stlat);
-        long destID = g.closest(destlon, destlat);
-        HashMap<Long, Double> best = new HashMap<>();
-        HashMap<Long, Long> edgeTo = new HashMap<>();
-        ArrayList<Long> result = new ArrayList<>();
-        PriorityQueue<GraphDB.Vertex> fringe = new PriorityQueue<>((o1, o2) -> {
-            if (best.containsKey(o1.id) && !best.containsKey(o2.id)) {
-                return -1;
-            } else if (!best.containsKey(o1.id) && best.containsKey(o2.id)) {
-                return 1;
-            } else if (best.containsKey(o1.id) && best.containsKey(o2.id)) {
-                return Double.compare(best.get(o1.id)
-                        + g.distance(o1.id, destID), best.get(o2.id)
-                        + g.distance(o2.id, destID));
-            } else {
-                return 0;
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.AUTO);
+    }
+
+    /**
+     * Like <code>shortestPath</code>, with a choice of search algorithm.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param algorithm The search to run.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm) {
+        int start = g.closestIndex(stlon, stlat);
+        int dest = g.closestIndex(destlon, destlat);
+        RouteCache routes = cache;
+        boolean cacheable = algorithm == Algorithm.AUTO && routes.enabled();
+        if (cacheable) {
+            int[] cached = routes.get(g, start, dest);
+            if (cached != null) {
+                return toIdList(g.csr, cached);
             }
-        });
-        fringe.add(g.nodes.get(startID));
-        best.put(startID, 0.0);
-        while (!fringe.isEmpty()) {
-            GraphDB.Vertex curr = fringe.poll();
-            long currID = curr.id;
-            if (currID == destID) {
-                result.add(destID);
+        }
+        int[] path = search(g, start, dest, algorithm);
+        if (cacheable) {
+            routes.put(g, start, dest, path);
+        }
+        return toIdList(g.csr, path);
+    }
+
+    /**
+     * Finds the shortest path between two vertices with the calling thread's search context,
+     * bypassing the route cache. Vertices in different components are rejected without a
+     * search, which would otherwise settle every vertex reachable from the start first.
+     * @param g <code>GraphDB</code> data source.
+     * @param start The index of the start vertex.
+     * @param dest The index of the destination vertex.
+     * @param algorithm The search to run.
+     * @return The indices of the vertices on the path, or an empty array if there is none.
+     */
+    static int[] search(GraphDB g, int start, int dest, Algorithm algorithm) {
+        if (!g.components.connected(start, dest)) {
+            return new int[0];
+        }
+        SearchContext ctx = context(g.csr);
+        int[] path;
+        switch (algorithm.resolve(g)) {
+            case CH:
+                path = g.ch.shortestPath(ctx, start, dest);
+                break;
+            case BIDIRECTIONAL:
+                path = BidirectionalAStar.shortestPath(g.csr, ctx, start, dest);
+                break;
+            case CCH:
+                path = g.customization().hierarchy.shortestPath(ctx, start, dest);
                 break;
+            case ALT:
+                IntToDoubleFunction bound = g.landmarks.potential(new int[]{dest}, new double[]{0});
+                int end = AStar.search(g.csr, ctx, new int[]{start}, new double[]{0},
+                        new int[]{dest}, new double[]{0}, bound, Double.POSITIVE_INFINITY);
+                path = end < 0 ? new int[0] : ctx.path(end);
+                break;
+            default:
+                path = AStar.shortestPath(g.csr, ctx, start, dest);
+                break;
+        }
+        return path;
+    }
+
+    /** Default bounds of the route cache: paths, and vertices over all paths. */
+    private static final int CACHE_ROUTES = 4096;
+    private static final long CACHE_VERTICES = 1 << 20;
+
+    /**
+     * Paths found for <code>Algorithm.AUTO</code> requests, by nearest start and destination
+     * vertex or by snapped start and destination point. Requests naming an algorithm always
+     * search, so that algorithms can be compared.
+     */
+    private static volatile RouteCache cache = new RouteCache(CACHE_ROUTES, CACHE_VERTICES);
+
+    /** Returns the route cache, for its statistics. */
+    public static RouteCache routeCache() {
+        return cache;
+    }
+
+    /**
+     * Replaces the route cache with an empty one of the given bounds; either bound of 0 turns
+     * caching off.
+     * @param maxRoutes The most paths to keep.
+     * @param maxVertices The most vertices to keep, over all paths.
+     */
+    public static void configureCache(int maxRoutes, long maxVertices) {
+        cache = new RouteCache(maxRoutes, maxVertices);
+    }
+
+    /** Drops every cached route, as when the graph is replaced. */
+    public static void invalidateCache() {
+        cache.invalidate();
+    }
+
+    /**
+     * Returns the length of the shortest path between the vertices closest to two points,
+     * without the path itself. With hub labels loaded this merges two sorted labels and runs no
+     * search; otherwise it falls back to <code>shortestPath</code>.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @return The length in miles, or infinity if the destination cannot be reached.
+     */
+    public static double distanceOnly(GraphDB g,
+                                      double stlon, double stlat,
+                                      double destlon, double destlat) {
+        int start = g.closestIndex(stlon, stlat);
+        int dest = g.closestIndex(destlon, destlat);
+        if (!g.components.connected(start, dest)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (g.labels != null) {
+            return g.labels.distance(start, dest);
+        }
+        List<Long> path = shortestPath(g, stlon, stlat, destlon, destlat);
+        if (path.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double total = 0;
+        for (int i = 1; i < path.size(); i += 1) {
+            total += g.distance(path.get(i - 1), path.get(i));
+        }
+        return total;
+    }
+
+    /**
+     * Returns the length of the shortest path from the vertex closest to each origin to the
+     * vertex closest to each destination, snapping every point in one batch. Rows are computed
+     * in parallel, each by one search that stops once all destinations are settled, or by label
+     * merges if hub labels are loaded.
+     * @param g <code>GraphDB</code> data source.
+     * @param originLons The longitudes of the origins.
+     * @param originLats The latitudes of the origins, in the same order.
+     * @param destLons The longitudes of the destinations.
+     * @param destLats The latitudes of the destinations, in the same order.
+     * @return The length in miles from origin i to destination j at [i][j], or infinity if it
+     * cannot be reached.
+     */
+    public static double[][] distanceMatrix(GraphDB g,
+                                            double[] originLons, double[] originLats,
+                                            double[] destLons, double[] destLats) {
+        int[] origins = g.closestIndices(originLons, originLats);
+        int[] destinations = g.closestIndices(destLons, destLats);
+        return DistanceMatrix.compute(g.csr, g.labels, g.components, origins, destinations);
+    }
+
+    /**
+     * Returns every vertex within each of several distances of a point, measured along roads
+     * from where the point snaps onto the nearest road segment, in one bounded sweep.
+     * @param g <code>GraphDB</code> data source.
+     * @param lon The longitude of the starting point.
+     * @param lat The latitude of the starting point.
+     * @param budgets The distances in miles, in any order; none may be negative.
+     * @return The vertices reached, nearest first, and how many lie within each budget, with
+     * the budgets sorted.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double[] budgets) {
+        CompactGraph c = g.csr;
+        SegmentIndex.Snap start = g.snap(lon, lat);
+        int[] sources = {};
+        double[] sourceCosts = {};
+        if (start != null) {
+            double length = c.distance(start.from, start.to);
+            sources = new int[]{start.from, start.to};
+            sourceCosts = new double[]{start.t * length, (1 - start.t) * length};
+        }
+        return Isochrone.compute(c, context(c), sources, sourceCosts, budgets);
+    }
+
+    /** The shortest-path searches a route request can choose from. */
+    public enum Algorithm {
+        /**
+         * The contraction hierarchy if the graph has one, then ALT if it has landmarks, and A*
+         * otherwise.
+         */
+        AUTO,
+        /** A* forward from the start. */
+        ASTAR,
+        /** A* forward from the start and backward from the destination at once. */
+        BIDIRECTIONAL,
+        /** Upward searches through the contraction hierarchy, or A* if there is none. */
+        CH,
+        /** A* with landmark lower bounds as its heuristic, or plain A* if there are none. */
+        ALT,
+        /**
+         * Upward searches through the customizable hierarchy, minimizing its current metric,
+         * such as travel time, rather than distance; A* if it is neither prepared nor allowed.
+         */
+        CCH;
+
+        /** Returns the algorithm that will actually run on <code>g</code>. */
+        Algorithm resolve(GraphDB g) {
+            if ((this == AUTO || this == CH) && g.ch != null) {
+                return CH;
+            } else if ((this == AUTO || this == ALT) && g.landmarks != null) {
+                return ALT;
+            } else if (this == CCH && g.customization() != null) {
+                return CCH;
+            } else if (this == AUTO || this == CH || this == ALT || this == CCH) {
+                return ASTAR;
             }
-            for (long l: g.adjacent(currID)) {
-                GraphDB.Vertex vl = g.nodes.get(l);
-                if (best.containsKey(l)) {
-                    if (best.get(l) > best.get(currID) + g.distance(currID, l)) {
-                        best.put(l, best.get(currID) + g.distance(currID, l));
-                        edgeTo.put(l, currID);
-                        fringe.add(g.constructVertex(l, vl.getLat(), vl.getLon(),
-                                null));
-                    }
-                } else {
-                    best.put(l, best.get(currID) + g.distance(currID, l));
-                    edgeTo.put(l, currID);
-                    fringe.add(g.constructVertex(l, vl.getLat(), vl.getLon(),
-                            null));
-                }
+            return this;
+        }
+
+        /**
+         * Parses a request parameter, case-insensitively, defaulting to <code>AUTO</code>.
+         * @param name The parameter value, or null if it was not given.
+         * @return The algorithm it names.
+         * @throws IllegalArgumentException If it names no algorithm.
+         */
+        public static Algorithm from(String name) {
+            if (name == null || name.isEmpty()) {
+                return AUTO;
             }
+            try {
+                return valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                String msg = String.format("Request failed: unknown algorithm %s.", name);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of vertices settled by the last search on the calling thread, in both
+     * directions for bidirectional searches.
+     */
+    public static int lastSettledCount() {
+        SearchContext ctx = CONTEXTS.get();
+        return ctx == null ? 0 : ctx.settled();
+    }
+
+    /** Search contexts, one per thread, each sized for the last graph that thread searched. */
+    private static final ThreadLocal<SearchContext> CONTEXTS = new ThreadLocal<>();
+
+    /** Returns the calling thread's search context, sized for <code>c</code>. */
+    static SearchContext context(CompactGraph c) {
+        SearchContext ctx = CONTEXTS.get();
+        if (ctx == null || ctx.capacity() != c.size()) {
+            ctx = new SearchContext(c.size());
+            CONTEXTS.set(ctx);
         }
-        long threshold = destID;
-        while (edgeTo.get(threshold) != null && threshold != startID) {
-            long durr = edgeTo.get(threshold);
-            result.add(0, durr);
-            threshold = durr;
+        return ctx;
+    }
+
+    /** Converts a path of vertex indices into a list of vertex IDs. */
+    private static List<Long> toIdList(CompactGraph c, int[] path) {
+        ArrayList<Long> result = new ArrayList<>(path.length);
+        for (int v : path) {
+            result.add(c.id(v));
         }
         return result;
     }
 
+    /**
+     * Like <code>shortestPath</code>, but snaps the start and destination onto the nearest point
+     * of the nearest road segment instead of the nearest vertex, so a point in the middle of a
+     * long block does not first detour to an intersection. The snapped points become virtual
+     * vertices that exist only in this search; the shared graph is never modified.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @return The IDs of the vertices passed between the two snapped points. If both points snap
+     * to the same segment, the two ends of that segment in the direction of travel.
+     */
+    public static List<Long> snappedShortestPath(GraphDB g,
+                                                 double stlon, double stlat,
+                                                 double destlon, double destlat) {
+        return snappedShortestPath(g, stlon, stlat, destlon, destlat, Algorithm.AUTO);
+    }
+
+    /**
+     * Like <code>snappedShortestPath</code>, with a choice of search algorithm.
+     * @param g <code>GraphDB</code> data source.
+     * @param stlon The longitude of the starting coordinate.
+     * @param stlat The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param algorithm The search to run.
+     * @return The IDs of the vertices passed between the two snapped points.
+     */
+    public static List<Long> snappedShortestPath(GraphDB g,
+                                                 double stlon, double stlat,
+                                                 double destlon, double destlat,
+                                                 Algorithm algorithm) {
+        SegmentIndex.Snap start = g.snap(stlon, stlat);
+        SegmentIndex.Snap dest = g.snap(destlon, destlat);
+        if (start == null || dest == null || !g.components.connected(start.from, dest.from)) {
+            return Collections.emptyList();
+        }
+        RouteCache routes = cache;
+        boolean cacheable = algorithm == Algorithm.AUTO && routes.enabled();
+        if (cacheable) {
+            int[] cached = routes.get(g, start, dest);
+            if (cached != null) {
+                return toIdList(g.csr, cached);
+            }
+        }
+        int[] path = snappedSearch(g, start, dest, algorithm);
+        if (cacheable) {
+            routes.put(g, start, dest, path);
+        }
+        return toIdList(g.csr, path);
+    }
+
+    /**
+     * Finds the shortest path between two snapped points, bypassing the route cache.
+     * @return The indices of the vertices passed between the two points.
+     */
+    private static int[] snappedSearch(GraphDB g, SegmentIndex.Snap start, SegmentIndex.Snap dest,
+                                       Algorithm algorithm) {
+        CompactGraph c = g.csr;
+        Algorithm resolved = algorithm.resolve(g);
+        /* Under a customized metric, the partial edges at either end cost their share of it. */
+        CustomizableContractionHierarchy.Customization metric =
+                resolved == Algorithm.CCH ? g.customization() : null;
+        double startLen = snapLength(c, metric, start);
+        double destLen = snapLength(c, metric, dest);
+        double direct = Double.POSITIVE_INFINITY;
+        if (start.from == dest.from && start.to == dest.to) {
+            direct = Math.abs(start.t - dest.t) * startLen;
+        }
+
+        SearchContext ctx = context(c);
+        int[] sources = {start.from, start.to};
+        double[] sourceCosts = {start.t * startLen, (1 - start.t) * startLen};
+        int[] targets = {dest.from, dest.to};
+        double[] targetCosts = {dest.t * destLen, (1 - dest.t) * destLen};
+        int[] path = null;
+        if (resolved == Algorithm.CH) {
+            path = g.ch.search(ctx, sources, sourceCosts, targets, targetCosts, direct);
+        } else if (metric != null) {
+            path = metric.hierarchy.search(ctx, sources, sourceCosts, targets, targetCosts,
+                    direct);
+        } else if (resolved == Algorithm.BIDIRECTIONAL) {
+            path = BidirectionalAStar.search(c, ctx, sources, sourceCosts, targets, targetCosts,
+                    start.lat, start.lon, dest.lat, dest.lon, direct);
+        } else {
+            int end;
+            if (resolved == Algorithm.ALT) {
+                end = AStar.search(c, ctx, sources, sourceCosts, targets, targetCosts,
+                        g.landmarks.potential(targets, targetCosts), direct);
+            } else {
+                end = AStar.search(c, ctx, sources, sourceCosts, targets, targetCosts,
+                        dest.lat, dest.lon, direct);
+            }
+            if (end >= 0) {
+                path = ctx.path(end);
+            }
+        }
+        if (path != null) {
+            return path;
+        }
+        if (direct == Double.POSITIVE_INFINITY) {
+            return new int[0];
+        } else if (start.from == start.to) {
+            return new int[]{start.from};
+        }
+        boolean forward = start.t <= dest.t;
+        return forward ? new int[]{start.from, start.to} : new int[]{start.to, start.from};
+    }
+
+    /**
+     * Returns the cost of the whole segment a point snapped onto, or 0 if it snapped onto a
+     * vertex.
+     */
+    private static double snapLength(CompactGraph c,
+                                     CustomizableContractionHierarchy.Customization metric,
+                                     SegmentIndex.Snap snap) {
+        if (snap.from == snap.to) {
+            return 0;
+        }
+        return metric != null ? metric.weight(c, snap.from, snap.to)
+                : c.distance(snap.from, snap.to);
+    }
+
     /**
      * Given a <code>route</code> of vertex IDs, return a <code>List</code> of
      * <code>NavigationDirection</code> objects representing the travel directions in order.
+     * Consecutive edges on ways of the same name make up one direction. Each edge is named from
+     * <code>g.ways</code>, so this takes one pass over the route and never looks at the ways.
      * @param g <code>GraphDB</code> data source.
      * @param route The shortest-path route of vertex IDs.
      * @return A new <code>List</code> of <code>NavigationDirection</code> objects.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        // TODO
-
-        return Collections.emptyList();
+        CompactGraph c = g.csr;
+        ArrayList<NavigationDirection> result = new ArrayList<>();
+        NavigationDirection current = null;
+        /* The ends of the last edge, whose bearing is only needed where the way changes. */
+        int lastFrom = -1;
+        int lastTo = -1;
+        int prev = route.isEmpty() ? -1 : c.indexOf(route.get(0));
+        for (int i = 1; i < route.size(); i += 1) {
+            int v = c.indexOf(route.get(i));
+            int k = prev >= 0 && v >= 0 ? c.edge(prev, v) : -1;
+            if (k < 0) {
+                prev = v;
+                continue;
+            }
+            String way = g.ways.name(k);
+            /* Consecutive edges of the same way merge into one direction. */
+            if (current == null || !way.equals(current.way)) {
+                NavigationDirection next = new NavigationDirection();
+                if (current == null) {
+                    next.direction = NavigationDirection.START;
+                } else {
+                    double before = GraphDB.bearing(c.lat[lastFrom], c.lon[lastFrom],
+                            c.lat[lastTo], c.lon[lastTo]);
+                    double after = GraphDB.bearing(c.lat[prev], c.lon[prev], c.lat[v], c.lon[v]);
+                    next.direction = NavigationDirection.turn(after - before);
+                }
+                next.way = way;
+                result.add(next);
+                current = next;
+            }
+            current.distance += c.distance(prev, v);
+            lastFrom = prev;
+            lastTo = v;
+            prev = v;
+        }
+        return result;
     }
 
     /**
@@ -119,6 +489,33 @@ public class Router {
             DIRECTIONS[SHARP_RIGHT] = "Sharp right";
         }
 
+        /** Largest turns, in degrees either way, still given as straight, slight and plain. */
+        private static final double STRAIGHT_MAX = 15, SLIGHT_MAX = 30, TURN_MAX = 100;
+
+        /**
+         * Returns the direction for a change of bearing.
+         * @param degrees The new bearing minus the old, in degrees; clockwise is positive.
+         * @return One of the turning directions: every direction but <code>START</code>.
+         */
+        static int turn(double degrees) {
+            double relative = degrees % 360;
+            if (relative > 180) {
+                relative -= 360;
+            } else if (relative < -180) {
+                relative += 360;
+            }
+            double size = Math.abs(relative);
+            boolean right = relative > 0;
+            if (size <= STRAIGHT_MAX) {
+                return STRAIGHT;
+            } else if (size <= SLIGHT_MAX) {
+                return right ? SLIGHT_RIGHT : SLIGHT_LEFT;
+            } else if (size <= TURN_MAX) {
+                return right ? RIGHT : LEFT;
+            }
+            return right ? SHARP_RIGHT : SHARP_LEFT;
+        }
+
         /** The direction represented.*/
         int direction;
         /** The name of this way. */
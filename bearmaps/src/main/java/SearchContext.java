@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * The per-vertex working state of a shortest-path search over a <code>CompactGraph</code>:
+ * distances, cached heuristic values, parents and the heap. A context is reused from query to
+ * query by one thread at a time. Instead of clearing its arrays, <code>reset</code> bumps an
+ * epoch, and a vertex's entries only count if it was stamped in the current epoch, so starting a
+ * query costs nothing however large the graph is.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class SearchContext {
+    /** Best known distance from the sources to each vertex. */
+    final double[] dist;
+    /** Heuristic estimate from each vertex to the destination, computed once per query. */
+    final double[] heuristic;
+    /** The vertex each vertex was reached from, or -1 for a source. */
+    final int[] parent;
+    final IndexedHeap heap;
+    /** Number of vertices settled by the last query, in every direction it searched. */
+    int settled;
+    private final int[] stamp;
+    private int epoch;
+    /** A second context of the same size, for the backward half of bidirectional searches. */
+    private SearchContext reverse;
+
+    /**
+     * Creates a context for graphs with n vertices.
+     * @param n The number of vertices.
+     */
+    public SearchContext(int n) {
+        dist = new double[n];
+        heuristic = new double[n];
+        parent = new int[n];
+        stamp = new int[n];
+        heap = new IndexedHeap(n);
+        epoch = 1;
+    }
+
+    /** Returns the number of vertices this context was created for. */
+    public int capacity() {
+        return dist.length;
+    }
+
+    /** Returns the number of vertices settled by the last query run with this context. */
+    public int settled() {
+        return settled;
+    }
+
+    /** Returns the context for the backward search paired with this one, made on first use. */
+    SearchContext reverse() {
+        if (reverse == null) {
+            reverse = new SearchContext(capacity());
+        }
+        return reverse;
+    }
+
+    /** Forgets every vertex touched by the previous query. */
+    void reset() {
+        heap.clear();
+        settled = 0;
+        epoch += 1;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            epoch = 1;
+        }
+    }
+
+    /** Returns whether v has been touched since the last reset. */
+    boolean touched(int v) {
+        return stamp[v] == epoch;
+    }
+
+    /**
+     * Marks v as touched in this query, unreached, with the given heuristic value.
+     * @param v The vertex index.
+     * @param h The heuristic estimate from v to the destination.
+     */
+    void touch(int v, double h) {
+        stamp[v] = epoch;
+        dist[v] = Double.POSITIVE_INFINITY;
+        heuristic[v] = h;
+        parent[v] = -1;
+    }
+
+    /** Returns the vertices from a source to <code>end</code>, following parents. */
+    int[] path(int end) {
+        int length = 0;
+        for (int v = end; v >= 0; v = parent[v]) {
+            length += 1;
+        }
+        int[] path = new int[length];
+        for (int v = end; v >= 0; v = parent[v]) {
+            length -= 1;
+            path[length] = v;
+        }
+        return path;
+    }
+}
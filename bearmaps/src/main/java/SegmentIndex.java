@@ -0,0 +1,274 @@
+import java.util.Arrays;
+
+/**
+ * A static R-tree over the road segments of a <code>CompactGraph</code>, in projected
+ * coordinates, for snapping points onto the nearest road rather than the nearest intersection.
+ *
+ * The tree is bulk-loaded as a packed Hilbert R-tree: segments are sorted by the position of
+ * their box centers along a Hilbert curve, and consecutive runs of <code>FANOUT</code> boxes
+ * become the parents of the next level up, which keeps the boxes compact on every level. Every
+ * level is stored as flat bounding-box arrays, and the children of entry i on one level are
+ * entries [i * FANOUT, (i + 1) * FANOUT) on the level below, so there are no node objects. The
+ * index is immutable once built and queries keep their state on the stack, so it may be shared
+ * by any number of threads.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class SegmentIndex {
+    /** Number of children per R-tree node. */
+    private static final int FANOUT = 16;
+
+    private final CompactGraph g;
+    /** Endpoints (vertex indices) of each segment, in Hilbert order. */
+    private final int[] from, to;
+    /**
+     * Bounding boxes per level: level 0 holds one box per segment, and the last level holds the
+     * root's single box.
+     */
+    private final double[][] minX, minY, maxX, maxY;
+
+    /** The point on a road segment closest to a query point. */
+    public static class Snap {
+        /** The endpoints of the segment, as vertex indices. */
+        public final int from, to;
+        /** How far along the segment from <code>from</code> to <code>to</code> the point lies. */
+        public final double t;
+        /** The coordinates of the snapped point. */
+        public final double lon, lat;
+
+        Snap(int from, int to, double t, double lon, double lat) {
+            this.from = from;
+            this.to = to;
+            this.t = t;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
+
+    /**
+     * Bulk-loads the index over every edge of <code>g</code>, counting each road segment once.
+     * @param g The graph whose edges to index.
+     */
+    public SegmentIndex(CompactGraph g) {
+        this.g = g;
+        int n = g.size();
+        int m = 0;
+        for (int u = 0; u < n; u += 1) {
+            for (int k = g.offsets[u]; k < g.offsets[u + 1]; k += 1) {
+                if (u < g.targets[k]) {
+                    m += 1;
+                }
+            }
+        }
+        int[] us = new int[m];
+        int[] vs = new int[m];
+        int e = 0;
+        for (int u = 0; u < n; u += 1) {
+            for (int k = g.offsets[u]; k < g.offsets[u + 1]; k += 1) {
+                if (u < g.targets[k]) {
+                    us[e] = u;
+                    vs[e] = g.targets[k];
+                    e += 1;
+                }
+            }
+        }
+
+        double[] cx = new double[m];
+        double[] cy = new double[m];
+        for (int i = 0; i < m; i += 1) {
+            cx[i] = (g.x[us[i]] + g.x[vs[i]]) / 2;
+            cy[i] = (g.y[us[i]] + g.y[vs[i]]) / 2;
+        }
+        int[] perm = hilbertOrder(cx, cy);
+        this.from = new int[m];
+        this.to = new int[m];
+        for (int i = 0; i < m; i += 1) {
+            from[i] = us[perm[i]];
+            to[i] = vs[perm[i]];
+        }
+
+        int levels = 1;
+        for (int size = m; size > 1; size = (size + FANOUT - 1) / FANOUT) {
+            levels += 1;
+        }
+        minX = new double[levels][];
+        minY = new double[levels][];
+        maxX = new double[levels][];
+        maxY = new double[levels][];
+        minX[0] = new double[m];
+        minY[0] = new double[m];
+        maxX[0] = new double[m];
+        maxY[0] = new double[m];
+        for (int i = 0; i < m; i += 1) {
+            minX[0][i] = Math.min(g.x[from[i]], g.x[to[i]]);
+            maxX[0][i] = Math.max(g.x[from[i]], g.x[to[i]]);
+            minY[0][i] = Math.min(g.y[from[i]], g.y[to[i]]);
+            maxY[0][i] = Math.max(g.y[from[i]], g.y[to[i]]);
+        }
+        for (int level = 1; level < levels; level += 1) {
+            int below = minX[level - 1].length;
+            int size = (below + FANOUT - 1) / FANOUT;
+            minX[level] = new double[size];
+            minY[level] = new double[size];
+            maxX[level] = new double[size];
+            maxY[level] = new double[size];
+            Arrays.fill(minX[level], Double.POSITIVE_INFINITY);
+            Arrays.fill(minY[level], Double.POSITIVE_INFINITY);
+            Arrays.fill(maxX[level], Double.NEGATIVE_INFINITY);
+            Arrays.fill(maxY[level], Double.NEGATIVE_INFINITY);
+            for (int c = 0; c < below; c += 1) {
+                int p = c / FANOUT;
+                minX[level][p] = Math.min(minX[level][p], minX[level - 1][c]);
+                minY[level][p] = Math.min(minY[level][p], minY[level - 1][c]);
+                maxX[level][p] = Math.max(maxX[level][p], maxX[level - 1][c]);
+                maxY[level][p] = Math.max(maxY[level][p], maxY[level - 1][c]);
+            }
+        }
+    }
+
+    /**
+     * Returns the positions 0..m-1 of the segment centers sorted along a Hilbert curve over
+     * their bounding box.
+     */
+    private static int[] hilbertOrder(double[] cx, double[] cy) {
+        int m = cx.length;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < m; i += 1) {
+            minX = Math.min(minX, cx[i]);
+            maxX = Math.max(maxX, cx[i]);
+            minY = Math.min(minY, cy[i]);
+            maxY = Math.max(maxY, cy[i]);
+        }
+        double scaleX = maxX > minX ? 65535 / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? 65535 / (maxY - minY) : 0;
+        /* The 32-bit index goes in the high half so that sorting the longs sorts the positions. */
+        long[] keyed = new long[m];
+        for (int i = 0; i < m; i += 1) {
+            long d = hilbertIndex((int) ((cx[i] - minX) * scaleX), (int) ((cy[i] - minY) * scaleY));
+            keyed[i] = d << 32 | i;
+        }
+        Arrays.sort(keyed);
+        int[] perm = new int[m];
+        for (int i = 0; i < m; i += 1) {
+            perm[i] = (int) keyed[i];
+        }
+        return perm;
+    }
+
+    /** Returns the distance along a 65536 by 65536 Hilbert curve of the cell (x, y). */
+    private static long hilbertIndex(int x, int y) {
+        long d = 0;
+        for (int s = 1 << 15; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            /* Rotate the quadrant so that the curve inside it has the right orientation. */
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /** Returns the number of segments indexed. */
+    public int size() {
+        return from.length;
+    }
+
+    /**
+     * Returns the point on the nearest road segment to the given longitude and latitude.
+     * @param lon The longitude of the query point.
+     * @param lat The latitude of the query point.
+     * @return The snapped point, or null if the graph has no edges.
+     */
+    public Snap snap(double lon, double lat) {
+        if (from.length == 0) {
+            return null;
+        }
+        double x = GraphDB.projectToX(lon, lat);
+        double y = GraphDB.projectToY(lon, lat);
+        int top = minX.length - 1;
+        int seg = top == 0 ? 0 : search(top, 0, x, y, -1, Double.POSITIVE_INFINITY);
+        double t = project(seg, x, y);
+        int u = from[seg];
+        int v = to[seg];
+        return new Snap(u, v, t, g.lon[u] + t * (g.lon[v] - g.lon[u]),
+                g.lat[u] + t * (g.lat[v] - g.lat[u]));
+    }
+
+    /**
+     * Searches the children of entry <code>i</code> on <code>level</code> for a segment closer
+     * than <code>bestDist</code>, nearest box first, skipping children whose boxes are already
+     * too far away.
+     * @return The closest segment found so far, or <code>best</code> if none is closer.
+     */
+    private int search(int level, int i, double x, double y, int best, double bestDist) {
+        int lo = i * FANOUT;
+        int hi = Math.min(lo + FANOUT, minX[level - 1].length);
+        int count = hi - lo;
+        double[] boxDist = new double[count];
+        int[] children = new int[count];
+        for (int c = 0; c < count; c += 1) {
+            double d = boxDistSq(level - 1, lo + c, x, y);
+            /* Insertion sort by box distance; there are at most FANOUT children. */
+            int j = c;
+            while (j > 0 && boxDist[j - 1] > d) {
+                boxDist[j] = boxDist[j - 1];
+                children[j] = children[j - 1];
+                j -= 1;
+            }
+            boxDist[j] = d;
+            children[j] = lo + c;
+        }
+        for (int c = 0; c < count; c += 1) {
+            if (boxDist[c] >= bestDist) {
+                break;
+            }
+            int found = level == 1 ? children[c]
+                    : search(level - 1, children[c], x, y, best, bestDist);
+            if (found != best) {
+                double d = segmentDistSq(found, x, y);
+                if (d < bestDist) {
+                    best = found;
+                    bestDist = d;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Returns the squared distance from (x, y) to the box of entry i on the given level. */
+    private double boxDistSq(int level, int i, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[level][i] - x, x - maxX[level][i]));
+        double dy = Math.max(0, Math.max(minY[level][i] - y, y - maxY[level][i]));
+        return dx * dx + dy * dy;
+    }
+
+    /** Returns the fraction along segment s of the point on it closest to (x, y). */
+    private double project(int s, double x, double y) {
+        double ax = g.x[from[s]];
+        double ay = g.y[from[s]];
+        double dx = g.x[to[s]] - ax;
+        double dy = g.y[to[s]] - ay;
+        double len2 = dx * dx + dy * dy;
+        if (len2 == 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / len2));
+    }
+
+    /** Returns the squared distance from (x, y) to segment s. */
+    private double segmentDistSq(int s, double x, double y) {
+        double t = project(s, x, y);
+        double px = g.x[from[s]] + t * (g.x[to[s]] - g.x[from[s]]) - x;
+        double py = g.y[from[s]] + t * (g.y[to[s]] - g.y[from[s]]) - y;
+        return px * px + py * py;
+    }
+}
@@ -0,0 +1,319 @@
+import java.awt.Graphics;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+
+/**
+ * A bounded cache of map tiles, safe to share between request threads, so that panning around
+ * the map does not read and decode the same PNG files again for every raster.
+ *
+ * Tiles are kept in two tiers, both laid out like <code>RouteCache</code>: a fixed number of
+ * segments by tile name, each an access-ordered <code>LinkedHashMap</code> behind its own lock
+ * that evicts its least recently used tiles once it holds more than its share of the tier's
+ * bytes. The first tier holds decoded images, weighed by the size of their pixel buffers, with
+ * opaque tiles converted to packed RGB ints so that drawing them is a plain copy. The
+ * optional second tier holds the encoded PNG bytes, which take a tenth of the memory, so a tile
+ * that falls out of the first tier is decoded again without touching the disk.
+ *
+ * When several requests miss on the same tile at once, only the first reads and decodes it; the
+ * others wait for its result instead of repeating the work.
+ *
+ * Images handed out are shared, and callers may only read them.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class TileCache {
+    /** Number of independently locked segments per tier; a power of two. */
+    private static final int SEGMENTS = 16;
+
+    /** Reads the encoded bytes of a tile. */
+    public interface Loader {
+        /**
+         * Returns the PNG bytes of a tile.
+         * @param name The tile's file name, such as d1_x0_y1.png.
+         * @return The encoded tile.
+         * @throws IOException If the tile cannot be read.
+         */
+        byte[] read(String name) throws IOException;
+    }
+
+    private final Loader loader;
+    private final Tier<BufferedImage> images;
+    private final Tier<byte[]> pngs;
+    /** Loads in progress, by tile name, for requests that miss on the same tile to share. */
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> loading =
+            new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder pngHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Creates an empty cache. A bound of 0 turns its tier off.
+     * @param loader Where to read tiles that are not cached.
+     * @param maxImageBytes The most bytes of decoded pixels to keep.
+     * @param maxPngBytes The most bytes of encoded tiles to keep.
+     */
+    public TileCache(Loader loader, long maxImageBytes, long maxPngBytes) {
+        this.loader = loader;
+        this.images = new Tier<>(maxImageBytes);
+        this.pngs = new Tier<>(maxPngBytes);
+    }
+
+    /** One tier of the cache, split into segments. */
+    private static class Tier<V> {
+        final Segment<V>[] segments;
+        final long maxWeight;
+        final LongAdder evictions = new LongAdder();
+
+        @SuppressWarnings("unchecked")
+        Tier(long maxWeight) {
+            this.maxWeight = maxWeight;
+            this.segments = (Segment<V>[]) new Segment<?>[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i += 1) {
+                segments[i] = new Segment<>();
+            }
+        }
+
+        V get(String name) {
+            Segment<V> s = segment(name);
+            synchronized (s) {
+                Entry<V> e = s.entries.get(name);
+                return e == null ? null : e.value;
+            }
+        }
+
+        /** Keeps a value, unless it alone is over a segment's share of the tier. */
+        void put(String name, V value, long weight) {
+            if (weight > maxWeight / SEGMENTS) {
+                return;
+            }
+            Segment<V> s = segment(name);
+            synchronized (s) {
+                Entry<V> old = s.entries.put(name, new Entry<>(value, weight));
+                s.weight += weight - (old == null ? 0 : old.weight);
+                Iterator<Entry<V>> eldest = s.entries.values().iterator();
+                while (s.weight > maxWeight / SEGMENTS) {
+                    s.weight -= eldest.next().weight;
+                    eldest.remove();
+                    evictions.increment();
+                }
+            }
+        }
+
+        void invalidate() {
+            for (Segment<V> s : segments) {
+                synchronized (s) {
+                    s.entries.clear();
+                    s.weight = 0;
+                }
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Segment<V> s : segments) {
+                synchronized (s) {
+                    size += s.entries.size();
+                }
+            }
+            return size;
+        }
+
+        long weight() {
+            long weight = 0;
+            for (Segment<V> s : segments) {
+                synchronized (s) {
+                    weight += s.weight;
+                }
+            }
+            return weight;
+        }
+
+        private Segment<V> segment(String name) {
+            int h = name.hashCode() * 0x9E3779B9;
+            return segments[(h >>> 28) & (SEGMENTS - 1)];
+        }
+    }
+
+    /** One lock's share of a tier. */
+    private static class Segment<V> {
+        final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long weight;
+    }
+
+    /** A cached value and the bytes it is counted as. */
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Returns the decoded tile, reading and decoding it only if neither tier holds it and no
+     * other thread is already loading it.
+     * @param name The tile's file name, such as d1_x0_y1.png.
+     * @return The tile, or null if it cannot be read or decoded. Callers may not modify it.
+     */
+    public BufferedImage get(String name) {
+        BufferedImage img = images.get(name);
+        if (img != null) {
+            hits.increment();
+            return img;
+        }
+        CompletableFuture<BufferedImage> mine = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> pending = loading.putIfAbsent(name, mine);
+        if (pending != null) {
+            coalesced.increment();
+            return pending.join();
+        }
+        try {
+            /* Another thread may have finished loading it since the lookup above. */
+            img = images.get(name);
+            if (img != null) {
+                hits.increment();
+            } else {
+                img = load(name);
+            }
+            mine.complete(img);
+            return img;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(name, mine);
+        }
+    }
+
+    /** Decodes a tile from the PNG tier or the loader, and caches the results. */
+    private BufferedImage load(String name) {
+        try {
+            byte[] png = pngs.get(name);
+            if (png != null) {
+                pngHits.increment();
+            } else {
+                misses.increment();
+                png = loader.read(name);
+                pngs.put(name, png, png.length);
+            }
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(png));
+            if (img != null) {
+                img = toIntRgb(img);
+                images.put(name, img, imageBytes(img));
+            }
+            return img;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns an opaque image as packed RGB ints, the format of the rasters tiles are drawn into.
+     * The conversion is itself drawImage, so the pixels are exactly those drawing the original
+     * would give. Images with transparency are returned as they are, since what they look like
+     * depends on what they are drawn over.
+     */
+    static BufferedImage toIntRgb(BufferedImage img) {
+        if (img.getType() == BufferedImage.TYPE_INT_RGB
+                || img.getTransparency() != Transparency.OPAQUE) {
+            return img;
+        }
+        BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics graphic = rgb.getGraphics();
+        graphic.drawImage(img, 0, 0, null);
+        graphic.dispose();
+        return rgb;
+    }
+
+    /** Returns the number of bytes in the pixel buffers of <code>img</code>. */
+    static long imageBytes(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /** Drops every cached tile. */
+    public void invalidate() {
+        images.invalidate();
+        pngs.invalidate();
+    }
+
+    /** Returns the number of decoded tiles cached. */
+    public int imageCount() {
+        return images.size();
+    }
+
+    /** Returns the bytes of pixels held by decoded tiles. */
+    public long imageBytes() {
+        return images.weight();
+    }
+
+    /** Returns the number of encoded tiles cached. */
+    public int pngCount() {
+        return pngs.size();
+    }
+
+    /** Returns the bytes held by encoded tiles. */
+    public long pngBytes() {
+        return pngs.weight();
+    }
+
+    /** Returns the number of lookups answered by a decoded tile. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Returns the number of lookups answered by decoding a cached PNG. */
+    public long pngHits() {
+        return pngHits.sum();
+    }
+
+    /** Returns the number of lookups that read the tile from the loader. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Returns the number of lookups that waited for another thread's load of the same tile. */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /** Returns the fraction of lookups answered without reading a tile, or 0 before any. */
+    public double hitRate() {
+        long answered = hits() + pngHits() + coalesced();
+        long total = answered + misses();
+        return total == 0 ? 0 : (double) answered / total;
+    }
+
+    /** Returns the number of decoded tiles evicted to stay within bounds. */
+    public long imageEvictions() {
+        return images.evictions.sum();
+    }
+
+    /** Returns the number of encoded tiles evicted to stay within bounds. */
+    public long pngEvictions() {
+        return pngs.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d images (%.1f MB), %d PNGs (%.1f MB); %d hits, %d PNG hits,"
+                + " %d misses, %d coalesced (%.1f%% hit rate); %d + %d evictions",
+                imageCount(), imageBytes() / 1e6, pngCount(), pngBytes() / 1e6, hits(), pngHits(),
+                misses(), coalesced(), 100 * hitRate(), imageEvictions(), pngEvictions());
+    }
+}
@@ -0,0 +1,108 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.stream.IntStream;
+
+/**
+ * Assembles the tiles of a render grid into one raster image.
+ *
+ * Tiles are fetched from the <code>TileCache</code> in parallel on the common fork-join pool,
+ * so the reads and decodes of tiles that miss overlap instead of running one after another. The
+ * tiles are then copied in parallel straight into the <code>int</code> pixels of the output,
+ * each into its own rectangle, rather than through <code>Graphics.drawImage</code>.
+ *
+ * <code>TileCache</code> keeps opaque tiles as packed RGB ints, converted once with drawImage
+ * when they are decoded, so copying one is a row-by-row array copy that gives exactly the pixels
+ * drawImage would. If any tile has transparency or is not a full tile, every tile is drawn with
+ * drawImage in grid order instead, as before.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class TileCompositor {
+    private TileCompositor() {
+    }
+
+    /**
+     * Returns the tiles of <code>renderGrid</code> assembled into one image.
+     * @param renderGrid The names of the tiles, by row and column.
+     * @param tiles Where to get the tiles.
+     * @return An RGB image of TILE_SIZE pixels per tile in each direction. Tiles that cannot be
+     * read are left black.
+     */
+    public static BufferedImage composite(String[][] renderGrid, TileCache tiles) {
+        int rows = renderGrid.length;
+        int cols = renderGrid[0].length;
+        BufferedImage[] fetched = new BufferedImage[rows * cols];
+        IntStream.range(0, fetched.length).parallel()
+                .forEach(i -> fetched[i] = tiles.get(renderGrid[i / cols][i % cols]));
+
+        BufferedImage img = new BufferedImage(cols * MapServer.TILE_SIZE,
+                rows * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        boolean direct = true;
+        for (BufferedImage tile : fetched) {
+            direct &= tile == null || copyable(tile);
+        }
+        if (!direct) {
+            draw(img, fetched, cols);
+            return img;
+        }
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        IntStream.range(0, fetched.length).parallel().forEach(i -> {
+            if (fetched[i] != null) {
+                copy(fetched[i], pixels, img.getWidth(), (i % cols) * MapServer.TILE_SIZE,
+                        (i / cols) * MapServer.TILE_SIZE);
+            }
+        });
+        return img;
+    }
+
+    /**
+     * Draws tiles into <code>img</code> one at a time with drawImage, left to right and top to
+     * bottom.
+     * @param img The image to draw into.
+     * @param tiles The tiles in row-major order; null tiles are skipped.
+     * @param cols The number of tiles per row.
+     */
+    static void draw(BufferedImage img, BufferedImage[] tiles, int cols) {
+        Graphics graphic = img.getGraphics();
+        for (int i = 0; i < tiles.length; i += 1) {
+            graphic.drawImage(tiles[i], (i % cols) * MapServer.TILE_SIZE,
+                    (i / cols) * MapServer.TILE_SIZE, null);
+        }
+        graphic.dispose();
+    }
+
+    /**
+     * Returns whether <code>copy</code> gives exactly the pixels drawImage would draw for a
+     * tile: a full tile of packed RGB ints, as <code>TileCache</code> keeps opaque tiles.
+     */
+    static boolean copyable(BufferedImage tile) {
+        Raster raster = tile.getRaster();
+        return tile.getType() == BufferedImage.TYPE_INT_RGB
+                && tile.getWidth() == MapServer.TILE_SIZE
+                && tile.getHeight() == MapServer.TILE_SIZE
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer().getOffset() == 0
+                && ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride()
+                        == MapServer.TILE_SIZE;
+    }
+
+    /**
+     * Copies the pixels of a tile accepted by <code>copyable</code> into the pixels of the
+     * output, a row at a time.
+     * @param tile The tile.
+     * @param dest The pixels of the output image.
+     * @param width The width of the output image.
+     * @param x The column of the output to put the tile's left edge at.
+     * @param y The row of the output to put the tile's top edge at.
+     */
+    static void copy(BufferedImage tile, int[] dest, int width, int x, int y) {
+        int[] src = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        int size = MapServer.TILE_SIZE;
+        for (int r = 0; r < size; r += 1) {
+            System.arraycopy(src, r * size, dest, (y + r) * width + x, size);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * Serves the original bytes of single map tiles, for clients that place the tiles of a render
+ * grid themselves instead of having /raster draw and encode them, so that the browser and any
+ * cache in between can keep each tile and the server does no image work at all.
+ *
+ * Tiles come from the <code>TilePack</code> when there is one and from loose files otherwise.
+ * Bodies are not copied onto the heap: the server's Jetty output is handed a packed tile's slice
+ * of the mapping, or a mapping of its loose file, and writes it to the socket directly.
+ *
+ * Every tile has a strong ETag derived from the CRC-32 and length of its bytes, so a client that
+ * already holds a tile can revalidate it with If-None-Match and get an empty 304 instead. Tags
+ * are computed the first time a tile is asked for and kept; tags of loose files are recomputed
+ * whenever the file's size or modification time changes.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class TileEndpoint {
+    private final TilePack pack;
+    private final String imgRoot;
+    /** Computed ETags, by tile name. */
+    private final ConcurrentHashMap<String, Tag> tags = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an endpoint over one of the two tile backends.
+     * @param pack The tile pack, or null to serve loose files.
+     * @param imgRoot The directory of loose tiles, used when there is no pack.
+     */
+    public TileEndpoint(TilePack pack, String imgRoot) {
+        this.pack = pack;
+        this.imgRoot = imgRoot;
+    }
+
+    /** A tile's ETag and the version of the tile it was computed for. */
+    private static class Tag {
+        final long length;
+        final long modified;
+        final String etag;
+
+        Tag(long length, long modified, String etag) {
+            this.length = length;
+            this.modified = modified;
+            this.etag = etag;
+        }
+    }
+
+    /** A tile found by <code>find</code>, ready to be sent. */
+    public static class Tile {
+        /** The strong ETag of the tile, quotes included. */
+        public final String etag;
+        /** The number of bytes in the tile. */
+        public final long length;
+        /** The tile's slice of the pack, or null for a loose file. */
+        final ByteBuffer bytes;
+        /** The tile's loose file, or null for a packed tile. */
+        final Path file;
+
+        Tile(String etag, long length, ByteBuffer bytes, Path file) {
+            this.etag = etag;
+            this.length = length;
+            this.bytes = bytes;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Looks up a tile and its ETag.
+     * @param depth The tile's depth.
+     * @param x The tile's column.
+     * @param y The tile's row.
+     * @return The tile, or null if there is no such tile.
+     * @throws IOException If the tile exists but cannot be read.
+     */
+    public Tile find(int depth, int x, int y) throws IOException {
+        if (TilePack.slot(depth, x, y) < 0) {
+            return null;
+        }
+        String name = TilePack.name(depth, x, y);
+        if (pack != null) {
+            ByteBuffer bytes = pack.tile(depth, x, y);
+            if (bytes == null) {
+                return null;
+            }
+            Tag tag = tags.get(name);
+            if (tag == null) {
+                tag = new Tag(bytes.remaining(), 0, etag(bytes.duplicate()));
+                tags.put(name, tag);
+            }
+            return new Tile(tag.etag, bytes.remaining(), bytes, null);
+        }
+        Path file = Paths.get(imgRoot, name);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        long length = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        Tag tag = tags.get(name);
+        if (tag == null || tag.length != length || tag.modified != modified) {
+            byte[] bytes = Files.readAllBytes(file);
+            tag = new Tag(bytes.length, modified, etag(ByteBuffer.wrap(bytes)));
+            tags.put(name, tag);
+        }
+        return new Tile(tag.etag, tag.length, null, file);
+    }
+
+    /** Returns the strong ETag for the bytes remaining in <code>bytes</code>, consuming them. */
+    static String etag(ByteBuffer bytes) {
+        long length = bytes.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    /**
+     * Returns whether an If-None-Match header matches an ETag, so that the client's copy is
+     * current and a 304 can be sent in place of the tile. Tags are compared weakly, as RFC 7232
+     * requires for this header.
+     * @param ifNoneMatch The header, or null if the request has none.
+     * @param etag The tile's ETag.
+     * @return True if the header is * or lists the tag.
+     */
+    public static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the bytes of a tile. Under Jetty, the tile is handed over as its slice of the pack,
+     * or as a mapping of its loose file, which Jetty writes to the socket as it is. Any other
+     * stream is written to through a channel, with <code>FileChannel.transferTo</code> for a
+     * loose file.
+     * @param tile A tile from <code>find</code>.
+     * @param os The response body.
+     * @throws IOException If the tile cannot be read or the body cannot be written.
+     */
+    public void send(Tile tile, OutputStream os) throws IOException {
+        if (tile.bytes != null) {
+            ByteBuffer bytes = tile.bytes.duplicate();
+            if (os instanceof HttpOutput) {
+                ((HttpOutput) os).sendContent(bytes);
+                return;
+            }
+            WritableByteChannel out = Channels.newChannel(os);
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            os.flush();
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(tile.file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (os instanceof HttpOutput) {
+                ((HttpOutput) os).sendContent(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                return;
+            }
+            WritableByteChannel out = Channels.newChannel(os);
+            long pos = 0;
+            while (pos < size) {
+                long sent = channel.transferTo(pos, size - pos, out);
+                if (sent == 0) {
+                    throw new IOException(tile.file + " shrank while being sent");
+                }
+                pos += sent;
+            }
+        }
+        os.flush();
+    }
+
+    /**
+     * Returns the URL path of a tile, by its file name.
+     * @param name A file name such as d1_x0_y1.png.
+     * @return The path /tiles/{depth}/{x}/{y}.png of the tile.
+     */
+    public static String url(String name) {
+        int[] dxy = TilePack.parse(name);
+        return "/tiles/" + dxy[0] + "/" + dxy[1] + "/" + dxy[2] + ".png";
+    }
+}
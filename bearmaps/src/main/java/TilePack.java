@@ -0,0 +1,272 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Every map tile in one file, so that serving a tile takes no file open or directory lookup.
+ * Packs are built offline by <code>main</code> from a directory of tiles and read through a
+ * read-only memory mapping, which hands out each tile as a slice of the mapping without copying
+ * it.
+ *
+ * A tile's slot in the index follows from its depth and position alone: all the tiles of
+ * shallower depths come first, then the tiles of its own depth, row by row. The index is a fixed
+ * size, with a slot for every tile down to the pack's deepest level whether or not the tile
+ * exists. All values are big-endian. The layout is:
+ * <pre>
+ *     int magic, int version, int maxDepth
+ *     long[slots + 1] offsets       slots = (4^(maxDepth + 1) - 1) / 3
+ *     the bytes of each tile, in slot order
+ * </pre>
+ * where a tile's bytes run from its offset to the next slot's, counted from the start of the
+ * file, and a missing tile has the same offset as the next slot.
+ *
+ * A pack must be under 2 GB to be mapped in one piece.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class TilePack {
+    /** Marks the start of a tile pack ("BMTP"). */
+    private static final int MAGIC = 0x424D5450;
+    /** Bumped whenever the layout changes; packs of other versions are ignored. */
+    static final int VERSION = 1;
+    /** Bytes before the index: magic, version and depth. */
+    private static final int HEADER = 12;
+
+    private final MappedByteBuffer buf;
+    private final int maxDepth;
+    private final int count;
+    private final String path;
+
+    private TilePack(MappedByteBuffer buf, int maxDepth, String path) {
+        this.buf = buf;
+        this.maxDepth = maxDepth;
+        this.path = path;
+        int present = 0;
+        for (int slot = 0; slot < slots(maxDepth); slot += 1) {
+            if (offset(slot + 1) > offset(slot)) {
+                present += 1;
+            }
+        }
+        this.count = present;
+    }
+
+    /**
+     * Returns the number of index slots for tiles from depth 0 down to <code>maxDepth</code>.
+     * @param maxDepth The deepest level.
+     * @return The number of tiles in a full pyramid of that depth.
+     */
+    static int slots(int maxDepth) {
+        return (int) (((1L << (2 * (maxDepth + 1))) - 1) / 3);
+    }
+
+    /**
+     * Returns the index slot of a tile.
+     * @param depth The tile's depth.
+     * @param x The tile's column.
+     * @param y The tile's row.
+     * @return The slot, or -1 if there is no such tile at that depth.
+     */
+    static int slot(int depth, int x, int y) {
+        int side = 1 << depth;
+        if (depth < 0 || x < 0 || y < 0 || x >= side || y >= side) {
+            return -1;
+        }
+        return slots(depth - 1) + y * side + x;
+    }
+
+    /**
+     * Returns the name a tile has as a loose file, as <code>Rasterer</code> writes it.
+     * @param depth The tile's depth.
+     * @param x The tile's column.
+     * @param y The tile's row.
+     * @return The file name, such as d1_x0_y1.png.
+     */
+    static String name(int depth, int x, int y) {
+        return "d" + depth + "_x" + x + "_y" + y + ".png";
+    }
+
+    /**
+     * Returns the depth, column and row in a tile's file name.
+     * @param name A file name such as d1_x0_y1.png.
+     * @return The three numbers, or null if the name is not a tile's.
+     */
+    static int[] parse(String name) {
+        int x = name.indexOf("_x");
+        int y = name.indexOf("_y");
+        if (!name.startsWith("d") || !name.endsWith(".png") || x < 0 || y < x) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(name.substring(1, x)),
+                Integer.parseInt(name.substring(x + 2, y)),
+                Integer.parseInt(name.substring(y + 2, name.length() - 4))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps a pack written by <code>write</code>.
+     * @param path Path to the pack.
+     * @return The pack, or null if the file is missing or is not a pack of this version.
+     * @throws IOException If the file exists but cannot be read.
+     */
+    static TilePack open(String path) throws IOException {
+        MappedByteBuffer buf = GraphSnapshot.map(path);
+        if (buf == null || buf.remaining() < HEADER || buf.getInt(0) != MAGIC
+                || buf.getInt(4) != VERSION) {
+            return null;
+        }
+        int maxDepth = buf.getInt(8);
+        if (maxDepth < 0 || maxDepth > 15
+                || buf.remaining() < HEADER + 8L * (slots(maxDepth) + 1)
+                || buf.getLong(HEADER + 8 * slots(maxDepth)) != buf.remaining()) {
+            return null;
+        }
+        return new TilePack(buf, maxDepth, path);
+    }
+
+    private long offset(int slot) {
+        return buf.getLong(HEADER + 8 * slot);
+    }
+
+    /**
+     * Returns the bytes of a tile as a read-only slice of the mapping, with a position of its own.
+     * @param depth The tile's depth.
+     * @param x The tile's column.
+     * @param y The tile's row.
+     * @return The encoded tile, from position 0 to its limit, or null if the pack has no such
+     * tile.
+     */
+    public ByteBuffer tile(int depth, int x, int y) {
+        int slot = depth > maxDepth ? -1 : slot(depth, x, y);
+        if (slot < 0) {
+            return null;
+        }
+        int start = (int) offset(slot);
+        int end = (int) offset(slot + 1);
+        if (end == start) {
+            return null;
+        }
+        /* A duplicate of its own, so that concurrent readers never share a position. */
+        ByteBuffer tile = buf.duplicate();
+        tile.limit(end).position(start);
+        return tile.slice();
+    }
+
+    /**
+     * Returns the bytes of a tile by its file name.
+     * @param name The tile's file name, such as d1_x0_y1.png.
+     * @return The encoded tile, as <code>tile(depth, x, y)</code> does, or null if the name is not
+     * a tile's or the pack has no such tile.
+     */
+    public ByteBuffer tile(String name) {
+        int[] dxy = parse(name);
+        return dxy == null ? null : tile(dxy[0], dxy[1], dxy[2]);
+    }
+
+    /**
+     * Copies out the bytes of a tile, for use as a <code>TileCache.Loader</code>.
+     * @param name The tile's file name, such as d1_x0_y1.png.
+     * @return The encoded tile.
+     * @throws FileNotFoundException If the pack has no such tile, as a missing loose file would.
+     */
+    public byte[] read(String name) throws FileNotFoundException {
+        ByteBuffer tile = tile(name);
+        if (tile == null) {
+            throw new FileNotFoundException("No tile " + name + " in " + path);
+        }
+        byte[] bytes = new byte[tile.remaining()];
+        tile.get(bytes);
+        return bytes;
+    }
+
+    /** Returns the deepest level the pack has slots for. */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** Returns the number of tiles in the pack. */
+    public int count() {
+        return count;
+    }
+
+    /** Returns the size of the pack in bytes. */
+    public long size() {
+        return buf.capacity();
+    }
+
+    /**
+     * Packs every tile in a directory down to <code>maxDepth</code>. The pack is written with
+     * <code>GraphSnapshot.writeAtomically</code>, so a server never maps a partial pack.
+     * @param imgRoot The directory of loose tiles.
+     * @param path Path to the pack.
+     * @param maxDepth The deepest level to pack.
+     * @return The number of tiles packed.
+     * @throws IOException If a tile cannot be read, the pack cannot be written or it would be
+     * too large to map.
+     */
+    static int write(String imgRoot, String path, int maxDepth) throws IOException {
+        int slots = slots(maxDepth);
+        Path[] files = new Path[slots];
+        long[] offsets = new long[slots + 1];
+        offsets[0] = HEADER + 8L * (slots + 1);
+        int packed = 0;
+        for (int d = 0; d <= maxDepth; d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    int slot = slot(d, x, y);
+                    Path file = Paths.get(imgRoot, name(d, x, y));
+                    long size = 0;
+                    if (Files.isRegularFile(file)) {
+                        files[slot] = file;
+                        size = Files.size(file);
+                        packed += 1;
+                    }
+                    offsets[slot + 1] = offsets[slot] + size;
+                }
+            }
+        }
+        if (offsets[slots] > Integer.MAX_VALUE) {
+            throw new IOException("Tiles in " + imgRoot + " take " + offsets[slots]
+                    + " bytes, too many to map as one pack");
+        }
+
+        GraphSnapshot.writeAtomically(path, out -> {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(maxDepth);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (int slot = 0; slot < slots; slot += 1) {
+                if (files[slot] != null) {
+                    byte[] bytes = Files.readAllBytes(files[slot]);
+                    if (bytes.length != offsets[slot + 1] - offsets[slot]) {
+                        throw new IOException(files[slot] + " changed while packing");
+                    }
+                    out.write(bytes);
+                }
+            }
+        });
+        return packed;
+    }
+
+    /**
+     * Packs the tiles <code>MapServer</code> serves and writes the pack where it looks for it.
+     * Arguments: the tile directory, then the pack file.
+     */
+    public static void main(String[] args) throws IOException {
+        String imgRoot = args.length > 0 ? args[0] : MapServer.IMG_ROOT;
+        String packPath = args.length > 1 ? args[1] : MapServer.TILE_PACK_PATH;
+        long t0 = System.nanoTime();
+        int packed = write(imgRoot, packPath, Rasterer.MAX_DEPTH);
+        TilePack pack = open(packPath);
+        System.out.printf("Packed %d of %d tiles into %.1f MB in %.1f s%n", packed,
+                slots(Rasterer.MAX_DEPTH), pack.size() / 1e6, (System.nanoTime() - t0) / 1e9);
+    }
+}
@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * The name of the way each edge of a <code>CompactGraph</code> belongs to, so that directions can
+ * name the roads of a route without searching the ways for each of its edges. Names are stored
+ * once each and edges hold an int into them, indexed like <code>g.targets</code>.
+ *
+ * Where several ways share an edge, a named way wins over an unnamed one, and then the way with
+ * the lowest id, so the index does not depend on the order ways are visited in.
+ *
+ * @author Huiyi Zhang, Yanqian Wu
+ */
+public class WayIndex {
+    /**
+     * The name given to edges of unnamed ways, and of no way at all. It is empty, as the
+     * expected directions in directions_results.txt read "Turn left on  and continue ...".
+     */
+    static final String UNNAMED = "";
+
+    /** Every distinct way name; entry 0 is UNNAMED. */
+    private final String[] names;
+    /** The index into names of each edge's way. */
+    private final int[] edgeNames;
+
+    /**
+     * Indexes the names of the ways over the edges of <code>g</code>.
+     * @param g The road graph.
+     * @param ways The ways it was built from.
+     */
+    public WayIndex(CompactGraph g, Collection<GraphDB.Path> ways) {
+        ArrayList<String> distinct = new ArrayList<>();
+        HashMap<String, Integer> ids = new HashMap<>();
+        distinct.add(UNNAMED);
+        ids.put(UNNAMED, 0);
+        edgeNames = new int[g.edgeCount()];
+        /* The id of the way each edge's name was taken from, to settle shared edges. */
+        long[] owners = new long[g.edgeCount()];
+        Arrays.fill(owners, Long.MAX_VALUE);
+        for (GraphDB.Path p : ways) {
+            String name = p.tags.get("name");
+            if (name == null || name.isEmpty()) {
+                name = UNNAMED;
+            }
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = distinct.size();
+                distinct.add(name);
+                ids.put(name, id);
+            }
+            int previous = -1;
+            for (long ref : p.vertices) {
+                int v = g.indexOf(ref);
+                if (previous >= 0 && v >= 0) {
+                    claim(g, previous, v, id, p.id, owners);
+                    claim(g, v, previous, id, p.id, owners);
+                }
+                previous = v;
+            }
+        }
+        names = distinct.toArray(new String[0]);
+    }
+
+    /** Names the edge from u to w after a way, if it beats the way that named it so far. */
+    private void claim(CompactGraph g, int u, int w, int name, long way, long[] owners) {
+        int k = g.edge(u, w);
+        if (k < 0) {
+            return;
+        }
+        boolean named = name != 0;
+        boolean wasNamed = edgeNames[k] != 0;
+        if (named && !wasNamed || named == wasNamed && way < owners[k]) {
+            edgeNames[k] = name;
+            owners[k] = way;
+        }
+    }
+
+    /**
+     * Returns the name of the way an edge belongs to.
+     * @param edge The index of the edge, as in <code>g.targets</code>.
+     * @return Its name, or the empty string if it has none.
+     */
+    String name(int edge) {
+        return names[edgeNames[edge]];
+    }
+
+    /** Returns the number of distinct way names, counting the empty one. */
+    int nameCount() {
+        return names.length;
+    }
+}
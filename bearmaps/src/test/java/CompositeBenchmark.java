@@ -0,0 +1,98 @@
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Measures the latency of assembling one raster against viewport size, drawing each tile with
+ * drawImage on one thread as MapServer used to, and with TileCompositor, with every tile read
+ * from disk and with every tile already cached. Checks that both give the same pixels. Not a
+ * unit test; run its main method directly, optionally with the tile directory and the number of
+ * runs per measurement. Missing tiles are drawn as in RasterBenchmark.
+ */
+public class CompositeBenchmark {
+    private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
+    private static final int[][] VIEWPORTS = {{512, 512}, {1280, 800}, {1920, 1080}, {2560, 1440}};
+
+    public static void main(String[] args) throws Exception {
+        String root = args.length > 0 ? args[0] : IMG_ROOT;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+        TileCache.Loader loader = name -> Files.readAllBytes(Paths.get(root, name));
+        Rasterer rasterer = new Rasterer();
+        RasterRequestParams[] requests = new RasterRequestParams[VIEWPORTS.length];
+        for (int i = 0; i < VIEWPORTS.length; i += 1) {
+            requests[i] = viewport(VIEWPORTS[i][0], VIEWPORTS[i][1]);
+        }
+        RasterBenchmark.drawMissingTiles(root, rasterer, requests);
+        System.out.printf("%d cores%n", Runtime.getRuntime().availableProcessors());
+        /* The first round warms up the JIT and the OS file cache. */
+        for (int round = 0; round < 2; round += 1) {
+            measure(rasterer, requests, loader, runs);
+        }
+    }
+
+    private static void measure(Rasterer rasterer, RasterRequestParams[] requests,
+                                TileCache.Loader loader, int runs) {
+        for (int v = 0; v < VIEWPORTS.length; v += 1) {
+            int[] viewport = VIEWPORTS[v];
+            String[][] grid = rasterer.getMapRaster(requests[v]).renderGrid;
+            TileCache uncached = new TileCache(loader, 0, 0);
+            TileCache cached = new TileCache(loader, 512L << 20, 0);
+            BufferedImage expected = serial(grid, cached);
+            BufferedImage actual = TileCompositor.composite(grid, cached);
+            int w = expected.getWidth();
+            int h = expected.getHeight();
+            if (!Arrays.equals(expected.getRGB(0, 0, w, h, null, 0, w),
+                    actual.getRGB(0, 0, w, h, null, 0, w))) {
+                throw new AssertionError("Composites differ at " + Arrays.toString(viewport));
+            }
+            System.out.printf("%4dx%-4d %3d tiles: from disk %7.1f ms drawImage, %7.1f ms"
+                    + " parallel; cached %6.1f ms drawImage, %6.1f ms parallel%n",
+                    viewport[0], viewport[1], grid.length * grid[0].length,
+                    median(runs, () -> serial(grid, uncached)),
+                    median(runs, () -> TileCompositor.composite(grid, uncached)),
+                    median(runs, () -> serial(grid, cached)),
+                    median(runs, () -> TileCompositor.composite(grid, cached)));
+        }
+    }
+
+    /** Returns a request for the depth 7 tiles around the center of the map. */
+    static RasterRequestParams viewport(int w, int h) {
+        double lonSpan = MapServer.ROOT_LON_DELTA / 128 / MapServer.TILE_SIZE * w;
+        double latSpan = lonSpan * h / w;
+        double cx = MapServer.ROOT_ULLON + MapServer.ROOT_LON_DELTA / 2;
+        double cy = MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA / 2;
+        return new RasterRequestParams.Builder()
+                .setUllon(cx - lonSpan / 2).setLrlon(cx + lonSpan / 2)
+                .setUllat(cy + latSpan / 2).setLrlat(cy - latSpan / 2)
+                .setW(w).setH(h).create();
+    }
+
+    /** Fetches the tiles one at a time and draws each with drawImage. */
+    private static BufferedImage serial(String[][] grid, TileCache tiles) {
+        int cols = grid[0].length;
+        BufferedImage[] fetched = new BufferedImage[grid.length * cols];
+        for (int i = 0; i < fetched.length; i += 1) {
+            fetched[i] = tiles.get(grid[i / cols][i % cols]);
+        }
+        BufferedImage img = new BufferedImage(cols * MapServer.TILE_SIZE,
+                grid.length * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        TileCompositor.draw(img, fetched, cols);
+        return img;
+    }
+
+    private interface Render {
+        BufferedImage run();
+    }
+
+    private static double median(int runs, Render render) {
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i += 1) {
+            long start = System.nanoTime();
+            render.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos[runs / 2] / 1e6;
+    }
+}
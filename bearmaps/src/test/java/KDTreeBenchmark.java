@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the latency of KDTree k-nearest and radius queries, and KDTree.nearest throughput at
+ * 1, 4 and 16 threads sharing one tree. Not a unit test; run its main method directly, optionally
+ * with the number of points to index.
+ */
+public class KDTreeBenchmark {
+    private static final int QUERIES_PER_THREAD = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        CompactGraph g = TestKDTree.randomPoints(n, 1);
+        long t0 = System.nanoTime();
+        KDTree tree = new KDTree(g);
+        System.out.printf("Built a tree over %d points in %.1f ms%n", n,
+                (System.nanoTime() - t0) / 1e6);
+
+        Random r = new Random(2);
+        double[] xs = new double[1 << 16];
+        double[] ys = new double[1 << 16];
+        for (int i = 0; i < xs.length; i += 1) {
+            int v = r.nextInt(n);
+            xs[i] = g.x[v] + (r.nextDouble() - 0.5) * 1e-4;
+            ys[i] = g.y[v] + (r.nextDouble() - 0.5) * 1e-4;
+        }
+
+        for (int k : new int[]{1, 8, 32}) {
+            tree.kNearest(xs, ys, k);
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < xs.length; i += 1) {
+                sum += tree.kNearest(xs[i], ys[i], k).length;
+            }
+            long single = System.nanoTime() - start;
+            start = System.nanoTime();
+            sum += tree.kNearest(xs, ys, k).length;
+            long batched = System.nanoTime() - start;
+            System.out.printf("kNearest k=%2d: %6.2f us/query, batched %6.2f us/query%n", k,
+                    single / 1e3 / xs.length, batched / 1e3 / xs.length);
+        }
+        for (double miles : new double[]{0.05, 0.25}) {
+            long start = System.nanoTime();
+            long hits = 0;
+            for (int i = 0; i < xs.length; i += 1) {
+                hits += tree.withinRadius(xs[i], ys[i], miles / 3963).length;
+            }
+            System.out.printf("withinRadius %.2f mi: %6.2f us/query, %.1f hits/query%n", miles,
+                    (System.nanoTime() - start) / 1e3 / xs.length, (double) hits / xs.length);
+        }
+
+        for (int threads : new int[]{1, 4, 16}) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                tasks.add(() -> {
+                    long sum = 0;
+                    for (int i = 0; i < QUERIES_PER_THREAD; i += 1) {
+                        int k = i & (xs.length - 1);
+                        sum += tree.nearest(xs[k], ys[k]);
+                    }
+                    return sum;
+                });
+            }
+            pool.invokeAll(tasks);
+            long start = System.nanoTime();
+            pool.invokeAll(tasks);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            pool.shutdown();
+            System.out.printf("%2d threads: %,12.0f queries/s%n", threads,
+                    threads * QUERIES_PER_THREAD / seconds);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.TreeSet;
+import javax.imageio.ImageIO;
+
+/**
+ * Replays a pan and zoom session against the work of a /raster request: Rasterer.getMapRaster,
+ * MapServer.renderImage and the PNG and Base64 encoding of the result, and reports the median
+ * and 99th percentile latency with and without the tile cache, both of rendering alone and of
+ * the whole request. Not a unit test; run its main
+ * method directly, optionally with the tile directory and the number of requests. Tiles the
+ * session needs that are missing from the directory are drawn first, with roads, blocks and
+ * labels so that they compress and decode roughly like the real ones.
+ */
+public class RasterBenchmark {
+    private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 800;
+
+    public static void main(String[] args) throws Exception {
+        String root = args.length > 0 ? args[0] : IMG_ROOT;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        RasterRequestParams[] session = session(requests, new Random(21));
+        Rasterer rasterer = new Rasterer();
+        drawMissingTiles(root, rasterer, session);
+        TileCache.Loader loader = name -> Files.readAllBytes(Paths.get(root, name));
+
+        /* The first pass warms up the JIT and the OS file cache for both. */
+        for (int round = 0; round < 2; round += 1) {
+            MapServer.tiles = new TileCache(loader, 0, 0);
+            report("no cache:  ", replay(rasterer, session));
+            MapServer.tiles = new TileCache(loader, 128L << 20, 32L << 20);
+            report("tile cache:", replay(rasterer, session));
+            System.out.println(MapServer.tiles);
+        }
+    }
+
+    /**
+     * Returns the viewports of a browsing session over the map: mostly pans by a quarter of the
+     * screen, with a zoom in or out every few requests.
+     */
+    static RasterRequestParams[] session(int requests, Random r) {
+        RasterRequestParams[] result = new RasterRequestParams[requests];
+        double lonSpan = MapServer.ROOT_LON_DELTA / 4;
+        double cx = MapServer.ROOT_ULLON + MapServer.ROOT_LON_DELTA / 2;
+        double cy = MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA / 2;
+        for (int i = 0; i < requests; i += 1) {
+            double move = r.nextDouble();
+            if (move < 0.1 && lonSpan > MapServer.ROOT_LON_DELTA / 64) {
+                lonSpan /= 2;
+            } else if (move < 0.2 && lonSpan < MapServer.ROOT_LON_DELTA / 2) {
+                lonSpan *= 2;
+            } else {
+                cx += lonSpan / 4 * (r.nextInt(3) - 1);
+                cy += lonSpan * HEIGHT / WIDTH / 4 * (r.nextInt(3) - 1);
+            }
+            double latSpan = lonSpan * HEIGHT / WIDTH;
+            /* Stay just inside the map, where every query succeeds. */
+            cx = clamp(cx, MapServer.ROOT_ULLON + lonSpan * 0.51,
+                    MapServer.ROOT_LRLON - lonSpan * 0.51);
+            cy = clamp(cy, MapServer.ROOT_LRLAT + latSpan * 0.51,
+                    MapServer.ROOT_ULLAT - latSpan * 0.51);
+            result[i] = new RasterRequestParams.Builder()
+                    .setUllon(cx - lonSpan / 2).setLrlon(cx + lonSpan / 2)
+                    .setUllat(cy + latSpan / 2).setLrlat(cy - latSpan / 2)
+                    .setW(WIDTH).setH(HEIGHT).create();
+        }
+        return result;
+    }
+
+    private static double clamp(double v, double lo, double hi) {
+        return Math.max(lo, Math.min(hi, v));
+    }
+
+    /**
+     * Runs every request of the session in order.
+     * @return The time each request took to render, and in total.
+     */
+    private static long[][] replay(Rasterer rasterer, RasterRequestParams[] session)
+            throws Exception {
+        long[][] nanos = new long[2][session.length];
+        for (int i = 0; i < session.length; i += 1) {
+            long start = System.nanoTime();
+            RasterResultParams params = rasterer.getMapRaster(session[i]);
+            BufferedImage img = MapServer.renderImage(params);
+            nanos[0][i] = System.nanoTime() - start;
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(img, "png", os);
+            Base64.getEncoder().encodeToString(os.toByteArray());
+            nanos[1][i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    private static void report(String label, long[][] nanos) {
+        System.out.printf("%s render p50 %6.1f ms, p99 %6.1f ms; request p50 %6.1f ms,"
+                + " p99 %6.1f ms%n", label, percentile(nanos[0], 0.5),
+                percentile(nanos[0], 0.99), percentile(nanos[1], 0.5), percentile(nanos[1], 0.99));
+    }
+
+    private static double percentile(long[] nanos, double p) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+
+    /** Draws every tile the session touches that is not in <code>root</code> yet. */
+    static void drawMissingTiles(String root, Rasterer rasterer,
+                                 RasterRequestParams[] session) throws Exception {
+        TreeSet<String> names = new TreeSet<>();
+        for (RasterRequestParams p : session) {
+            for (String[] row : rasterer.getMapRaster(p).renderGrid) {
+                names.addAll(Arrays.asList(row));
+            }
+        }
+        new File(root).mkdirs();
+        int drawn = 0;
+        for (String name : names) {
+            File file = new File(root, name);
+            if (!file.exists()) {
+                ImageIO.write(drawTile(name.hashCode()), "png", file);
+                drawn += 1;
+            }
+        }
+        if (drawn > 0) {
+            System.out.printf("Drew %d of the %d tiles the session uses.%n", drawn, names.size());
+        }
+    }
+
+    private static BufferedImage drawTile(long seed) {
+        Random r = new Random(seed);
+        BufferedImage img = new BufferedImage(MapServer.TILE_SIZE, MapServer.TILE_SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(242, 239, 233));
+        g.fillRect(0, 0, MapServer.TILE_SIZE, MapServer.TILE_SIZE);
+        for (int i = 0; i < 12; i += 1) {
+            g.setColor(new Color(217 + r.nextInt(20), 208 + r.nextInt(20), 201 + r.nextInt(20)));
+            g.fillRect(r.nextInt(240), r.nextInt(240), 8 + r.nextInt(60), 8 + r.nextInt(60));
+        }
+        for (int i = 0; i < 10; i += 1) {
+            g.setColor(i % 3 == 0 ? new Color(252, 214, 164) : Color.WHITE);
+            g.setStroke(new BasicStroke(2 + r.nextInt(6)));
+            g.drawLine(r.nextInt(256), r.nextInt(256), r.nextInt(256), r.nextInt(256));
+        }
+        g.setColor(new Color(80, 80, 80));
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10));
+        for (int i = 0; i < 4; i += 1) {
+            g.drawString("Street " + r.nextInt(1000), r.nextInt(200), 10 + r.nextInt(240));
+        }
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
+
+/**
+ * Compares the two bodies /raster can send for the same image, against viewport size: JSON with
+ * the PNG in Base64, with ImageIO caching through a temporary file as it did by default and in
+ * memory as MapServer now sets it, and the PNG streamed on its own with the parameters in
+ * headers. Reports the heap allocated on the request thread to produce each body, from encoding
+ * the composite to the bytes handed to the socket, the bytes on the wire and the time taken.
+ * Not a unit test; run its main method directly, optionally with the tile directory and the
+ * number of runs per measurement. Missing tiles are drawn as in RasterBenchmark.
+ */
+public class RasterResponseBenchmark {
+    private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
+    private static final int[][] VIEWPORTS = {{512, 512}, {1280, 800}, {1920, 1080}, {2560, 1440}};
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Counts the bytes written to it and drops them, like a socket that never blocks. */
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private interface Body {
+        /** Produces one response body and returns its length in bytes. */
+        long write() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String root = args.length > 0 ? args[0] : IMG_ROOT;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+        Rasterer rasterer = new Rasterer();
+        RasterRequestParams[] requests = new RasterRequestParams[VIEWPORTS.length];
+        for (int i = 0; i < VIEWPORTS.length; i += 1) {
+            requests[i] = CompositeBenchmark.viewport(VIEWPORTS[i][0], VIEWPORTS[i][1]);
+        }
+        RasterBenchmark.drawMissingTiles(root, rasterer, requests);
+        TileCache tiles = new TileCache(name -> Files.readAllBytes(Paths.get(root, name)),
+                512L << 20, 0);
+
+        for (int round = 0; round < 2; round += 1) {
+            System.out.println(round == 0 ? "Warm-up:" : "Measured:");
+            for (int v = 0; v < VIEWPORTS.length; v += 1) {
+                RasterResultParams params = rasterer.getMapRaster(requests[v]);
+                BufferedImage img = TileCompositor.composite(params.renderGrid, tiles);
+                Body json = () -> MapServer.rasterJson(params, img)
+                        .getBytes(StandardCharsets.UTF_8).length;
+                Body png = () -> {
+                    long headers = 0;
+                    for (Map.Entry<String, String> h
+                            : MapServer.rasterHeaders(params, img).entrySet()) {
+                        headers += h.getKey().length() + h.getValue().length() + 4;
+                    }
+                    CountingStream os = new CountingStream();
+                    ImageIO.write(img, "png", os);
+                    return headers + os.count;
+                };
+                System.out.printf("%4dx%-4d%n", VIEWPORTS[v][0], VIEWPORTS[v][1]);
+                ImageIO.setUseCache(true);
+                measure("  JSON, file cache  ", json, runs);
+                ImageIO.setUseCache(false);
+                measure("  JSON, memory cache", json, runs);
+                measure("  PNG stream        ", png, runs);
+            }
+        }
+    }
+
+    private static void measure(String label, Body body, int runs) throws IOException {
+        long thread = Thread.currentThread().getId();
+        long[] nanos = new long[runs];
+        long[] allocated = new long[runs];
+        long bytes = 0;
+        for (int i = 0; i < runs; i += 1) {
+            long before = THREADS.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            bytes = body.write();
+            nanos[i] = System.nanoTime() - start;
+            allocated[i] = THREADS.getThreadAllocatedBytes(thread) - before;
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(allocated);
+        System.out.printf("%s %8.1f KB on the wire, %8.1f KB allocated, %6.1f ms%n", label,
+                bytes / 1e3, allocated[runs / 2] / 1e3, nanos[runs / 2] / 1e6);
+    }
+}
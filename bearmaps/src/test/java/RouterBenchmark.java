@@ -0,0 +1,357 @@
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures Router.shortestPath throughput against the legacy object-based A*, on one thread, and
+ * shortestPath again at 1, 4 and 16 threads sharing one graph. Then compares the vertices settled
+ * by unidirectional and bidirectional A* on the cases in path_params.txt and on random pairs far
+ * apart, and the median query time of A* and of a contraction hierarchy built on the spot. Not a
+ * unit test; run its main method directly, optionally with the OSM file to load and the number
+ * of routes per run.
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+    private static final String PARAMS_FILE = "path_params.txt";
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int routes = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        GraphDB g = new GraphDB(path);
+        /* Measure searches, not cache hits; routeCache below measures the cache. */
+        Router.configureCache(0, 0);
+        Random r = new Random(3);
+        double[][] queries = new double[routes][];
+        for (int i = 0; i < routes; i += 1) {
+            queries[i] = new double[]{
+                MapServer.ROOT_ULLON + MapServer.ROOT_LON_DELTA * r.nextDouble(),
+                MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA * r.nextDouble(),
+                MapServer.ROOT_ULLON + MapServer.ROOT_LON_DELTA * r.nextDouble(),
+                MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA * r.nextDouble()};
+        }
+
+        for (int round = 0; round < 2; round += 1) {
+            long start = System.nanoTime();
+            for (double[] q : queries) {
+                legacyShortestPath(g, q[0], q[1], q[2], q[3]);
+            }
+            long legacy = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (double[] q : queries) {
+                Router.shortestPath(g, q[0], q[1], q[2], q[3]);
+            }
+            long current = System.nanoTime() - start;
+            System.out.printf("legacy %8.3f ms/route, shortestPath %8.3f ms/route%n",
+                    legacy / 1e6 / routes, current / 1e6 / routes);
+        }
+
+        for (int threads : new int[]{1, 4, 16}) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                tasks.add(() -> {
+                    long sum = 0;
+                    for (double[] q : queries) {
+                        sum += Router.shortestPath(g, q[0], q[1], q[2], q[3]).size();
+                    }
+                    return sum;
+                });
+            }
+            long start = System.nanoTime();
+            pool.invokeAll(tasks);
+            long elapsed = System.nanoTime() - start;
+            pool.shutdown();
+            System.out.printf("%2d threads: %8.1f routes/s%n", threads,
+                    (double) threads * routes / elapsed * 1e9);
+        }
+
+        List<double[]> cases = new ArrayList<>();
+        if (Files.exists(Paths.get(PARAMS_FILE))) {
+            List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE),
+                    Charset.defaultCharset());
+            for (int i = 2; i + 3 < lines.size(); i += 4) {
+                cases.add(new double[]{Double.parseDouble(lines.get(i)),
+                    Double.parseDouble(lines.get(i + 1)), Double.parseDouble(lines.get(i + 2)),
+                    Double.parseDouble(lines.get(i + 3))});
+            }
+            settledCounts(g, PARAMS_FILE, cases);
+        }
+        cases.clear();
+        for (double[] q : queries) {
+            /* Keep only pairs more than half the map's width apart. */
+            if (Math.abs(q[0] - q[2]) > MapServer.ROOT_LON_DELTA / 2) {
+                cases.add(q);
+            }
+        }
+        settledCounts(g, "random long-distance pairs", cases);
+        landmarkCounts(g, queries, routes);
+        routeCache(g, queries);
+        directions(g, queries, routes);
+        distanceMatrix(g, queries, "by search");
+
+        long t0 = System.nanoTime();
+        g.ch = new ContractionHierarchyBuilder(g.csr).build();
+        System.out.printf("Built a contraction hierarchy in %.1f s: %d upward edges%n",
+                (System.nanoTime() - t0) / 1e9, g.ch.edgeCount());
+        hubLabels(g, queries, routes);
+        distanceMatrix(g, queries, "with labels");
+
+        t0 = System.nanoTime();
+        g.prepareCustomization();
+        System.out.printf("Prepared a customizable hierarchy in %.1f s: %d arcs, %d levels%n",
+                (System.nanoTime() - t0) / 1e9, g.cch.arcCount(), g.cch.levelCount());
+        double[] metric = RoadMetrics.travelTime(g);
+        for (int round = 0; round < 3; round += 1) {
+            t0 = System.nanoTime();
+            g.customize(metric);
+            System.out.printf("Customized for travel time in %.1f ms%n",
+                    (System.nanoTime() - t0) / 1e6);
+        }
+        for (Router.Algorithm algorithm : new Router.Algorithm[]{Router.Algorithm.ASTAR,
+            Router.Algorithm.CH, Router.Algorithm.CCH}) {
+            long[] nanos = new long[routes];
+            long settled = 0;
+            for (int round = 0; round < 2; round += 1) {
+                settled = 0;
+                for (int i = 0; i < routes; i += 1) {
+                    double[] q = queries[i];
+                    long start = System.nanoTime();
+                    Router.shortestPath(g, q[0], q[1], q[2], q[3], algorithm);
+                    nanos[i] = System.nanoTime() - start;
+                    settled += Router.lastSettledCount();
+                }
+            }
+            Arrays.sort(nanos);
+            System.out.printf("%-6s median %8.3f ms/route, %d settled%n", algorithm,
+                    nanos[routes / 2] / 1e6, settled / routes);
+        }
+    }
+
+    /**
+     * Prints how many vertices ALT settles, as a share of plain A*, for each landmark strategy
+     * and a few landmark counts, and how long the landmarks took to build.
+     */
+    private static void landmarkCounts(GraphDB g, double[][] queries, int routes) {
+        long plain = 0;
+        for (int i = 0; i < routes; i += 1) {
+            double[] q = queries[i];
+            Router.shortestPath(g, q[0], q[1], q[2], q[3], Router.Algorithm.ASTAR);
+            plain += Router.lastSettledCount();
+        }
+        for (Landmarks.Strategy strategy : Landmarks.Strategy.values()) {
+            for (int count : new int[]{4, 8, 16}) {
+                long t0 = System.nanoTime();
+                g.landmarks = Landmarks.build(g.csr, count, strategy);
+                double seconds = (System.nanoTime() - t0) / 1e9;
+                long settled = 0;
+                for (int i = 0; i < routes; i += 1) {
+                    double[] q = queries[i];
+                    Router.shortestPath(g, q[0], q[1], q[2], q[3], Router.Algorithm.ALT);
+                    settled += Router.lastSettledCount();
+                }
+                System.out.printf("ALT %-8s %2d landmarks (%.1f s, %d KB): settled %d vs A* %d,"
+                        + " %.1f%%%n", strategy, count, seconds,
+                        g.landmarks.estimatedBytes() / 1024, settled / routes, plain / routes,
+                        100.0 * settled / Math.max(1, plain));
+            }
+        }
+        g.landmarks = null;
+    }
+
+    /**
+     * Derives hub labels from the graph's contraction hierarchy and prints their size and memory
+     * against the time of a distance-only query, next to a hierarchy query for the same pairs.
+     */
+    private static void hubLabels(GraphDB g, double[][] queries, int routes) {
+        long t0 = System.nanoTime();
+        g.labels = HubLabels.build(g.ch);
+        System.out.printf("Built hub labels in %.1f s: %d entries, mean %.1f, max %d, %.1f MB%n",
+                (System.nanoTime() - t0) / 1e9, g.labels.entryCount(),
+                (double) g.labels.entryCount() / g.labels.size(), g.labels.maxLabelSize(),
+                g.labels.estimatedBytes() / 1e6);
+        int[] starts = new int[routes];
+        int[] dests = new int[routes];
+        for (int i = 0; i < routes; i += 1) {
+            starts[i] = g.closestIndex(queries[i][0], queries[i][1]);
+            dests[i] = g.closestIndex(queries[i][2], queries[i][3]);
+        }
+        SearchContext ctx = new SearchContext(g.csr.size());
+        double sum = 0;
+        long labelNanos = 0;
+        long searchNanos = 0;
+        for (int round = 0; round < 20; round += 1) {
+            t0 = System.nanoTime();
+            for (int i = 0; i < routes; i += 1) {
+                sum += g.labels.distance(starts[i], dests[i]);
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < routes; i += 1) {
+                sum += g.ch.shortestPath(ctx, starts[i], dests[i]).length;
+            }
+            labelNanos = t1 - t0;
+            searchNanos = System.nanoTime() - t1;
+        }
+        System.out.printf("Distance only: %.0f ns/query with labels, %.0f ns/query by CH search"
+                + " (checksum %.0f)%n", (double) labelNanos / routes,
+                (double) searchNanos / routes, sum);
+    }
+
+    /**
+     * Prints the median time to find a route and to turn it into directions, as /route does.
+     */
+    private static void directions(GraphDB g, double[][] queries, int routes) {
+        long[] searchNanos = new long[routes];
+        long[] directionNanos = new long[routes];
+        long steps = 0;
+        for (int round = 0; round < 3; round += 1) {
+            steps = 0;
+            for (int i = 0; i < routes; i += 1) {
+                double[] q = queries[i];
+                long t0 = System.nanoTime();
+                List<Long> route = Router.shortestPath(g, q[0], q[1], q[2], q[3]);
+                long t1 = System.nanoTime();
+                steps += Router.routeDirections(g, route).size();
+                directionNanos[i] = System.nanoTime() - t1;
+                searchNanos[i] = t1 - t0;
+            }
+        }
+        Arrays.sort(searchNanos);
+        Arrays.sort(directionNanos);
+        System.out.printf("Directions: median %.1f us after a %.1f us search, %d steps/route%n",
+                directionNanos[routes / 2] / 1e3, searchNanos[routes / 2] / 1e3, steps / routes);
+    }
+
+    /**
+     * Prints the best of a few timings of a 100 by 100 distance matrix between the query starts
+     * and destinations, including snapping.
+     */
+    private static void distanceMatrix(GraphDB g, double[][] queries, String how) {
+        int size = Math.min(100, queries.length);
+        double[][] points = new double[4][size];
+        for (int i = 0; i < size; i += 1) {
+            for (int c = 0; c < 4; c += 1) {
+                points[c][i] = queries[i][c];
+            }
+        }
+        long best = Long.MAX_VALUE;
+        double sum = 0;
+        for (int round = 0; round < 5; round += 1) {
+            long t0 = System.nanoTime();
+            double[][] matrix = Router.distanceMatrix(g, points[0], points[1], points[2],
+                    points[3]);
+            best = Math.min(best, System.nanoTime() - t0);
+            sum += matrix[size - 1][size - 1];
+        }
+        System.out.printf("%d x %d distance matrix %s: %.1f ms on %d threads (checksum %.3f)%n",
+                size, size, how, best / 1e6, ForkJoinPool.commonPool().getParallelism(), sum);
+    }
+
+    /**
+     * Replays a skewed workload, a few popular trips asked for often and in both directions,
+     * without and then with the route cache, and prints the throughput and the cache counters.
+     */
+    private static void routeCache(GraphDB g, double[][] queries) {
+        Random r = new Random(9);
+        int popular = Math.min(50, queries.length);
+        double[][] workload = new double[20 * popular][];
+        for (int i = 0; i < workload.length; i += 1) {
+            /* Squaring a uniform draw favors the first trips, like repeat campus traffic. */
+            double[] q = queries[(int) (popular * Math.pow(r.nextDouble(), 2))];
+            workload[i] = r.nextBoolean() ? q : new double[]{q[2], q[3], q[0], q[1]};
+        }
+        for (int bound : new int[]{0, 4096}) {
+            Router.configureCache(bound, 1 << 20);
+            long start = System.nanoTime();
+            for (double[] q : workload) {
+                Router.shortestPath(g, q[0], q[1], q[2], q[3]);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Route cache %s: %8.1f routes/s; %s%n", bound > 0 ? "on " : "off",
+                    workload.length / (elapsed / 1e9), Router.routeCache());
+        }
+        Router.configureCache(0, 0);
+    }
+
+    /** Prints the mean vertices settled by each algorithm over the given cases. */
+    private static void settledCounts(GraphDB g, String name, List<double[]> cases) {
+        long oneWay = 0;
+        long twoWay = 0;
+        for (double[] q : cases) {
+            Router.shortestPath(g, q[0], q[1], q[2], q[3], Router.Algorithm.ASTAR);
+            oneWay += Router.lastSettledCount();
+            Router.shortestPath(g, q[0], q[1], q[2], q[3], Router.Algorithm.BIDIRECTIONAL);
+            twoWay += Router.lastSettledCount();
+        }
+        int n = Math.max(1, cases.size());
+        System.out.printf("%s (%d routes): settled A* %d, bidirectional A* %d%n", name,
+                cases.size(), oneWay / n, twoWay / n);
+    }
+
+    /**
+     * The original object-based A* that <code>Router.shortestPath</code> replaced, kept here to
+     * compare against. It keys the fringe on a map the comparator reads while entries are still
+     * in the heap, so it can occasionally miss the shortest path.
+     */
+    private static List<Long> legacyShortestPath(GraphDB g,
+                                                 double stlon, double stlat,
+                                                 double destlon, double destlat) {
+        long startID = g.closest(stlon, stlat);
+        long destID = g.closest(destlon, destlat);
+        double destLat = g.lat(destID);
+        double destLon = g.lon(destID);
+        HashMap<Long, Double> best = new HashMap<>();
+        HashMap<Long, Long> edgeTo = new HashMap<>();
+        ArrayList<Long> result = new ArrayList<>();
+        PriorityQueue<GraphDB.Vertex> fringe = new PriorityQueue<>((o1, o2) -> {
+            if (best.containsKey(o1.id) && !best.containsKey(o2.id)) {
+                return -1;
+            } else if (!best.containsKey(o1.id) && best.containsKey(o2.id)) {
+                return 1;
+            } else if (best.containsKey(o1.id) && best.containsKey(o2.id)) {
+                return Double.compare(best.get(o1.id)
+                        + GraphDB.haversine(o1.lat, o1.lon, destLat, destLon), best.get(o2.id)
+                        + GraphDB.haversine(o2.lat, o2.lon, destLat, destLon));
+            } else {
+                return 0;
+            }
+        });
+        fringe.add(g.vertexAt(g.csr.indexOf(startID)));
+        best.put(startID, 0.0);
+        while (!fringe.isEmpty()) {
+            GraphDB.Vertex curr = fringe.poll();
+            long currID = curr.id;
+            if (currID == destID) {
+                result.add(destID);
+                break;
+            }
+            int c = g.csr.indexOf(currID);
+            for (int k = g.csr.offsets[c]; k < g.csr.offsets[c + 1]; k += 1) {
+                int n = g.csr.targets[k];
+                long l = g.csr.id(n);
+                double candidate = best.get(currID) + g.csr.distance(c, n);
+                if (!best.containsKey(l) || best.get(l) > candidate) {
+                    best.put(l, candidate);
+                    edgeTo.put(l, currID);
+                    fringe.add(g.vertexAt(n));
+                }
+            }
+        }
+        long threshold = destID;
+        while (edgeTo.get(threshold) != null && threshold != startID) {
+            long durr = edgeTo.get(threshold);
+            result.add(0, durr);
+            threshold = durr;
+        }
+        return result;
+    }
+}
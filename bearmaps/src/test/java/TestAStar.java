@@ -0,0 +1,119 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks AStar, BidirectionalAStar and their IndexedHeap against simple reference
+ * implementations, on a random road grid that needs no map data.
+ */
+public class TestAStar {
+    private static final int SIDE = 60;
+    private static final int NUM_QUERIES = 300;
+
+    /** Returns the shortest distance from start to every vertex, by an O(n^2) Dijkstra. */
+    private static double[] dijkstra(CompactGraph g, int start) {
+        double[] dist = new double[g.size()];
+        boolean[] done = new boolean[g.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[start] = 0;
+        for (int round = 0; round < g.size(); round += 1) {
+            int v = -1;
+            for (int i = 0; i < g.size(); i += 1) {
+                if (!done[i] && (v < 0 || dist[i] < dist[v])) {
+                    v = i;
+                }
+            }
+            done[v] = true;
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                int w = g.targets[k];
+                dist[w] = Math.min(dist[w], dist[v] + g.distance(v, w));
+            }
+        }
+        return dist;
+    }
+
+    @Test
+    public void testShortestPathMatchesDijkstra() {
+        CompactGraph g = TestGraphs.randomGrid(SIDE, 4);
+        SearchContext ctx = new SearchContext(g.size());
+        Random r = new Random(5);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int start = r.nextInt(g.size());
+            int dest = r.nextInt(g.size());
+            /* Reusing one context for every query also checks that reset forgets old state. */
+            int[] path = AStar.shortestPath(g, ctx, start, dest);
+            assertEquals(start, path[0]);
+            assertEquals(dest, path[path.length - 1]);
+            for (int i = 1; i < path.length; i += 1) {
+                boolean adjacent = false;
+                for (int k = g.offsets[path[i - 1]]; k < g.offsets[path[i - 1] + 1]; k += 1) {
+                    adjacent |= g.targets[k] == path[i];
+                }
+                assertTrue(adjacent);
+            }
+            if (q % 10 == 0) {
+                assertEquals(dijkstra(g, start)[dest], TestGraphs.length(g, path), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalMatchesUnidirectional() {
+        CompactGraph g = TestGraphs.randomGrid(SIDE, 4);
+        SearchContext ctx = new SearchContext(g.size());
+        Random r = new Random(7);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int start = r.nextInt(g.size());
+            int dest = r.nextInt(g.size());
+            double expected = TestGraphs.length(g, AStar.shortestPath(g, ctx, start, dest));
+            int oneWay = ctx.settled();
+            int[] path = BidirectionalAStar.shortestPath(g, ctx, start, dest);
+            assertEquals(start, path[0]);
+            assertEquals(dest, path[path.length - 1]);
+            assertEquals(expected, TestGraphs.length(g, path), 1e-9);
+            assertTrue(ctx.settled() <= 2 * oneWay + 2);
+        }
+    }
+
+    @Test
+    public void testUnreachableAndTrivial() {
+        CompactGraph g = TestKDTree.randomPoints(10, 1);
+        SearchContext ctx = new SearchContext(g.size());
+        assertArrayEquals(new int[0], AStar.shortestPath(g, ctx, 2, 7));
+        assertArrayEquals(new int[]{3}, AStar.shortestPath(g, ctx, 3, 3));
+        assertArrayEquals(new int[0], BidirectionalAStar.shortestPath(g, ctx, 2, 7));
+        assertArrayEquals(new int[]{3}, BidirectionalAStar.shortestPath(g, ctx, 3, 3));
+    }
+
+    @Test
+    public void testHeapOrder() {
+        Random r = new Random(6);
+        int n = 1000;
+        IndexedHeap heap = new IndexedHeap(n);
+        double[] keys = new double[n];
+        for (int v = 0; v < n; v += 1) {
+            keys[v] = r.nextDouble();
+            heap.offer(v, keys[v]);
+        }
+        for (int v = 0; v < n; v += 2) {
+            keys[v] /= 2;
+            heap.offer(v, keys[v]);
+            /* A larger key is ignored. */
+            heap.offer(v, keys[v] + 1);
+        }
+        double last = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i += 1) {
+            double key = heap.minKey();
+            int v = heap.poll();
+            assertEquals(keys[v], key, 0);
+            assertTrue(key >= last);
+            last = key;
+        }
+        assertTrue(heap.isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that BatchRouter writes the same routes as Router.shortestPath, in input order, on a
+ * small street grid written out here.
+ */
+public class TestBatchRouter {
+    private static final int SIDE = 20;
+    private static final int TRIPS = 3 * BatchRouter.CHUNK_SIZE + 17;
+    private static GraphDB g;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        StringBuilder osm = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n");
+        osm.append("<osm version=\"0.6\">\n");
+        for (int r = 0; r < SIDE; r += 1) {
+            for (int c = 0; c < SIDE; c += 1) {
+                osm.append(String.format("<node id=\"%d\" lat=\"%f\" lon=\"%f\"/>%n",
+                        1 + r * SIDE + c, 37.83 + 0.002 * r, -122.29 + 0.002 * c));
+            }
+        }
+        for (int i = 0; i < SIDE; i += 1) {
+            StringBuilder row = new StringBuilder();
+            StringBuilder column = new StringBuilder();
+            for (int j = 0; j < SIDE; j += 1) {
+                row.append(String.format("<nd ref=\"%d\"/>", 1 + i * SIDE + j));
+                column.append(String.format("<nd ref=\"%d\"/>", 1 + j * SIDE + i));
+            }
+            osm.append(String.format("<way id=\"%d\">%s<tag k=\"highway\" v=\"residential\"/>"
+                    + "</way>%n", 1 + i, row));
+            osm.append(String.format("<way id=\"%d\">%s<tag k=\"highway\" v=\"residential\"/>"
+                    + "</way>%n", 1 + SIDE + i, column));
+        }
+        osm.append("</osm>\n");
+        File file = File.createTempFile("batch", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), osm.toString().getBytes(StandardCharsets.UTF_8));
+        g = new GraphDB(file.getPath());
+    }
+
+    @Test
+    public void testMatchesShortestPath() throws Exception {
+        Random r = new Random(19);
+        double[][] trips = new double[TRIPS][];
+        StringBuilder input = new StringBuilder("# start_lon, start_lat, end_lon, end_lat\n");
+        for (int i = 0; i < TRIPS; i += 1) {
+            trips[i] = new double[]{-122.29 + 0.04 * r.nextDouble(), 37.83 + 0.04 * r.nextDouble(),
+                -122.29 + 0.04 * r.nextDouble(), 37.83 + 0.04 * r.nextDouble()};
+            input.append(i % 2 == 0
+                    ? String.format("%s,%s,%s,%s%n", trips[i][0], trips[i][1], trips[i][2],
+                            trips[i][3])
+                    : String.format("  %s %s %s %s%n%n", trips[i][0], trips[i][1], trips[i][2],
+                            trips[i][3]));
+        }
+        StringWriter out = new StringWriter();
+        BatchRouter.Stats stats = new BatchRouter(g, Router.Algorithm.ASTAR, 4, true)
+                .run(new BufferedReader(new StringReader(input.toString())), out);
+        assertEquals(TRIPS, stats.routes);
+        assertEquals(0, stats.unreachable);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(TRIPS, lines.length);
+        for (int i = 0; i < TRIPS; i += 1) {
+            List<Long> expected = Router.shortestPath(g, trips[i][0], trips[i][1], trips[i][2],
+                    trips[i][3], Router.Algorithm.ASTAR);
+            String[] fields = lines[i].split(" ");
+            assertEquals(expected.size(), Integer.parseInt(fields[1]));
+            double miles = 0;
+            for (int j = 0; j < expected.size(); j += 1) {
+                assertEquals((long) expected.get(j), Long.parseLong(fields[2 + j]));
+                if (j > 0) {
+                    miles += g.distance(expected.get(j - 1), expected.get(j));
+                }
+            }
+            assertEquals(miles, Double.parseDouble(fields[0]), 1e-9);
+        }
+    }
+
+    @Test
+    public void testMalformedLine() {
+        String input = "-122.28,37.84,-122.27,37.85\n-122.28,37.84,-122.27\n";
+        try {
+            new BatchRouter(g, Router.Algorithm.AUTO, 2, false)
+                    .run(new BufferedReader(new StringReader(input)), new StringWriter());
+            fail("Accepted a line with three numbers.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Line 2:"));
+        }
+    }
+}
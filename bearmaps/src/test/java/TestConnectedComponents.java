@@ -0,0 +1,113 @@
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the connected components of a small map with two islands cut off from its main roads,
+ * and how routing and snapping use them.
+ */
+public class TestConnectedComponents {
+    private static final String OSM = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<osm version=\"0.6\">\n"
+            + "  <node id=\"1\" lat=\"37.85\" lon=\"-122.28\"/>\n"
+            + "  <node id=\"2\" lat=\"37.85\" lon=\"-122.27\"/>\n"
+            + "  <node id=\"3\" lat=\"37.85\" lon=\"-122.26\"/>\n"
+            + "  <node id=\"4\" lat=\"37.85\" lon=\"-122.25\"/>\n"
+            + "  <node id=\"5\" lat=\"37.86\" lon=\"-122.27\"/>\n"
+            + "  <node id=\"10\" lat=\"37.87\" lon=\"-122.28\"/>\n"
+            + "  <node id=\"11\" lat=\"37.87\" lon=\"-122.27\"/>\n"
+            + "  <node id=\"20\" lat=\"37.84\" lon=\"-122.24\"/>\n"
+            + "  <node id=\"21\" lat=\"37.84\" lon=\"-122.23\"/>\n"
+            + "  <node id=\"22\" lat=\"37.83\" lon=\"-122.23\"/>\n"
+            + "  <way id=\"1\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"4\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "  <way id=\"2\"><nd ref=\"2\"/><nd ref=\"5\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "  <way id=\"3\"><nd ref=\"10\"/><nd ref=\"11\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "  <way id=\"4\"><nd ref=\"20\"/><nd ref=\"21\"/><nd ref=\"22\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+    private static GraphDB g;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        File file = File.createTempFile("components", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), OSM.getBytes(StandardCharsets.UTF_8));
+        g = new GraphDB(file.getPath());
+    }
+
+    @After
+    public void restore() {
+        g.preferLargestComponent(false);
+    }
+
+    private static int index(long id) {
+        return g.csr.indexOf(id);
+    }
+
+    @Test
+    public void testLabels() {
+        ConnectedComponents cc = g.components;
+        assertEquals(3, cc.count());
+        assertEquals(5, cc.size(0));
+        assertEquals(3, cc.size(1));
+        assertEquals(2, cc.size(2));
+        assertTrue(cc.inLargest(index(5)));
+        assertTrue(cc.connected(index(1), index(4)));
+        assertEquals(1, cc.id(index(22)));
+        assertEquals(2, cc.id(index(10)));
+        assertFalse(cc.connected(index(4), index(20)));
+        assertEquals(5, cc.largest().length);
+        assertTrue(g.report.toString().contains("largest component"));
+    }
+
+    @Test
+    public void testCrossComponentRoutes() {
+        Router.Algorithm[] algorithms = {Router.Algorithm.AUTO, Router.Algorithm.ASTAR,
+            Router.Algorithm.BIDIRECTIONAL};
+        for (Router.Algorithm a : algorithms) {
+            assertTrue(Router.shortestPath(g, -122.28, 37.85, -122.28, 37.87, a).isEmpty());
+        }
+        assertEquals(3, Router.shortestPath(g, -122.28, 37.85, -122.26, 37.85).size());
+        assertTrue(Router.snappedShortestPath(g, -122.265, 37.85, -122.235, 37.84).isEmpty());
+        assertEquals(Double.POSITIVE_INFINITY,
+                Router.distanceOnly(g, -122.28, 37.85, -122.23, 37.83), 0);
+
+        int[] origins = {index(1), index(10), index(20)};
+        int[] destinations = {index(4), index(11), index(22), index(5)};
+        double[][] withComponents = DistanceMatrix.compute(g.csr, null, g.components, origins,
+                destinations);
+        double[][] without = DistanceMatrix.compute(g.csr, null, origins, destinations);
+        for (int i = 0; i < origins.length; i += 1) {
+            assertArrayEquals(without[i], withComponents[i], 0);
+        }
+        assertEquals(Double.POSITIVE_INFINITY, withComponents[1][0], 0);
+        assertEquals(g.distance(10, 11), withComponents[1][1], 1e-12);
+    }
+
+    @Test
+    public void testPreferLargestComponent() {
+        assertEquals(10, g.closest(-122.28, 37.868));
+        assertTrue(Router.shortestPath(g, -122.28, 37.868, -122.25, 37.85).isEmpty());
+
+        g.preferLargestComponent(true);
+        assertEquals(5, g.closest(-122.28, 37.868));
+        assertArrayEquals(new int[]{index(5), index(1)},
+                g.closestIndices(new double[]{-122.28, -122.28}, new double[]{37.868, 37.85}));
+        assertEquals(4, Router.shortestPath(g, -122.28, 37.868, -122.25, 37.85).size());
+        /* Both ends snap to the nearest vertex of the main roads, here the same one. */
+        assertEquals(1, Router.snappedShortestPath(g, -122.235, 37.84, -122.23, 37.835).size());
+        assertEquals(4, Router.snappedShortestPath(g, -122.28, 37.87, -122.235, 37.84).size());
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks ContractionHierarchy queries against AStar, and its persistence, on a random road grid
+ * that needs no map data.
+ */
+public class TestContractionHierarchy {
+    private static final int NUM_QUERIES = 500;
+    private static CompactGraph g;
+    private static ContractionHierarchy ch;
+
+    @BeforeClass
+    public static void build() {
+        g = TestGraphs.grid();
+        ch = new ContractionHierarchyBuilder(g).build();
+    }
+
+    @Test
+    public void testRanksArePermutation() {
+        boolean[] seen = new boolean[g.size()];
+        for (int v = 0; v < g.size(); v += 1) {
+            seen[ch.rank[v]] = true;
+            for (int k = ch.offsets[v]; k < ch.offsets[v + 1]; k += 1) {
+                assertTrue(ch.rank[ch.targets[k]] > ch.rank[v]);
+            }
+        }
+        for (boolean b : seen) {
+            assertTrue(b);
+        }
+    }
+
+    @Test
+    public void testQueriesMatchAStar() {
+        SearchContext ctx = new SearchContext(g.size());
+        Random r = new Random(12);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int start = r.nextInt(g.size());
+            int dest = r.nextInt(g.size());
+            int[] expected = AStar.shortestPath(g, ctx, start, dest);
+            int[] actual = ch.shortestPath(ctx, start, dest);
+            assertEquals(start, actual[0]);
+            assertEquals(dest, actual[actual.length - 1]);
+            for (int i = 1; i < actual.length; i += 1) {
+                boolean adjacent = false;
+                for (int k = g.offsets[actual[i - 1]]; k < g.offsets[actual[i - 1] + 1]; k += 1) {
+                    adjacent |= g.targets[k] == actual[i];
+                }
+                assertTrue(adjacent);
+            }
+            assertEquals(TestGraphs.length(g, expected),
+                    TestGraphs.length(g, actual), 1e-9);
+        }
+        assertArrayEquals(new int[]{5}, ch.shortestPath(ctx, 5, 5));
+    }
+
+    @Test
+    public void testUnreachable() {
+        CompactGraph points = TestKDTree.randomPoints(10, 1);
+        ContractionHierarchy empty = new ContractionHierarchyBuilder(points).build();
+        assertArrayEquals(new int[0], empty.shortestPath(new SearchContext(10), 2, 7));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = File.createTempFile("bearmaps", ".ch");
+        file.deleteOnExit();
+        ch.write(file.getPath());
+        ContractionHierarchy read = ContractionHierarchy.read(file.getPath(), g);
+        assertNotNull(read);
+        assertArrayEquals(ch.rank, read.rank);
+        assertArrayEquals(ch.offsets, read.offsets);
+        assertArrayEquals(ch.targets, read.targets);
+        assertArrayEquals(ch.weights, read.weights, 0);
+        assertArrayEquals(ch.middles, read.middles);
+        /* A hierarchy is ignored for any other graph. */
+        assertNull(ContractionHierarchy.read(file.getPath(), TestGraphs.otherGrid()));
+        /* A file cut short is rebuilt like a stale one, rather than failing startup. */
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(f.length() / 2);
+        }
+        assertNull(ContractionHierarchy.read(file.getPath(), g));
+    }
+}
@@ -0,0 +1,149 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that CustomizableContractionHierarchy answers queries exactly under several metrics,
+ * including one with closed roads, on a random road grid, checks RoadMetrics' speed parsing, and
+ * checks that a graph prepares its hierarchy on the first query that needs it.
+ */
+public class TestCustomizableContractionHierarchy {
+    private static final int NUM_QUERIES = 300;
+    private static CompactGraph g;
+    private static CustomizableContractionHierarchy cch;
+
+    @BeforeClass
+    public static void build() {
+        g = TestGraphs.grid();
+        cch = new CustomizableContractionHierarchy(g);
+    }
+
+    /** Returns the weight of a path under a metric. */
+    private static double weight(int[] path, double[] metric) {
+        double total = 0;
+        for (int i = 1; i < path.length; i += 1) {
+            total += metric[g.edge(path[i - 1], path[i])];
+        }
+        return total;
+    }
+
+    /** Returns the weight of the best path from start to dest under a metric, by Dijkstra. */
+    private static double dijkstra(double[] metric, int start, int dest) {
+        double[] dist = new double[g.size()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexedHeap heap = new IndexedHeap(g.size());
+        dist[start] = 0;
+        heap.offer(start, 0);
+        while (!heap.isEmpty()) {
+            int v = heap.poll();
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                double candidate = dist[v] + metric[k];
+                if (candidate < dist[g.targets[k]]) {
+                    dist[g.targets[k]] = candidate;
+                    heap.offer(g.targets[k], candidate);
+                }
+            }
+        }
+        return dist[dest];
+    }
+
+    private static void checkQueries(double[] metric, long seed) {
+        ContractionHierarchy ch = cch.customize(metric).hierarchy;
+        SearchContext ctx = new SearchContext(g.size());
+        Random r = new Random(seed);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int start = r.nextInt(g.size());
+            int dest = r.nextInt(g.size());
+            int[] path = ch.shortestPath(ctx, start, dest);
+            double expected = dijkstra(metric, start, dest);
+            if (expected == Double.POSITIVE_INFINITY) {
+                assertEquals(0, path.length);
+            } else {
+                assertEquals(start, path[0]);
+                assertEquals(dest, path[path.length - 1]);
+                assertEquals(expected, weight(path, metric), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testRanksArePermutation() {
+        boolean[] seen = new boolean[g.size()];
+        for (int v = 0; v < g.size(); v += 1) {
+            seen[cch.rank[v]] = true;
+            for (int a = cch.offsets[v]; a < cch.offsets[v + 1]; a += 1) {
+                assertTrue(cch.rank[cch.targets[a]] > cch.rank[v]);
+            }
+        }
+        for (boolean b : seen) {
+            assertTrue(b);
+        }
+    }
+
+    @Test
+    public void testDistanceMetric() {
+        checkQueries(RoadMetrics.distance(g), 12);
+    }
+
+    @Test
+    public void testRandomMetric() {
+        double[] metric = RoadMetrics.distance(g);
+        Random r = new Random(3);
+        for (int v = 0; v < g.size(); v += 1) {
+            for (int k = g.offsets[v]; k < g.offsets[v + 1]; k += 1) {
+                int w = g.targets[k];
+                if (v < w) {
+                    metric = RoadMetrics.scale(g, metric, v, w, 1 + 4 * r.nextDouble());
+                }
+            }
+        }
+        checkQueries(metric, 13);
+    }
+
+    @Test
+    public void testClosures() {
+        double[] metric = RoadMetrics.distance(g);
+        Random r = new Random(4);
+        for (int i = 0; i < g.size() / 5; i += 1) {
+            int v = r.nextInt(g.size());
+            if (g.offsets[v + 1] > g.offsets[v]) {
+                metric = RoadMetrics.close(g, metric, v, g.targets[g.offsets[v]]);
+            }
+        }
+        checkQueries(metric, 14);
+    }
+
+    @Test
+    public void testSpeeds() {
+        assertEquals(25, RoadMetrics.parseMaxspeed("25 mph"), 1e-9);
+        assertEquals(50 * 0.621371, RoadMetrics.parseMaxspeed("50"), 1e-9);
+        assertEquals(50 * 0.621371, RoadMetrics.parseMaxspeed("50 km/h"), 1e-9);
+        assertEquals(0, RoadMetrics.parseMaxspeed("signals"), 0);
+        assertEquals(0, RoadMetrics.parseMaxspeed(null), 0);
+        assertEquals(65, RoadMetrics.speed(Map.of("highway", "motorway")), 1e-9);
+        assertEquals(30, RoadMetrics.speed(Map.of("highway", "motorway", "maxspeed", "30 mph")),
+                1e-9);
+    }
+
+    @Test
+    public void testPreparedOnFirstUse() {
+        GraphDB tiny = new GraphDB("../library-su18/bearmaps/tiny-clean.osm.xml");
+        tiny.allowCustomization();
+        assertNull(tiny.cch);
+        Router.invalidateCache();
+        List<Long> actual = Router.shortestPath(tiny, -122.27, 37.84, -122.23, 37.88,
+                Router.Algorithm.CCH);
+        assertNotNull(tiny.cch);
+        assertEquals(22L, (long) actual.get(0));
+        assertEquals(66L, (long) actual.get(actual.size() - 1));
+    }
+}
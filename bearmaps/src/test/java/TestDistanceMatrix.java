@@ -0,0 +1,87 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks DistanceMatrix entries against AStar, with and without hub labels, on a random road
+ * grid, and the parsing of matrix requests.
+ */
+public class TestDistanceMatrix {
+    private static CompactGraph g;
+    private static HubLabels labels;
+
+    @BeforeClass
+    public static void build() {
+        g = TestGraphs.grid();
+        labels = HubLabels.build(new ContractionHierarchyBuilder(g).build());
+    }
+
+    private static int[] randomVertices(Random r, int count) {
+        int[] vertices = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            vertices[i] = r.nextInt(g.size());
+        }
+        return vertices;
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        Random r = new Random(22);
+        int[] origins = randomVertices(r, 30);
+        int[] destinations = randomVertices(r, 25);
+        /* Repeated destinations, and an origin that is also a destination. */
+        destinations[3] = destinations[7];
+        origins[0] = destinations[0];
+        double[][] searched = DistanceMatrix.compute(g, null, origins, destinations);
+        double[][] merged = DistanceMatrix.compute(g, labels, origins, destinations);
+        SearchContext ctx = new SearchContext(g.size());
+        for (int i = 0; i < origins.length; i += 1) {
+            for (int j = 0; j < destinations.length; j += 1) {
+                int[] path = AStar.shortestPath(g, ctx, origins[i], destinations[j]);
+                double expected = TestGraphs.length(g, path);
+                assertEquals(expected, searched[i][j], 1e-9);
+                assertEquals(expected, merged[i][j], 1e-5);
+            }
+        }
+        assertEquals(0, searched[0][0], 0);
+    }
+
+    @Test
+    public void testUnreachable() {
+        CompactGraph points = TestKDTree.randomPoints(10, 1);
+        double[][] matrix = DistanceMatrix.compute(points, null, new int[]{2, 3},
+                new int[]{2, 7});
+        assertArrayEquals(new double[]{0, Double.POSITIVE_INFINITY}, matrix[0], 0);
+        assertArrayEquals(new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY},
+                matrix[1], 0);
+    }
+
+    @Test
+    public void testParseRequest() {
+        Map<String, String[]> req = new HashMap<>();
+        req.put("origins", new String[]{"-122.26,37.87; -122.25,37.86"});
+        req.put("destinations", new String[]{"-122.24,37.85"});
+        MatrixRequestParams params = MatrixRequestParams.from(req);
+        assertArrayEquals(new double[]{-122.26, -122.25}, params.originLons, 0);
+        assertArrayEquals(new double[]{37.87, 37.86}, params.originLats, 0);
+        assertArrayEquals(new double[]{-122.24}, params.destLons, 0);
+        assertArrayEquals(new double[]{37.85}, params.destLats, 0);
+
+        for (String bad : new String[]{"", "-122.24", "-122.24,north", "1,2,3"}) {
+            req.put("destinations", new String[]{bad});
+            try {
+                MatrixRequestParams.from(req);
+                fail("Accepted " + bad);
+            } catch (IllegalArgumentException e) {
+                assertEquals(true, e.getMessage().contains("destinations"));
+            }
+        }
+    }
+}
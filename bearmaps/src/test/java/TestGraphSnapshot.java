@@ -0,0 +1,75 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a graph loaded from a binary snapshot answers queries exactly like the graph parsed
+ * from the XML it was built from.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_TINY = "../library-su18/bearmaps/tiny-clean.osm.xml";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File snapshot = File.createTempFile("tiny-clean", ".snapshot");
+        snapshot.deleteOnExit();
+        snapshot.delete();
+
+        GraphDB parsed = new GraphDB(OSM_DB_PATH_TINY, snapshot.getPath());
+        assertEquals(true, snapshot.exists());
+        GraphDB loaded = new GraphDB(OSM_DB_PATH_TINY, snapshot.getPath());
+
+        assertArrayEquals(parsed.csr.ids, loaded.csr.ids);
+        assertArrayEquals(parsed.csr.offsets, loaded.csr.offsets);
+        assertArrayEquals(parsed.csr.targets, loaded.csr.targets);
+        assertEquals(parsed.paths.keySet(), loaded.paths.keySet());
+        for (long v : parsed.vertices()) {
+            assertEquals(toList(parsed.adjacent(v)), toList(loaded.adjacent(v)));
+            assertEquals(parsed.lat(v), loaded.lat(v), 0.0);
+            assertEquals(parsed.lon(v), loaded.lon(v), 0.0);
+        }
+        assertEquals(55L, loaded.closest(-122.25, 37.87));
+        assertEquals(Router.shortestPath(parsed, -122.27, 37.84, -122.23, 37.88),
+                Router.shortestPath(loaded, -122.27, 37.84, -122.23, 37.88));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        File snapshot = File.createTempFile("tiny-clean", ".snapshot");
+        snapshot.deleteOnExit();
+        snapshot.delete();
+        GraphDB parsed = new GraphDB(OSM_DB_PATH_TINY, snapshot.getPath());
+        long length = snapshot.length();
+
+        /* Keep the header but lose the end, as a half-copied file would. */
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(length / 2);
+        }
+        GraphDB loaded = new GraphDB(OSM_DB_PATH_TINY, snapshot.getPath());
+        assertArrayEquals(parsed.csr.ids, loaded.csr.ids);
+        assertArrayEquals(parsed.csr.targets, loaded.csr.targets);
+        assertEquals(parsed.paths.keySet(), loaded.paths.keySet());
+        assertEquals(length, snapshot.length());
+
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(length - 1);
+        }
+        loaded = new GraphDB(OSM_DB_PATH_TINY, snapshot.getPath());
+        assertArrayEquals(parsed.csr.targets, loaded.csr.targets);
+        assertEquals(length, snapshot.length());
+    }
+
+    private static List<Long> toList(Iterable<Long> ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+}
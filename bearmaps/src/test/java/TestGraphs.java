@@ -0,0 +1,79 @@
+import java.util.Random;
+
+/**
+ * Random road graphs for tests that need no map data, and the random grid the routing tests
+ * share so that it is built only once per test run.
+ */
+class TestGraphs {
+    /** Side of the shared grid. */
+    static final int SIDE = 40;
+    private static CompactGraph grid;
+
+    /** Builds a jittered side-by-side grid graph, with edges to the right and upper neighbors. */
+    static CompactGraph randomGrid(int side, long seed) {
+        Random r = new Random(seed);
+        int n = side * side;
+        long[] ids = new long[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            ids[i] = i;
+            double row = (i / side + 0.4 * r.nextDouble()) / side;
+            double col = (i % side + 0.4 * r.nextDouble()) / side;
+            lat[i] = MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA * row;
+            lon[i] = MapServer.ROOT_ULLON + MapServer.ROOT_LON_DELTA * col;
+            x[i] = GraphDB.projectToX(lon[i], lat[i]);
+            y[i] = GraphDB.projectToY(lon[i], lat[i]);
+        }
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[4 * n];
+        int m = 0;
+        for (int i = 0; i < n; i += 1) {
+            offsets[i] = m;
+            int row = i / side;
+            int col = i % side;
+            int[] candidates = {col > 0 ? i - 1 : -1, col < side - 1 ? i + 1 : -1,
+                row > 0 ? i - side : -1, row < side - 1 ? i + side : -1};
+            for (int c : candidates) {
+                if (c >= 0) {
+                    targets[m] = c;
+                    m += 1;
+                }
+            }
+        }
+        offsets[n] = m;
+        int[] trimmed = new int[m];
+        System.arraycopy(targets, 0, trimmed, 0, m);
+        return new CompactGraph(ids, lat, lon, x, y, offsets, trimmed);
+    }
+
+    /**
+     * Returns the random grid the routing tests share, built the first time it is asked for.
+     * Tests must not change it.
+     */
+    static synchronized CompactGraph grid() {
+        if (grid == null) {
+            grid = randomGrid(SIDE, 11);
+        }
+        return grid;
+    }
+
+    /** Returns a grid of the same size as <code>grid()</code> but with other coordinates. */
+    static CompactGraph otherGrid() {
+        return randomGrid(SIDE, 12);
+    }
+
+    /** Returns the length of a path in g, or infinity for the empty path of an unreachable one. */
+    static double length(CompactGraph g, int[] path) {
+        if (path.length == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double total = 0;
+        for (int i = 1; i < path.length; i += 1) {
+            total += g.distance(path[i - 1], path[i]);
+        }
+        return total;
+    }
+}
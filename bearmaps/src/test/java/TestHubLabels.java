@@ -0,0 +1,76 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks HubLabels distances against AStar, and their persistence, on a random road grid.
+ */
+public class TestHubLabels {
+    private static final int NUM_QUERIES = 1000;
+    private static CompactGraph g;
+    private static HubLabels labels;
+
+    @BeforeClass
+    public static void build() {
+        g = TestGraphs.grid();
+        labels = HubLabels.build(new ContractionHierarchyBuilder(g).build());
+    }
+
+    @Test
+    public void testLabelsAreSorted() {
+        for (int v = 0; v < labels.size(); v += 1) {
+            for (int i = labels.offsets[v] + 1; i < labels.offsets[v + 1]; i += 1) {
+                assertTrue(labels.hubs[i - 1] < labels.hubs[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testDistancesMatchAStar() {
+        SearchContext ctx = new SearchContext(g.size());
+        Random r = new Random(12);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int start = r.nextInt(g.size());
+            int dest = r.nextInt(g.size());
+            double expected = TestGraphs.length(g, AStar.shortestPath(g, ctx, start, dest));
+            assertEquals(expected, labels.distance(start, dest), 1e-5);
+        }
+        assertEquals(0, labels.distance(7, 7), 0);
+    }
+
+    @Test
+    public void testUnreachable() {
+        CompactGraph points = TestKDTree.randomPoints(10, 1);
+        HubLabels isolated = HubLabels.build(new ContractionHierarchyBuilder(points).build());
+        assertEquals(Double.POSITIVE_INFINITY, isolated.distance(2, 7), 0);
+        assertEquals(10, isolated.entryCount());
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        File file = File.createTempFile("bearmaps", ".labels");
+        file.deleteOnExit();
+        labels.write(file.getPath());
+        HubLabels read = HubLabels.read(file.getPath(), g);
+        assertNotNull(read);
+        assertArrayEquals(labels.offsets, read.offsets);
+        assertArrayEquals(labels.hubs, read.hubs);
+        assertArrayEquals(labels.distances, read.distances, 0);
+        /* Labels are ignored for any other graph. */
+        assertNull(HubLabels.read(file.getPath(), TestGraphs.otherGrid()));
+        /* A file cut short is rebuilt like a stale one, rather than failing startup. */
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(f.length() / 2);
+        }
+        assertNull(HubLabels.read(file.getPath(), g));
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks Isochrone areas against exact distances on a random road grid, and the parsing of
+ * reachability requests.
+ */
+public class TestIsochrone {
+    private static final int SIDE = 40;
+    private static final int SOURCE = 817;
+    private static CompactGraph g;
+    /** The distance from SOURCE to every vertex. */
+    private static double[] exact;
+
+    @BeforeClass
+    public static void build() {
+        g = TestGraphs.randomGrid(SIDE, 31);
+        int[] all = new int[g.size()];
+        for (int v = 0; v < all.length; v += 1) {
+            all[v] = v;
+        }
+        exact = DistanceMatrix.compute(g, null, new int[]{SOURCE}, all)[0];
+    }
+
+    @Test
+    public void testBudgetsArePrefixes() {
+        double[] budgets = {0.5, 0.05, 0.2};
+        Isochrone iso = Isochrone.compute(g, new SearchContext(g.size()), new int[]{SOURCE},
+                new double[]{0}, budgets);
+        assertArrayEquals(new double[]{0.05, 0.2, 0.5}, iso.budgets, 0);
+        for (int b = 0; b < iso.budgets.length; b += 1) {
+            Set<Integer> found = new HashSet<>();
+            for (int v : iso.within(b)) {
+                found.add(v);
+            }
+            for (int v = 0; v < g.size(); v += 1) {
+                assertEquals(exact[v] <= iso.budgets[b], found.contains(v));
+            }
+        }
+        assertEquals(SOURCE, iso.vertices[0]);
+        for (int i = 1; i < iso.vertices.length; i += 1) {
+            assertTrue(exact[iso.vertices[i - 1]] <= exact[iso.vertices[i]]);
+        }
+        /* A budget of zero reaches only the source. */
+        Isochrone none = Isochrone.compute(g, new SearchContext(g.size()), new int[]{SOURCE},
+                new double[]{0}, new double[]{0});
+        assertArrayEquals(new int[]{SOURCE}, none.vertices);
+    }
+
+    @Test
+    public void testHull() {
+        Isochrone iso = Isochrone.compute(g, new SearchContext(g.size()), new int[]{SOURCE},
+                new double[]{0}, new double[]{0.3});
+        double[][] hull = iso.hull(g, 0, Isochrone.HULL_SECTORS);
+        assertTrue(hull.length > 3 && hull.length <= Isochrone.HULL_SECTORS);
+        Set<String> inside = new HashSet<>();
+        for (int v : iso.vertices) {
+            inside.add(g.lon[v] + "," + g.lat[v]);
+        }
+        for (double[] corner : hull) {
+            assertTrue(inside.contains(corner[0] + "," + corner[1]));
+        }
+    }
+
+    @Test
+    public void testParseRequest() {
+        Map<String, String[]> req = new HashMap<>();
+        req.put("lon", new String[]{"-122.26"});
+        req.put("lat", new String[]{"37.87"});
+        req.put("miles", new String[]{"1, 0.5"});
+        IsochroneRequestParams params = IsochroneRequestParams.from(req);
+        assertArrayEquals(new double[]{1, 0.5}, params.miles, 0);
+        assertFalse(params.hull);
+        req.put("hull", new String[]{"true"});
+        assertTrue(IsochroneRequestParams.from(req).hull);
+
+        for (String bad : new String[]{"", "-1", "1,,2", "NaN", "Infinity"}) {
+            req.put("miles", new String[]{bad});
+            try {
+                IsochroneRequestParams.from(req);
+                fail("Accepted " + bad);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("miles"));
+            }
+        }
+    }
+}
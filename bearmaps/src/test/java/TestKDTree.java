@@ -0,0 +1,180 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks KDTree nearest-neighbor queries against a brute-force scan, on random points that need
+ * no map data, from a single thread and from many threads at once.
+ */
+public class TestKDTree {
+    private static final int NUM_POINTS = 20000;
+    private static final int NUM_QUERIES = 5000;
+
+    /** Builds a graph with no edges over n random points in the Berkeley bounding box. */
+    static CompactGraph randomPoints(int n, long seed) {
+        Random r = new Random(seed);
+        long[] ids = new long[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            ids[i] = i;
+            lat[i] = MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA * r.nextDouble();
+            lon[i] = MapServer.ROOT_ULLON + MapServer.ROOT_LON_DELTA * r.nextDouble();
+            /* Put some points on a coarse grid so that the tree sees repeated coordinates. */
+            if (i % 5 == 0) {
+                lat[i] = MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA * (i % 50) / 50.0;
+            }
+            x[i] = GraphDB.projectToX(lon[i], lat[i]);
+            y[i] = GraphDB.projectToY(lon[i], lat[i]);
+        }
+        return new CompactGraph(ids, lat, lon, x, y, new int[n + 1], new int[0]);
+    }
+
+    private static double distSq(CompactGraph g, int i, double x, double y) {
+        return (g.x[i] - x) * (g.x[i] - x) + (g.y[i] - y) * (g.y[i] - y);
+    }
+
+    private static int bruteForce(CompactGraph g, double x, double y) {
+        int best = 0;
+        for (int i = 1; i < g.size(); i += 1) {
+            if (distSq(g, i, x, y) < distSq(g, best, x, y)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double[][] queries(long seed) {
+        Random r = new Random(seed);
+        double[][] q = new double[NUM_QUERIES][2];
+        for (double[] p : q) {
+            double lat = MapServer.ROOT_LRLAT + MapServer.ROOT_LAT_DELTA * r.nextDouble();
+            double lon = MapServer.ROOT_ULLON + MapServer.ROOT_LON_DELTA * r.nextDouble();
+            p[0] = GraphDB.projectToX(lon, lat);
+            p[1] = GraphDB.projectToY(lon, lat);
+        }
+        return q;
+    }
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        CompactGraph g = randomPoints(NUM_POINTS, 61);
+        KDTree tree = new KDTree(g);
+        for (double[] p : queries(62)) {
+            int actual = tree.nearest(p[0], p[1]);
+            int expected = bruteForce(g, p[0], p[1]);
+            assertEquals(distSq(g, expected, p[0], p[1]), distSq(g, actual, p[0], p[1]), 0.0);
+        }
+    }
+
+    @Test
+    public void testSmallTrees() {
+        for (int n = 1; n < 40; n += 1) {
+            CompactGraph g = randomPoints(n, n);
+            KDTree tree = new KDTree(g);
+            for (double[] p : queries(n)) {
+                assertEquals(distSq(g, bruteForce(g, p[0], p[1]), p[0], p[1]),
+                        distSq(g, tree.nearest(p[0], p[1]), p[0], p[1]), 0.0);
+            }
+        }
+        assertEquals(-1, new KDTree(randomPoints(0, 0)).nearest(0, 0));
+    }
+
+    @Test
+    public void testKNearestMatchesBruteForce() {
+        CompactGraph g = randomPoints(NUM_POINTS, 65);
+        KDTree tree = new KDTree(g);
+        double[][] q = queries(66);
+        int k = 12;
+        double[] xs = new double[q.length];
+        double[] ys = new double[q.length];
+        for (int i = 0; i < q.length; i += 1) {
+            xs[i] = q[i][0];
+            ys[i] = q[i][1];
+        }
+        int[][] batch = tree.kNearest(xs, ys, k);
+        for (int i = 0; i < q.length; i += 1) {
+            double[] all = new double[g.size()];
+            for (int v = 0; v < g.size(); v += 1) {
+                all[v] = distSq(g, v, xs[i], ys[i]);
+            }
+            Arrays.sort(all);
+            int[] actual = tree.kNearest(xs[i], ys[i], k);
+            assertEquals(k, actual.length);
+            assertArrayEquals(actual, batch[i]);
+            for (int j = 0; j < k; j += 1) {
+                assertEquals(all[j], distSq(g, actual[j], xs[i], ys[i]), 0.0);
+            }
+        }
+        assertEquals(g.size(), tree.kNearest(0, 0, g.size() + 5).length);
+        assertEquals(0, tree.kNearest(0, 0, 0).length);
+    }
+
+    @Test
+    public void testWithinRadiusMatchesBruteForce() {
+        CompactGraph g = randomPoints(NUM_POINTS, 67);
+        KDTree tree = new KDTree(g);
+        double r = 2e-5;
+        for (double[] p : queries(68)) {
+            int[] actual = tree.withinRadius(p[0], p[1], r);
+            Arrays.sort(actual);
+            int count = 0;
+            for (int v = 0; v < g.size(); v += 1) {
+                if (distSq(g, v, p[0], p[1]) <= r * r) {
+                    assertEquals(v, actual[count]);
+                    count += 1;
+                }
+            }
+            assertEquals(count, actual.length);
+        }
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        CompactGraph g = randomPoints(NUM_POINTS, 63);
+        KDTree tree = new KDTree(g);
+        double[][] q = queries(64);
+        int[] expected = new int[q.length];
+        for (int i = 0; i < q.length; i += 1) {
+            expected[i] = tree.nearest(q[i][0], q[i][1]);
+        }
+
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                final int offset = t;
+                tasks.add(() -> {
+                    int mismatches = 0;
+                    for (int rep = 0; rep < 10; rep += 1) {
+                        for (int k = 0; k < q.length; k += 1) {
+                            int i = (k + offset * 97) % q.length;
+                            if (tree.nearest(q[i][0], q[i][1]) != expected[i]) {
+                                mismatches += 1;
+                            }
+                        }
+                    }
+                    return mismatches;
+                });
+            }
+            for (Future<Integer> f : pool.invokeAll(tasks)) {
+                assertEquals(0, (int) f.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the ALT bounds of Landmarks are admissible and give the same routes as plain A*
+ * with fewer vertices settled, and checks their persistence, on a random road grid.
+ */
+public class TestLandmarks {
+    private static final int NUM_QUERIES = 300;
+    private static final int COUNT = 8;
+    private static CompactGraph g;
+
+    @BeforeClass
+    public static void build() {
+        g = TestGraphs.grid();
+    }
+
+    @Test
+    public void testBoundsAreAdmissible() {
+        for (Landmarks.Strategy strategy : Landmarks.Strategy.values()) {
+            Landmarks lm = Landmarks.build(g, COUNT, strategy);
+            assertEquals(COUNT, lm.count());
+            SearchContext ctx = new SearchContext(g.size());
+            Random r = new Random(4);
+            for (int q = 0; q < 20; q += 1) {
+                int dest = r.nextInt(g.size());
+                double[] exact = Landmarks.dijkstra(g, ctx, new int[]{dest}, null, null);
+                IntToDoubleFunction bound = lm.potential(new int[]{dest}, new double[]{0});
+                for (int v = 0; v < g.size(); v += 1) {
+                    assertTrue(bound.applyAsDouble(v) <= exact[v]);
+                }
+            }
+        }
+    }
+
+    /** Returns a road running north for thousands of miles, in randomly spaced steps. */
+    private static CompactGraph longRoad(int n, long seed) {
+        Random r = new Random(seed);
+        long[] ids = new long[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] x = new double[n];
+        double[] y = new double[n];
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[2 * (n - 1)];
+        int m = 0;
+        for (int i = 0; i < n; i += 1) {
+            ids[i] = i;
+            lat[i] = i == 0 ? -60 : lat[i - 1] + 0.2 + 0.4 * r.nextDouble();
+            lon[i] = -122.25;
+            x[i] = GraphDB.projectToX(lon[i], lat[i]);
+            y[i] = GraphDB.projectToY(lon[i], lat[i]);
+            offsets[i] = m;
+            if (i > 0) {
+                targets[m] = i - 1;
+                m += 1;
+            }
+            if (i < n - 1) {
+                targets[m] = i + 1;
+                m += 1;
+            }
+        }
+        offsets[n] = m;
+        return new CompactGraph(ids, lat, lon, x, y, offsets, targets);
+    }
+
+    @Test
+    public void testLongBoundsAreAdmissible() {
+        /* On a single road every landmark bound is exact, so any rounding up shows. */
+        CompactGraph road = longRoad(300, 5);
+        Landmarks lm = Landmarks.build(road, 2, Landmarks.Strategy.FARTHEST);
+        SearchContext ctx = new SearchContext(road.size());
+        for (int dest = 0; dest < road.size(); dest += 7) {
+            double[] exact = Landmarks.dijkstra(road, ctx, new int[]{dest}, null, null);
+            IntToDoubleFunction bound = lm.potential(new int[]{dest}, new double[]{0});
+            for (int v = 0; v < road.size(); v += 1) {
+                assertTrue(bound.applyAsDouble(v) <= exact[v]);
+                assertEquals(exact[v], bound.applyAsDouble(v), 1e-2);
+            }
+        }
+    }
+
+    @Test
+    public void testRoutesMatchAStar() {
+        Landmarks lm = Landmarks.build(g, COUNT, Landmarks.Strategy.AVOID);
+        SearchContext ctx = new SearchContext(g.size());
+        Random r = new Random(12);
+        long plain = 0;
+        long alt = 0;
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            int start = r.nextInt(g.size());
+            int dest = r.nextInt(g.size());
+            int[] expected = AStar.shortestPath(g, ctx, start, dest);
+            plain += ctx.settled();
+            int end = AStar.search(g, ctx, new int[]{start}, new double[]{0}, new int[]{dest},
+                    new double[]{0}, lm.potential(new int[]{dest}, new double[]{0}),
+                    Double.POSITIVE_INFINITY);
+            alt += ctx.settled();
+            int[] actual = end < 0 ? new int[0] : ctx.path(end);
+            assertEquals(TestGraphs.length(g, expected),
+                    TestGraphs.length(g, actual), 1e-9);
+        }
+        assertTrue(alt < plain);
+    }
+
+    @Test
+    public void testUnreachable() {
+        CompactGraph points = TestKDTree.randomPoints(10, 1);
+        Landmarks lm = Landmarks.build(points, 4, Landmarks.Strategy.FARTHEST);
+        assertEquals(0, lm.count());
+        SearchContext ctx = new SearchContext(10);
+        assertEquals(-1, AStar.search(points, ctx, new int[]{2}, new double[]{0}, new int[]{7},
+                new double[]{0}, lm.potential(new int[]{7}, new double[]{0}),
+                Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Landmarks lm = Landmarks.build(g, COUNT, Landmarks.Strategy.FARTHEST);
+        File file = File.createTempFile("bearmaps", ".landmarks");
+        file.deleteOnExit();
+        lm.write(file.getPath());
+        Landmarks read = Landmarks.read(file.getPath(), g);
+        assertNotNull(read);
+        assertArrayEquals(lm.vertices, read.vertices);
+        assertArrayEquals(lm.distances, read.distances, 0);
+        /* Tables are ignored for any other graph. */
+        assertNull(Landmarks.read(file.getPath(), TestGraphs.otherGrid()));
+        /* A file cut short is rebuilt like a stale one, rather than failing startup. */
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(f.length() / 2);
+        }
+        assertNull(Landmarks.read(file.getPath(), g));
+    }
+
+    @Test
+    public void testWriteAndReadNone() throws Exception {
+        Landmarks lm = Landmarks.build(g, 0, Landmarks.Strategy.FARTHEST);
+        File file = File.createTempFile("bearmaps", ".landmarks");
+        file.deleteOnExit();
+        lm.write(file.getPath());
+        Landmarks read = Landmarks.read(file.getPath(), g);
+        assertNotNull(read);
+        assertEquals(0, read.count());
+    }
+}
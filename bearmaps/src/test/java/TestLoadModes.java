@@ -0,0 +1,126 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that every <code>GraphDB.LoadMode</code> builds the same graph from the same XML: the
+ * same vertices, neighbors and named locations.
+ */
+public class TestLoadModes {
+    /**
+     * A road network of two ways, a footway, a highway way of one node, and named nodes on a
+     * road, on the footway and on nothing at all.
+     */
+    private static final String OSM = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<osm version=\"0.6\">\n"
+            + "  <node id=\"1\" lat=\"37.85\" lon=\"-122.28\"/>\n"
+            + "  <node id=\"2\" lat=\"37.85\" lon=\"-122.27\">\n"
+            + "    <tag k=\"name\" v=\"Corner Store\"/></node>\n"
+            + "  <node id=\"3\" lat=\"37.85\" lon=\"-122.26\"/>\n"
+            + "  <node id=\"4\" lat=\"37.86\" lon=\"-122.27\"/>\n"
+            + "  <node id=\"5\" lat=\"37.87\" lon=\"-122.27\"/>\n"
+            + "  <node id=\"6\" lat=\"37.87\" lon=\"-122.26\">\n"
+            + "    <tag k=\"name\" v=\"Trailhead\"/></node>\n"
+            + "  <node id=\"7\" lat=\"37.88\" lon=\"-122.25\"/>\n"
+            + "  <node id=\"8\" lat=\"37.84\" lon=\"-122.24\">\n"
+            + "    <tag k=\"amenity\" v=\"cafe\"/><tag k=\"name\" v=\"Cafe Off Road\"/></node>\n"
+            + "  <node id=\"9\" lat=\"37.83\" lon=\"-122.24\"/>\n"
+            + "  <way id=\"100\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Main St\"/></way>\n"
+            + "  <way id=\"101\"><nd ref=\"2\"/><nd ref=\"4\"/><nd ref=\"5\"/>\n"
+            + "    <tag k=\"highway\" v=\"secondary\"/></way>\n"
+            + "  <way id=\"102\"><nd ref=\"5\"/><nd ref=\"6\"/><nd ref=\"7\"/>\n"
+            + "    <tag k=\"highway\" v=\"footway\"/></way>\n"
+            + "  <way id=\"103\"><nd ref=\"9\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/></way>\n"
+            + "</osm>\n";
+
+    static File osmFile() throws IOException {
+        File file = File.createTempFile("load-modes", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), OSM.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    static GraphDB load(File file, GraphDB.LoadMode mode) {
+        return new GraphDB(file.getPath(), null, mode);
+    }
+
+    /** Asserts that two graphs have the same vertices, neighbors, ways and locations. */
+    static void assertSameGraph(GraphDB expected, GraphDB actual) {
+        assertEquals(toList(expected.vertices()), toList(actual.vertices()));
+        for (long v : expected.vertices()) {
+            assertEquals(toList(expected.adjacent(v)), toList(actual.adjacent(v)));
+            assertEquals(expected.lat(v), actual.lat(v), 0.0);
+            assertEquals(expected.lon(v), actual.lon(v), 0.0);
+        }
+        assertEquals(expected.paths.keySet(), actual.paths.keySet());
+        assertEquals(expected.locations.keySet(), actual.locations.keySet());
+        for (LocationParams loc : expected.locations.values()) {
+            LocationParams other = actual.locations.get(loc.id);
+            assertEquals(loc.name, other.name);
+            assertEquals(loc.lat, other.lat, 0.0);
+            assertEquals(loc.lon, other.lon, 0.0);
+        }
+    }
+
+    private static List<Long> toList(Iterable<Long> ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        list.sort(null);
+        return list;
+    }
+
+    @Test
+    public void testRoutableNodes() throws IOException {
+        File file = osmFile();
+        GraphDB all = load(file, GraphDB.LoadMode.ALL_NODES);
+        GraphDB routable = load(file, GraphDB.LoadMode.ROUTABLE_NODES);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), toList(all.vertices()));
+        assertSameGraph(all, routable);
+        /* Named nodes are searchable whether or not they are on a road. */
+        assertEquals(List.of(2L, 6L, 8L), toList(routable.locations.keySet()));
+        assertEquals("Cafe Off Road", routable.locations.get(8L).name);
+    }
+
+    @Test
+    public void testPipelined() throws IOException {
+        File file = osmFile();
+        GraphDB all = load(file, GraphDB.LoadMode.ALL_NODES);
+        assertSameGraph(all, load(file, GraphDB.LoadMode.PIPELINED));
+
+        File gz = File.createTempFile("load-modes", ".osm.xml.gz");
+        gz.deleteOnExit();
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(gz))) {
+            Files.copy(file.toPath(), os);
+        }
+        assertSameGraph(all, load(gz, GraphDB.LoadMode.PIPELINED));
+        assertSameGraph(all, load(gz, GraphDB.LoadMode.ALL_NODES));
+    }
+
+    /** A failure on the pipeline's reader thread reaches the caller instead of hanging it. */
+    @Test(timeout = 10000, expected = IllegalStateException.class)
+    public void testPipelineReaderFailure() throws Exception {
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("disk went away");
+            }
+        };
+        GraphDB g = load(osmFile(), GraphDB.LoadMode.ALL_NODES);
+        new OsmIngestPipeline(2).run(broken, new GraphBuildingHandler(g), new LoadReport());
+    }
+}
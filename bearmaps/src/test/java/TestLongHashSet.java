@@ -0,0 +1,62 @@
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks LongHashSet against a HashSet of the same values.
+ */
+public class TestLongHashSet {
+    @Test
+    public void testAddAndContains() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(43));
+        assertTrue(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testNegativeIds() {
+        LongHashSet set = new LongHashSet(4);
+        long[] ids = {-1, -2, -123456789012L, Long.MIN_VALUE + 1, Long.MAX_VALUE};
+        for (long id : ids) {
+            assertTrue(set.add(id));
+        }
+        for (long id : ids) {
+            assertTrue(set.contains(id));
+            assertFalse(set.add(id));
+        }
+        assertFalse(set.contains(1));
+        assertFalse(set.contains(-3));
+        assertEquals(ids.length, set.size());
+    }
+
+    @Test
+    public void testGrowth() {
+        LongHashSet set = new LongHashSet(4);
+        Set<Long> expected = new HashSet<>();
+        Random r = new Random(3);
+        for (int i = 0; i < 100000; i += 1) {
+            /* OSM-like ids, with repeats and some negative ids of unsaved edits. */
+            long id = r.nextInt(4) == 0 ? -r.nextInt(50000) - 1 : r.nextInt(200000) * 7919L;
+            assertEquals(expected.add(id), set.add(id));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long id : expected) {
+            assertTrue(set.contains(id));
+        }
+        for (int i = 0; i < 10000; i += 1) {
+            long id = r.nextLong();
+            assertEquals(expected.contains(id), set.contains(id));
+        }
+    }
+}
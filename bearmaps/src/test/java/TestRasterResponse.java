@@ -0,0 +1,62 @@
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the PNG body of /raster carries the same image and bounds as its JSON body.
+ */
+public class TestRasterResponse {
+    private static final RasterResultParams PARAMS = new RasterResultParams.Builder()
+            .setRenderGrid(new String[][]{{"d1_x0_y0.png", "d1_x1_y0.png"}})
+            .setRasterUlLon(-122.2998046875).setRasterUlLat(37.892195547244356)
+            .setRasterLrLon(-122.2119140625).setRasterLrLat(37.82280243352756)
+            .setDepth(1).setQuerySuccess(true).create();
+
+    private static BufferedImage image() {
+        BufferedImage img = new BufferedImage(512, 256, BufferedImage.TYPE_INT_RGB);
+        Graphics graphic = img.getGraphics();
+        graphic.setColor(Color.ORANGE);
+        graphic.fillOval(40, 20, 300, 200);
+        graphic.dispose();
+        return img;
+    }
+
+    @Test
+    public void testSameImage() throws IOException {
+        BufferedImage img = image();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", os);
+        JsonObject json = new JsonParser().parse(MapServer.rasterJson(PARAMS, img))
+                .getAsJsonObject();
+        assertArrayEquals(os.toByteArray(),
+                Base64.getDecoder().decode(json.get("b64_encoded_image_data").getAsString()));
+    }
+
+    @Test
+    public void testHeaders() throws IOException {
+        BufferedImage img = image();
+        JsonObject json = new JsonParser().parse(MapServer.rasterJson(PARAMS, img))
+                .getAsJsonObject();
+        Map<String, String> headers = MapServer.rasterHeaders(PARAMS, img);
+        assertArrayEquals(MapServer.RASTER_HEADERS, headers.keySet().toArray());
+        String[] fields = {"raster_ul_lon", "raster_ul_lat", "raster_lr_lon", "raster_lr_lat",
+            "raster_width", "raster_height", "depth", "query_success"};
+        for (int i = 0; i < fields.length; i += 1) {
+            assertEquals(json.get(fields[i]).getAsString(),
+                    headers.get(MapServer.RASTER_HEADERS[i]));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks RouteCache hits, reversal, snapped keys, eviction by count and by weight, invalidation
+ * and use from several threads.
+ */
+public class TestRouteCache {
+    private final Object graph = new Object();
+
+    @Test
+    public void testHitsAndReversal() {
+        RouteCache cache = new RouteCache(100, 10000);
+        assertNull(cache.get(graph, 1, 4));
+        cache.put(graph, 1, 4, new int[]{1, 2, 3, 4});
+        assertArrayEquals(new int[]{1, 2, 3, 4}, cache.get(graph, 1, 4));
+        assertArrayEquals(new int[]{4, 3, 2, 1}, cache.get(graph, 4, 1));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.reversedHits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testSnappedKeys() {
+        RouteCache cache = new RouteCache(100, 10000);
+        SegmentIndex.Snap a = new SegmentIndex.Snap(1, 2, 0.5, 0, 0);
+        SegmentIndex.Snap b = new SegmentIndex.Snap(7, 8, 0.25, 0, 0);
+        cache.put(graph, a, b, new int[]{2, 5, 7});
+        assertArrayEquals(new int[]{2, 5, 7}, cache.get(graph, a, b));
+        assertArrayEquals(new int[]{7, 5, 2}, cache.get(graph, b, a));
+        /* Any other position along the segment may have another shortest path. */
+        SegmentIndex.Snap nearA = new SegmentIndex.Snap(1, 2, 0.501, 0, 0);
+        assertNull(cache.get(graph, nearA, b));
+        /* Snapped paths never answer a query between vertices, or the other way around. */
+        assertNull(cache.get(graph, 1, 7));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.reversedHits());
+        /* Two points on one segment: the way back runs along it the other way. */
+        SegmentIndex.Snap c = new SegmentIndex.Snap(1, 2, 0.7, 0, 0);
+        cache.put(graph, a, c, new int[]{1, 2});
+        assertArrayEquals(new int[]{2, 1}, cache.get(graph, c, a));
+    }
+
+    @Test
+    public void testSnappedShortestPathIsCached() {
+        GraphDB g = new GraphDB("../library-su18/bearmaps/tiny-clean.osm.xml");
+        Router.invalidateCache();
+        RouteCache cache = Router.routeCache();
+        List<Long> first = Router.snappedShortestPath(g, -122.27, 37.84, -122.23, 37.88);
+        long hits = cache.hits();
+        List<Long> again = Router.snappedShortestPath(g, -122.27, 37.84, -122.23, 37.88);
+        assertEquals(hits + 1, cache.hits());
+        assertEquals(first, again);
+        List<Long> back = Router.snappedShortestPath(g, -122.23, 37.88, -122.27, 37.84);
+        assertEquals(hits + 2, cache.hits());
+        Collections.reverse(back);
+        assertEquals(first, back);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        /* One route per segment, so any two routes in the same segment compete. */
+        RouteCache cache = new RouteCache(16, 10000);
+        for (int i = 0; i < 1000; i += 1) {
+            cache.put(graph, i, i + 1, new int[]{i, i + 1});
+        }
+        assertTrue(cache.size() <= 16);
+        assertEquals(2L * cache.size(), cache.weight());
+        assertEquals(1000 - cache.size(), cache.evictions());
+        assertArrayEquals(new int[]{999, 1000}, cache.get(graph, 999, 1000));
+    }
+
+    @Test
+    public void testEvictsByWeight() {
+        RouteCache cache = new RouteCache(1000, 16 * 10);
+        for (int i = 0; i < 1000; i += 1) {
+            cache.put(graph, i, i + 1, new int[]{i, 0, 0, i + 1});
+        }
+        assertTrue(cache.weight() <= 16 * 10);
+        /* Routes longer than a segment's share are never cached. */
+        cache.put(graph, 5000, 5001, new int[11]);
+        assertNull(cache.get(graph, 5000, 5001));
+    }
+
+    @Test
+    public void testInvalidation() {
+        RouteCache cache = new RouteCache(100, 10000);
+        cache.put(graph, 1, 2, new int[]{1, 2});
+        /* Another graph never sees the first graph's routes, and replaces them. */
+        Object other = new Object();
+        assertNull(cache.get(other, 1, 2));
+        cache.put(other, 3, 4, new int[]{3, 4});
+        assertNull(cache.get(graph, 1, 2));
+        assertEquals(1, cache.size());
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testDisabled() {
+        RouteCache cache = new RouteCache(0, 0);
+        cache.put(graph, 1, 2, new int[]{1, 2});
+        assertNull(cache.get(graph, 1, 2));
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        RouteCache cache = new RouteCache(256, 100000);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t += 1) {
+            int seed = t;
+            results.add(pool.submit(() -> {
+                int wrong = 0;
+                for (int i = 0; i < 20000; i += 1) {
+                    int a = (i * 31 + seed) % 500;
+                    int[] path = cache.get(graph, a, a + 1);
+                    if (path == null) {
+                        cache.put(graph, a, a + 1, new int[]{a, a + 1});
+                    } else if (path[0] != a || path[1] != a + 1) {
+                        wrong += 1;
+                    }
+                }
+                return wrong;
+            }));
+        }
+        for (Future<Integer> f : results) {
+            assertEquals(0, (int) f.get());
+        }
+        pool.shutdown();
+        assertEquals(8 * 20000, cache.hits() + cache.misses());
+        assertTrue(cache.size() <= 256);
+    }
+}
@@ -0,0 +1,93 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks Router.routeDirections and the way index behind it on a few named streets, written out
+ * here so that the test needs no map data.
+ */
+public class TestRouteDirections {
+    private static final String OSM = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<osm version=\"0.6\">\n"
+            + "  <node id=\"11\" lat=\"37.83\" lon=\"-122.28\"/>\n"
+            + "  <node id=\"22\" lat=\"37.84\" lon=\"-122.27\"/>\n"
+            + "  <node id=\"46\" lat=\"37.88\" lon=\"-122.25\"/>\n"
+            + "  <node id=\"66\" lat=\"37.88\" lon=\"-122.23\"/>\n"
+            + "  <node id=\"63\" lat=\"37.85\" lon=\"-122.23\"/>\n"
+            + "  <node id=\"55\" lat=\"37.87\" lon=\"-122.24\"/>\n"
+            + "  <node id=\"77\" lat=\"37.85\" lon=\"-122.22\"/>\n"
+            + "  <way id=\"1\"><nd ref=\"11\"/><nd ref=\"22\"/><nd ref=\"46\"/><nd ref=\"66\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"A Street\"/></way>\n"
+            + "  <way id=\"2\"><nd ref=\"66\"/><nd ref=\"63\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"B Street\"/></way>\n"
+            + "  <way id=\"3\"><nd ref=\"63\"/><nd ref=\"55\"/>\n"
+            + "    <tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"C Street\"/></way>\n"
+            + "  <way id=\"4\"><nd ref=\"63\"/><nd ref=\"77\"/>\n"
+            + "    <tag k=\"highway\" v=\"unclassified\"/></way>\n"
+            + "  <way id=\"5\"><nd ref=\"46\"/><nd ref=\"66\"/>\n"
+            + "    <tag k=\"highway\" v=\"unclassified\"/></way>\n"
+            + "</osm>\n";
+    private static GraphDB g;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        File file = File.createTempFile("directions", ".osm.xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), OSM.getBytes(StandardCharsets.UTF_8));
+        g = new GraphDB(file.getPath());
+    }
+
+    @Test
+    public void testDirections() {
+        List<Router.NavigationDirection> actual = Router.routeDirections(g,
+                Arrays.asList(11L, 22L, 46L, 66L, 63L, 55L));
+        double a = g.distance(11, 22) + g.distance(22, 46) + g.distance(46, 66);
+        String[] expected = {
+            String.format("Start on A Street and continue for %.3f miles.", a),
+            String.format("Turn right on B Street and continue for %.3f miles.",
+                    g.distance(66, 63)),
+            String.format("Sharp right on C Street and continue for %.3f miles.",
+                    g.distance(63, 55)),
+        };
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i += 1) {
+            assertEquals(expected[i], actual.get(i).toString());
+        }
+    }
+
+    @Test
+    public void testUnnamedAndSharedEdges() {
+        /* Heading south, then east onto a road with no name. */
+        List<Router.NavigationDirection> actual = Router.routeDirections(g,
+                Arrays.asList(66L, 63L, 77L));
+        assertEquals(2, actual.size());
+        assertEquals(Router.NavigationDirection.LEFT, actual.get(1).direction);
+        assertEquals("", actual.get(1).way);
+        /* The edge from 46 to 66 lies on an unnamed way too, but keeps its street name. */
+        int k = g.csr.edge(g.csr.indexOf(46), g.csr.indexOf(66));
+        assertEquals("A Street", g.ways.name(k));
+        assertTrue(Router.routeDirections(g, Arrays.asList(11L)).isEmpty());
+    }
+
+    @Test
+    public void testTurns() {
+        assertEquals(Router.NavigationDirection.STRAIGHT, Router.NavigationDirection.turn(-15));
+        assertEquals(Router.NavigationDirection.SLIGHT_RIGHT,
+                Router.NavigationDirection.turn(20));
+        assertEquals(Router.NavigationDirection.LEFT, Router.NavigationDirection.turn(-90));
+        assertEquals(Router.NavigationDirection.SHARP_LEFT,
+                Router.NavigationDirection.turn(-150));
+        /* Bearings wrap around: from 170 to -170 degrees is a 20 degree right. */
+        assertEquals(Router.NavigationDirection.SLIGHT_RIGHT,
+                Router.NavigationDirection.turn(-170 - 170));
+        assertEquals(Router.NavigationDirection.STRAIGHT, Router.NavigationDirection.turn(350));
+    }
+}
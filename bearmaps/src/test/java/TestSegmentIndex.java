@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks SegmentIndex snapping against a brute-force scan over every segment of a random road
+ * grid that needs no map data.
+ */
+public class TestSegmentIndex {
+    private static final int SIDE = 120;
+    private static final int NUM_QUERIES = 5000;
+
+    /** Returns the squared projected distance from (x, y) to the segment from u to v. */
+    private static double segmentDistSq(CompactGraph g, int u, int v, double x, double y) {
+        double dx = g.x[v] - g.x[u];
+        double dy = g.y[v] - g.y[u];
+        double t = ((x - g.x[u]) * dx + (y - g.y[u]) * dy) / (dx * dx + dy * dy);
+        t = Math.max(0, Math.min(1, t));
+        double px = g.x[u] + t * dx - x;
+        double py = g.y[u] + t * dy - y;
+        return px * px + py * py;
+    }
+
+    private static double bruteForce(CompactGraph g, double x, double y) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int u = 0; u < g.size(); u += 1) {
+            for (int k = g.offsets[u]; k < g.offsets[u + 1]; k += 1) {
+                best = Math.min(best, segmentDistSq(g, u, g.targets[k], x, y));
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void testSnapMatchesBruteForce() {
+        CompactGraph g = TestGraphs.randomGrid(SIDE, 8);
+        SegmentIndex index = new SegmentIndex(g);
+        assertEquals(2 * SIDE * (SIDE - 1), index.size());
+        Random r = new Random(9);
+        for (int q = 0; q < NUM_QUERIES; q += 1) {
+            /* Query a little beyond the grid too, so that some points snap onto its border. */
+            double lat = MapServer.ROOT_LRLAT
+                    + MapServer.ROOT_LAT_DELTA * (1.2 * r.nextDouble() - 0.1);
+            double lon = MapServer.ROOT_ULLON
+                    + MapServer.ROOT_LON_DELTA * (1.2 * r.nextDouble() - 0.1);
+            double x = GraphDB.projectToX(lon, lat);
+            double y = GraphDB.projectToY(lon, lat);
+            SegmentIndex.Snap s = index.snap(lon, lat);
+            assertTrue(s.t >= 0 && s.t <= 1);
+            assertEquals(bruteForce(g, x, y), segmentDistSq(g, s.from, s.to, x, y), 1e-12);
+        }
+    }
+
+    @Test
+    public void testSnapInterpolatesAlongSegment() {
+        CompactGraph g = TestGraphs.randomGrid(2, 3);
+        SegmentIndex index = new SegmentIndex(g);
+        double lon = (g.lon[0] + g.lon[1]) / 2;
+        double lat = (g.lat[0] + g.lat[1]) / 2;
+        SegmentIndex.Snap s = index.snap(lon, lat);
+        assertEquals(0, s.from);
+        assertEquals(1, s.to);
+        assertEquals(0.5, s.t, 1e-3);
+        assertEquals(lon, s.lon, 1e-6);
+        assertEquals(lat, s.lat, 1e-6);
+    }
+
+    @Test
+    public void testNoSegments() {
+        SegmentIndex index = new SegmentIndex(TestKDTree.randomPoints(10, 1));
+        assertEquals(0, index.size());
+        assertNull(index.snap(MapServer.ROOT_ULLON, MapServer.ROOT_LRLAT));
+    }
+}
@@ -0,0 +1,129 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks TileCache hits in either tier, eviction by bytes, failed reads and loading a tile once
+ * for many threads, with tiles drawn in memory.
+ */
+public class TestTileCache {
+    /** Bytes of a decoded 16x16 tile, kept as packed RGB ints. */
+    private static final long TILE_BYTES = 16 * 16 * 4;
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    /** Encodes a small tile whose color depends on its name. */
+    private byte[] read(String name) throws IOException {
+        reads.incrementAndGet();
+        if (name.startsWith("missing")) {
+            throw new IOException("No tile " + name);
+        }
+        BufferedImage img = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y += 1) {
+            for (int x = 0; x < 16; x += 1) {
+                img.setRGB(x, y, name.hashCode() + x * y);
+            }
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", os);
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testHits() {
+        TileCache cache = new TileCache(this::read, 1 << 20, 1 << 20);
+        BufferedImage first = cache.get("d1_x0_y0.png");
+        assertEquals(("d1_x0_y0.png".hashCode() + 6) & 0xFFFFFF, first.getRGB(2, 3) & 0xFFFFFF);
+        assertSame(first, cache.get("d1_x0_y0.png"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(1, reads.get());
+        assertEquals(0.5, cache.hitRate(), 0);
+        assertEquals(TILE_BYTES, cache.imageBytes());
+        assertTrue(cache.pngBytes() > 0);
+    }
+
+    @Test
+    public void testEvictsByBytes() {
+        /* One tile per segment in the image tier; every PNG fits in the second tier. */
+        TileCache cache = new TileCache(this::read, 16 * TILE_BYTES, 1 << 20);
+        for (int i = 0; i < 200; i += 1) {
+            cache.get("d7_x" + i + "_y0.png");
+        }
+        assertTrue(cache.imageBytes() <= 16 * TILE_BYTES);
+        assertEquals(TILE_BYTES * cache.imageCount(), cache.imageBytes());
+        assertEquals(200 - cache.imageCount(), cache.imageEvictions());
+        assertEquals(200, cache.pngCount());
+        /* Evicted images are decoded again from their PNGs, without another read. */
+        for (int i = 0; i < 200; i += 1) {
+            cache.get("d7_x" + i + "_y0.png");
+        }
+        assertEquals(200, reads.get());
+        assertEquals(200, cache.hits() + cache.pngHits());
+        assertTrue(cache.pngHits() > 0);
+    }
+
+    @Test
+    public void testTiersOff() {
+        TileCache cache = new TileCache(this::read, 0, 0);
+        cache.get("d1_x0_y0.png");
+        cache.get("d1_x0_y0.png");
+        assertEquals(2, reads.get());
+        assertEquals(0, cache.imageCount() + cache.pngCount());
+    }
+
+    @Test
+    public void testFailedRead() {
+        TileCache cache = new TileCache(this::read, 1 << 20, 1 << 20);
+        assertNull(cache.get("missing.png"));
+        assertNull(cache.get("missing.png"));
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void testLoadsOnceForManyThreads() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TileCache cache = new TileCache(name -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return read(name);
+        }, 1 << 20, 1 << 20);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<BufferedImage>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t += 1) {
+            results.add(pool.submit(() -> cache.get("d2_x1_y1.png")));
+        }
+        /* Let every thread reach the cache before the one read completes. */
+        while (cache.coalesced() + cache.misses() < threads) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        BufferedImage first = results.get(0).get();
+        for (Future<BufferedImage> f : results) {
+            assertSame(first, f.get());
+        }
+        pool.shutdown();
+        assertEquals(1, reads.get());
+        assertEquals(1, cache.misses());
+        assertEquals(threads - 1, cache.coalesced());
+    }
+}
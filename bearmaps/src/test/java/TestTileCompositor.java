@@ -0,0 +1,114 @@
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that TileCompositor gives exactly the pixels of drawing each tile with drawImage, for
+ * tiles in every format PNG decodes to, on the direct path and the fallback.
+ */
+public class TestTileCompositor {
+    private static final int SIZE = MapServer.TILE_SIZE;
+
+    /** Encodes a tile of random shapes; the first letter of its name picks the PNG format. */
+    private static byte[] read(String name) throws IOException {
+        if (name.startsWith("missing")) {
+            throw new IOException("No tile " + name);
+        }
+        int type;
+        switch (name.charAt(0)) {
+            case 'p':
+                type = BufferedImage.TYPE_BYTE_INDEXED;
+                break;
+            case 'g':
+                type = BufferedImage.TYPE_BYTE_GRAY;
+                break;
+            case 'a':
+                type = BufferedImage.TYPE_INT_ARGB;
+                break;
+            default:
+                type = BufferedImage.TYPE_INT_RGB;
+                break;
+        }
+        int size = name.startsWith("small") ? SIZE / 2 : SIZE;
+        BufferedImage img = new BufferedImage(size, size, type);
+        Graphics2D g = img.createGraphics();
+        Random r = new Random(name.hashCode());
+        for (int i = 0; i < 40; i += 1) {
+            g.setColor(new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256),
+                    type == BufferedImage.TYPE_INT_ARGB ? r.nextInt(256) : 255));
+            g.fillOval(r.nextInt(size), r.nextInt(size), r.nextInt(size), r.nextInt(size));
+        }
+        g.dispose();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", os);
+        return os.toByteArray();
+    }
+
+    /** Draws the grid the way MapServer always has, one decoded tile at a time. */
+    private static BufferedImage reference(String[][] grid) throws IOException {
+        BufferedImage img = new BufferedImage(grid[0].length * SIZE, grid.length * SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics graphic = img.getGraphics();
+        for (int r = 0; r < grid.length; r += 1) {
+            for (int c = 0; c < grid[0].length; c += 1) {
+                BufferedImage tile = null;
+                try {
+                    tile = ImageIO.read(new ByteArrayInputStream(read(grid[r][c])));
+                } catch (IOException e) {
+                    /* Missing tiles are left black. */
+                }
+                graphic.drawImage(tile, c * SIZE, r * SIZE, null);
+            }
+        }
+        return img;
+    }
+
+    private static void assertSamePixels(String[][] grid) throws IOException {
+        BufferedImage expected = reference(grid);
+        TileCache tiles = new TileCache(TestTileCompositor::read, 1 << 24, 0);
+        BufferedImage actual = TileCompositor.composite(grid, tiles);
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w),
+                actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+
+    /** Decodes a tile and converts it as TileCache does. */
+    private static BufferedImage decode(String name) throws IOException {
+        return TileCache.toIntRgb(ImageIO.read(new ByteArrayInputStream(read(name))));
+    }
+
+    @Test
+    public void testDirectCopy() throws IOException {
+        assertTrue(TileCompositor.copyable(decode("rgb.png")));
+        assertTrue(TileCompositor.copyable(decode("palette.png")));
+        assertTrue(TileCompositor.copyable(decode("gray.png")));
+        assertSamePixels(new String[][]{
+            {"rgb1.png", "palette1.png", "rgb2.png"},
+            {"missing.png", "gray1.png", "palette2.png"},
+        });
+    }
+
+    @Test
+    public void testFallback() throws IOException {
+        assertFalse(TileCompositor.copyable(decode("alpha.png")));
+        assertFalse(TileCompositor.copyable(decode("small.png")));
+        assertSamePixels(new String[][]{{"rgb1.png", "gray1.png"}, {"alpha1.png", "palette1.png"}});
+        assertSamePixels(new String[][]{{"rgb1.png", "small1.png", "rgb2.png"}});
+    }
+}
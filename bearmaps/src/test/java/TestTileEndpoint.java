@@ -0,0 +1,114 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that /tiles finds and sends the same bytes and ETags from loose files and from a pack.
+ */
+public class TestTileEndpoint {
+    /** Writes random tiles for depths 0 and 1. */
+    private static File tiles() throws IOException {
+        File dir = Files.createTempDirectory("bearmaps-tiles").toFile();
+        dir.deleteOnExit();
+        Random r = new Random(25);
+        for (int d = 0; d <= 1; d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    byte[] bytes = new byte[1 + r.nextInt(3000)];
+                    r.nextBytes(bytes);
+                    File tile = new File(dir, TilePack.name(d, x, y));
+                    Files.write(tile.toPath(), bytes);
+                    tile.deleteOnExit();
+                }
+            }
+        }
+        return dir;
+    }
+
+    private static byte[] send(TileEndpoint endpoint, int depth, int x, int y)
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        endpoint.send(endpoint.find(depth, x, y), os);
+        return os.toByteArray();
+    }
+
+    @Test
+    public void testBackendsAgree() throws IOException {
+        File dir = tiles();
+        File file = File.createTempFile("bearmaps", ".pack");
+        file.deleteOnExit();
+        TilePack.write(dir.getPath(), file.getPath(), 1);
+        TileEndpoint loose = new TileEndpoint(null, dir.getPath());
+        TileEndpoint packed = new TileEndpoint(TilePack.open(file.getPath()), dir.getPath());
+        for (int y = 0; y < 2; y += 1) {
+            for (int x = 0; x < 2; x += 1) {
+                byte[] expected = Files.readAllBytes(new File(dir, TilePack.name(1, x, y))
+                        .toPath());
+                assertArrayEquals(expected, send(loose, 1, x, y));
+                assertArrayEquals(expected, send(packed, 1, x, y));
+                assertEquals(expected.length, packed.find(1, x, y).length);
+                assertEquals(loose.find(1, x, y).etag, packed.find(1, x, y).etag);
+            }
+        }
+        assertNotEquals(loose.find(1, 0, 0).etag, loose.find(1, 1, 0).etag);
+        assertNull(loose.find(2, 0, 0));
+        assertNull(packed.find(2, 0, 0));
+        assertNull(packed.find(1, 2, 0));
+    }
+
+    @Test
+    public void testChangedFile() throws IOException {
+        File dir = tiles();
+        TileEndpoint loose = new TileEndpoint(null, dir.getPath());
+        String before = loose.find(0, 0, 0).etag;
+        assertEquals(before, loose.find(0, 0, 0).etag);
+        File tile = new File(dir, TilePack.name(0, 0, 0));
+        Files.write(tile.toPath(), new byte[]{1, 2, 3});
+        assertNotEquals(before, loose.find(0, 0, 0).etag);
+        assertArrayEquals(new byte[]{1, 2, 3}, send(loose, 0, 0, 0));
+    }
+
+    @Test
+    public void testNotModified() {
+        String etag = "\"ec005d57-310e\"";
+        assertFalse(TileEndpoint.notModified(null, etag));
+        assertTrue(TileEndpoint.notModified(etag, etag));
+        assertTrue(TileEndpoint.notModified("\"a-1\", W/" + etag, etag));
+        assertTrue(TileEndpoint.notModified("*", etag));
+        assertFalse(TileEndpoint.notModified("\"a-1\"", etag));
+    }
+
+    @Test
+    public void testGridJson() {
+        RasterResultParams params = new RasterResultParams.Builder()
+                .setRenderGrid(new String[][]{{"d2_x0_y1.png", "d2_x1_y1.png"}})
+                .setRasterUlLon(-122.2998046875).setRasterUlLat(37.87484726881516)
+                .setRasterLrLon(-122.2119140625).setRasterLrLat(37.85749899038596)
+                .setDepth(2).setQuerySuccess(true).create();
+        JsonObject json = new JsonParser().parse(MapServer.gridJson(params)).getAsJsonObject();
+        JsonArray urls = json.getAsJsonArray("tile_urls").get(0).getAsJsonArray();
+        assertEquals("/tiles/2/0/1.png", urls.get(0).getAsString());
+        assertEquals("/tiles/2/1/1.png", urls.get(1).getAsString());
+        assertTrue(json.get("query_success").getAsBoolean());
+
+        json = new JsonParser().parse(MapServer.gridJson(RasterResultParams.queryFailed()))
+                .getAsJsonObject();
+        assertFalse(json.get("query_success").getAsBoolean());
+        assertNull(json.get("tile_urls"));
+    }
+}
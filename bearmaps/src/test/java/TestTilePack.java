@@ -0,0 +1,105 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that a tile pack hands back exactly the bytes of each loose tile it was built from.
+ */
+public class TestTilePack {
+    /** Writes tiles of random bytes for every position down to depth 2, but d1_x1_y0. */
+    private static File tiles() throws IOException {
+        File dir = Files.createTempDirectory("bearmaps-tiles").toFile();
+        dir.deleteOnExit();
+        Random r = new Random(24);
+        for (int d = 0; d <= 2; d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    if (d == 1 && x == 1 && y == 0) {
+                        continue;
+                    }
+                    byte[] bytes = new byte[1 + r.nextInt(3000)];
+                    r.nextBytes(bytes);
+                    File tile = new File(dir, TilePack.name(d, x, y));
+                    Files.write(tile.toPath(), bytes);
+                    tile.deleteOnExit();
+                }
+            }
+        }
+        return dir;
+    }
+
+    private static byte[] bytes(ByteBuffer tile) {
+        byte[] bytes = new byte[tile.remaining()];
+        tile.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testSlots() {
+        assertEquals(1, TilePack.slots(0));
+        assertEquals(21845, TilePack.slots(Rasterer.MAX_DEPTH));
+        assertEquals(0, TilePack.slot(0, 0, 0));
+        assertEquals(1 + 2 + 1, TilePack.slot(1, 1, 1));
+        assertEquals(5, TilePack.slot(2, 0, 0));
+        assertEquals(-1, TilePack.slot(1, 2, 0));
+        assertArrayEquals(new int[]{7, 12, 103}, TilePack.parse("d7_x12_y103.png"));
+        assertNull(TilePack.parse("d7_x12.png"));
+        assertNull(TilePack.parse("dx_x1_y1.png"));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File dir = tiles();
+        File file = File.createTempFile("bearmaps", ".pack");
+        file.deleteOnExit();
+        assertEquals(20, TilePack.write(dir.getPath(), file.getPath(), 2));
+        TilePack pack = TilePack.open(file.getPath());
+        assertEquals(20, pack.count());
+        for (int d = 0; d <= 2; d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    File tile = new File(dir, TilePack.name(d, x, y));
+                    if (!tile.exists()) {
+                        assertNull(pack.tile(d, x, y));
+                        continue;
+                    }
+                    byte[] expected = Files.readAllBytes(tile.toPath());
+                    assertArrayEquals(expected, bytes(pack.tile(d, x, y)));
+                    assertArrayEquals(expected, pack.read(tile.getName()));
+                }
+            }
+        }
+        /* Each slice has a position of its own. */
+        ByteBuffer first = pack.tile(0, 0, 0);
+        first.get();
+        assertEquals(0, pack.tile(0, 0, 0).position());
+        assertNull(pack.tile(3, 0, 0));
+        assertNull(pack.tile("d0_x1_y0.png"));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingTile() throws IOException {
+        File file = File.createTempFile("bearmaps", ".pack");
+        file.deleteOnExit();
+        TilePack.write(tiles().getPath(), file.getPath(), 2);
+        TilePack.open(file.getPath()).read("d1_x1_y0.png");
+    }
+
+    @Test
+    public void testNotAPack() throws IOException {
+        File file = File.createTempFile("bearmaps", ".pack");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+        assertNull(TilePack.open(file.getPath()));
+        assertNull(TilePack.open(file.getPath() + ".missing"));
+    }
+}
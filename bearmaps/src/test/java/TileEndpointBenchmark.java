@@ -0,0 +1,127 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures the server CPU time and bytes sent per pan of a browsing session. Three cases are
+ * compared. In the first, /raster draws and encodes every raster. In the second, /raster returns
+ * only the grid and the client fetches from /tiles the tiles it has not seen before, as a
+ * browser with a warm cache would. In the third, the client revalidates every tile of every
+ * grid and gets 304s back. Tiles are served from loose files and from a pack. Not a unit test;
+ * run its main method directly, optionally with the tile directory and the number of pans. The
+ * session is RasterBenchmark's. Bodies go to a stream that counts and discards them, so writing
+ * to a socket is not included.
+ */
+public class TileEndpointBenchmark {
+    private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /** Counts the bytes written to it and drops them. */
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private interface Pan {
+        /** Serves one pan and returns the bytes sent for it. */
+        long serve(RasterResultParams params) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String root = args.length > 0 ? args[0] : IMG_ROOT;
+        int pans = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        RasterRequestParams[] session = RasterBenchmark.session(pans, new Random(21));
+        Rasterer rasterer = new Rasterer();
+        RasterBenchmark.drawMissingTiles(root, rasterer, session);
+        File file = File.createTempFile("bearmaps", ".pack");
+        file.deleteOnExit();
+        TilePack.write(root, file.getPath(), Rasterer.MAX_DEPTH);
+        TileEndpoint loose = new TileEndpoint(null, root);
+        TileEndpoint packed = new TileEndpoint(TilePack.open(file.getPath()), root);
+        MapServer.tiles = new TileCache(name -> Files.readAllBytes(Paths.get(root, name)),
+                128L << 20, 32L << 20);
+
+        Pan rendered = params -> MapServer.rasterJson(params, MapServer.renderImage(params))
+                .getBytes(StandardCharsets.UTF_8).length;
+        /* The first round warms up the JIT, the OS file cache and the caches of tiles and tags. */
+        for (int round = 0; round < 2; round += 1) {
+            System.out.println(round == 0 ? "Warm-up:" : "Measured:");
+            replay("rendered raster          ", rasterer, session, rendered);
+            replay("grid, new tiles, loose   ", rasterer, session, newTiles(loose));
+            replay("grid, new tiles, pack    ", rasterer, session, newTiles(packed));
+            replay("grid, revalidating, loose", rasterer, session, revalidating(loose));
+            replay("grid, revalidating, pack ", rasterer, session, revalidating(packed));
+        }
+    }
+
+    /** Sends the grid, then each of its tiles that this client has not been sent before. */
+    private static Pan newTiles(TileEndpoint endpoint) {
+        Set<String> seen = new HashSet<>();
+        return params -> {
+            long bytes = MapServer.gridJson(params).getBytes(StandardCharsets.UTF_8).length;
+            for (String[] row : params.renderGrid) {
+                for (String name : row) {
+                    if (seen.add(name)) {
+                        int[] dxy = TilePack.parse(name);
+                        CountingStream os = new CountingStream();
+                        endpoint.send(endpoint.find(dxy[0], dxy[1], dxy[2]), os);
+                        bytes += os.count;
+                    }
+                }
+            }
+            return bytes;
+        };
+    }
+
+    /** Sends the grid, then answers a conditional GET for each of its tiles with a 304. */
+    private static Pan revalidating(TileEndpoint endpoint) {
+        return params -> {
+            long bytes = MapServer.gridJson(params).getBytes(StandardCharsets.UTF_8).length;
+            for (String[] row : params.renderGrid) {
+                for (String name : row) {
+                    int[] dxy = TilePack.parse(name);
+                    TileEndpoint.Tile tile = endpoint.find(dxy[0], dxy[1], dxy[2]);
+                    if (!TileEndpoint.notModified(tile.etag, tile.etag)) {
+                        throw new AssertionError(name);
+                    }
+                }
+            }
+            return bytes;
+        };
+    }
+
+    private static void replay(String label, Rasterer rasterer, RasterRequestParams[] session,
+                               Pan pan) throws IOException {
+        long[] cpu = new long[session.length];
+        long bytes = 0;
+        for (int i = 0; i < session.length; i += 1) {
+            long start = THREADS.getCurrentThreadCpuTime();
+            bytes += pan.serve(rasterer.getMapRaster(session[i]));
+            cpu[i] = THREADS.getCurrentThreadCpuTime() - start;
+        }
+        long total = Arrays.stream(cpu).sum();
+        Arrays.sort(cpu);
+        System.out.printf("%s CPU mean %8.3f ms, p50 %8.3f ms, p99 %8.3f ms; %8.1f KB per pan%n",
+                label, total / 1e6 / cpu.length, cpu[cpu.length / 2] / 1e6,
+                cpu[Math.min(cpu.length - 1, (int) (0.99 * cpu.length))] / 1e6,
+                bytes / 1e3 / session.length);
+    }
+}
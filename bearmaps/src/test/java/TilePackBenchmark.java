@@ -0,0 +1,90 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the cost of reading a tile's bytes from a directory of loose files, from a tile pack
+ * into a new array as TileCache loads it, and from a tile pack as a slice of the mapping, for
+ * random tiles read from all cores at once. Not a unit test; run its main method directly,
+ * optionally with the tile directory, the number of reads, a pack file and one of loose, copied
+ * or slice. The pack is written first unless it exists. Given one way of reading, the benchmark
+ * runs only that one, once, so that it can be timed against a cold page cache by dropping the
+ * cache before each run.
+ */
+public class TilePackBenchmark {
+    private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
+
+    private interface Read {
+        int bytes(String name) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String root = args.length > 0 ? args[0] : IMG_ROOT;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        File file;
+        if (args.length > 2) {
+            file = new File(args[2]);
+        } else {
+            file = File.createTempFile("bearmaps", ".pack");
+            file.deleteOnExit();
+        }
+        String only = args.length > 3 ? args[3] : null;
+        if (only == null || !file.exists()) {
+            long t0 = System.nanoTime();
+            TilePack.write(root, file.getPath(), Rasterer.MAX_DEPTH);
+            System.out.printf("Packed in %.1f s%n", (System.nanoTime() - t0) / 1e9);
+        }
+        TilePack pack = TilePack.open(file.getPath());
+        System.out.printf("%d tiles, %.1f MB%n", pack.count(), pack.size() / 1e6);
+
+        List<String> present = new ArrayList<>();
+        for (int d = 0; d <= Rasterer.MAX_DEPTH; d += 1) {
+            for (int y = 0; y < 1 << d; y += 1) {
+                for (int x = 0; x < 1 << d; x += 1) {
+                    if (pack.tile(d, x, y) != null) {
+                        present.add(TilePack.name(d, x, y));
+                    }
+                }
+            }
+        }
+        Random r = new Random(24);
+        String[] names = new String[reads];
+        for (int i = 0; i < reads; i += 1) {
+            names[i] = present.get(r.nextInt(present.size()));
+        }
+
+        System.out.printf("%d cores%n", Runtime.getRuntime().availableProcessors());
+        String[] labels = {"loose", "copied", "slice"};
+        Read[] ways = {
+            name -> Files.readAllBytes(Paths.get(root, name)).length,
+            name -> pack.read(name).length,
+            name -> pack.tile(name).remaining()};
+        /* The first round warms up the JIT and the OS file cache. */
+        for (int round = 0; round < (only == null ? 2 : 1); round += 1) {
+            for (int i = 0; i < ways.length; i += 1) {
+                if (only == null || only.equals(labels[i])) {
+                    measure(labels[i], names, ways[i]);
+                }
+            }
+        }
+    }
+
+    private static void measure(String label, String[] names, Read read) {
+        long start = System.nanoTime();
+        long bytes = IntStream.range(0, names.length).parallel().mapToLong(i -> {
+            try {
+                return read.bytes(names[i]);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }).sum();
+        long nanos = System.nanoTime() - start;
+        System.out.printf("%-6s %8.2f us per tile, %8.0f tiles/s (%d bytes)%n", label,
+                nanos / 1e3 / names.length, names.length / (nanos / 1e9), bytes);
+    }
+}